@@ -45,6 +45,29 @@ public abstract class Decomposer
 	}
 	
 	
+	/**
+		Copies a square matrix into a buffer, that is allocated 
+		only when missing or when its size is different.
+		
+		It is used by the decomposers that work on their own copy 
+		of the matrix, so that the same buffer is reused across 
+		decompositions of matrices of the same size.
+		
+		@param a the matrix to copy
+		@param buffer the buffer, or null
+		@return the buffer storing the copy
+	*/	
+	protected static double[][] copy(double[][] a, double[][] buffer)
+	{
+		int n = a.length;
+		if (buffer == null || buffer.length != n)
+			buffer = new double[n][n];
+		for (int i=0; i<n; i++)
+			System.arraycopy(a[i], 0, buffer[i], 0, n);
+		
+		return buffer;
+	}
+	
 	/**
 		Decomposes the matrix.
 		
@@ -66,6 +89,70 @@ public abstract class Decomposer
 	*/
 	abstract public double[] solve(double[][] a, double[] b);
 	
+	/**
+		Solves a system of linear equations of the form 
+		X=AB, for several right-hand sides at once, using 
+		a single decomposition of A.
+		
+		Each column of B is a right-hand side. It can be used 
+		to evaluate the inverse of A, when B is the identity.
+		
+		@precondition the dimensions of the systems must agree
+		
+		@param a the matrix A
+		@param b the matrix B
+		@return the solution of the system
+	*/
+	abstract public double[][] solve(double[][] a, double[][] b);
+	
+	/**
+		Solves a system of linear equations of the form 
+		x=Ab, storing the solution in the given vector.
+		
+		Implementations may overwrite A with its decomposition,
+		so that no memory is allocated when the same buffers are
+		reused across several systems. By default, the system is 
+		solved by solve(double[][], double[]) and the solution 
+		is copied.
+		
+		@precondition the dimensions of the systems must agree
+		
+		@param a the matrix A, that may be overwritten
+		@param b the vector b
+		@param x the vector where the solution is stored
+		@return the solution of the system, that is x
+	*/
+	public double[] solve(double[][] a, double[] b, double[] x)
+	{
+		System.arraycopy(solve(a, b), 0, x, 0, x.length);
+		return x;
+	}
+	
+	/**
+		Solves a system of linear equations of the form 
+		X=AB, for several right-hand sides at once, storing
+		the solution in the given matrix.
+		
+		Implementations may overwrite A with its decomposition,
+		as in solve(double[][], double[], double[]). By default, 
+		the system is solved by solve(double[][], double[][]) and
+		the solution is copied.
+		
+		@precondition the dimensions of the systems must agree
+		
+		@param a the matrix A, that may be overwritten
+		@param b the matrix B
+		@param x the matrix where the solution is stored
+		@return the solution of the system, that is X
+	*/
+	public double[][] solve(double[][] a, double[][] b, double[][] x)
+	{
+		double[][] solution = solve(a, b);
+		for (int i=0; i<x.length; i++)
+			System.arraycopy(solution[i], 0, x[i], 0, x[i].length);
+		return x;
+	}
+	
 	/**
 		Evaluates the natural logarithm of the square root of 
 		determinant of the decomposition.
@@ -24,6 +24,11 @@ import Jama.*;
 
 /** 
 	Performs the Cholesky decomposition.
+	
+	Systems whose solution is stored in a given buffer are solved
+	by decomposing the matrix in place, without allocating memory
+	(the factor L replaces the lower triangle of the matrix).
+	Otherwise, the "Jama" library is used.
 
 	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
 	@version     1.0
@@ -33,6 +38,11 @@ public class MyCholesky extends Decomposer
 {
 	/**  The result of the decomposition */
 	CholeskyDecomposition choleskyDecomposition;  
+	/**  The matrix whose lower triangle stores the factor L,
+		when the decomposition is performed in place */
+	private double[][] factor;
+	/**  The logarithm of the determinant of the factor L */
+	private double lnDet;
 	
 	/**
 		Constructor. 
@@ -43,6 +53,8 @@ public class MyCholesky extends Decomposer
     {
 		super();
 		choleskyDecomposition = null;
+		factor = null;
+		lnDet = Double.NaN;
     }
     
 	/**
@@ -59,8 +71,58 @@ public class MyCholesky extends Decomposer
         assert a.length == a[0].length : "MyCholesky: the Cholesky can't be applied: the matrix is not square";
 		
 		choleskyDecomposition = new CholeskyDecomposition(new Matrix(a));
+		factor = null;
+		
+		//the determinant of L is the product of its diagonal
+		double[][] l = choleskyDecomposition.getL().getArray();
+		lnDet = 0.0;
+		for (int i=0; i<l.length; i++)
+			lnDet += Math.log(l[i][i]);
     }
 	
+	/**
+		Decomposes the matrix in place, that is the factor L
+		replaces the lower triangle of the matrix, while the
+		upper triangle is not used. 
+		
+		The operations are performed in the same order used
+		by the "Jama" library.
+		
+		@precondition the matrix must be square and symmetric
+		
+		@param a the matrix to decompose, that is overwritten
+		@throws RuntimeException if the matrix is not positive definite
+	*/
+	private void decomposeInPlace(double[][] a) 
+	{
+		assert a.length == 0 || a.length == a[0].length : "MyCholesky: the Cholesky can't be applied: the matrix is not square";
+		
+		int n = a.length;
+		lnDet = 0.0;
+		for (int j=0; j<n; j++)
+		{
+			double[] lrowj = a[j];
+			double d = 0.0;
+			for (int k=0; k<j; k++)
+			{
+				double[] lrowk = a[k];
+				double s = 0.0;
+				for (int i=0; i<k; i++)
+					s += lrowk[i] * lrowj[i];
+				lrowj[k] = s = (lrowj[k] - s) / lrowk[k];
+				d += s * s;
+			}
+			d = lrowj[j] - d;
+			if (!(d > 0.0))
+				throw new RuntimeException("Matrix is not symmetric positive definite.");
+			lrowj[j] = Math.sqrt(d);
+			lnDet += Math.log(lrowj[j]);
+		}
+		
+		factor = a;
+		choleskyDecomposition = null;
+	}
+	
 	/**
 		Gets the Cholesky factor L of the decomposed matrix A.
 	
@@ -70,9 +132,16 @@ public class MyCholesky extends Decomposer
 	*/
 	public double[][] getL()
 	{
-		assert choleskyDecomposition != null : "MyCholesky: Cholesky Decomposition not initialised.";
+		assert choleskyDecomposition != null || factor != null : "MyCholesky: Cholesky Decomposition not initialised.";
 		
-		return choleskyDecomposition.getL().getArray();
+		if (factor == null)
+			return choleskyDecomposition.getL().getArray();
+		
+		int n = factor.length;
+		double[][] l = new double[n][n];
+		for (int i=0; i<n; i++)
+			System.arraycopy(factor[i], 0, l[i], 0, i+1);
+		return l;
 	}
 	
 	/**
@@ -107,17 +176,107 @@ public class MyCholesky extends Decomposer
 		return convert(X);
     }
 
+	/**
+		{@inheritDoc}
+	*/
+    @Override
+    public double[][] solve(double[][] a, double[][] b) 
+    {
+		assert a.length == b.length : "MyCholesky: system dimensions must agree";
+		 
+		decompose(a);
+		return choleskyDecomposition.solve(new Matrix(b)).getArray();
+    }
+
+	/**
+		{@inheritDoc}
+		
+		The matrix A is decomposed in place.
+	*/
+    @Override
+    public double[] solve(double[][] a, double[] b, double[] x) 
+    {
+		assert a.length == b.length && b.length == x.length : "MyCholesky: system dimensions must agree";
+		 
+		decomposeInPlace(a);
+		
+		int n = x.length;
+		System.arraycopy(b, 0, x, 0, n);
+		
+		//solves L*Y = B
+		for (int k=0; k<n; k++) 
+		{
+			for (int i=0; i<k; i++) 
+				x[k] -= x[i] * factor[k][i];
+			x[k] /= factor[k][k];
+		}
+		
+		//solves L'*X = Y
+		for (int k=n-1; k>=0; k--) 
+		{
+			for (int i=k+1; i<n; i++) 
+				x[k] -= x[i] * factor[i][k];
+			x[k] /= factor[k][k];
+		}
+		
+		return x;
+    }
+
+	/**
+		{@inheritDoc}
+		
+		The matrix A is decomposed in place.
+	*/
+    @Override
+    public double[][] solve(double[][] a, double[][] b, double[][] x) 
+    {
+		assert a.length == b.length && b.length == x.length : "MyCholesky: system dimensions must agree";
+		 
+		decomposeInPlace(a);
+		
+		int n = x.length;
+		int nx = (n == 0) ? 0 : x[0].length;
+		for (int i=0; i<n; i++)
+			System.arraycopy(b[i], 0, x[i], 0, nx);
+		
+		//solves L*Y = B
+		for (int k=0; k<n; k++) 
+		{
+			for (int j=0; j<nx; j++) 
+			{
+				for (int i=0; i<k; i++) 
+					x[k][j] -= x[i][j] * factor[k][i];
+				x[k][j] /= factor[k][k];
+			}
+		}
+		
+		//solves L'*X = Y
+		for (int k=n-1; k>=0; k--) 
+		{
+			for (int j=0; j<nx; j++) 
+			{
+				for (int i=k+1; i<n; i++) 
+					x[k][j] -= x[i][j] * factor[i][k];
+				x[k][j] /= factor[k][k];
+			}
+		}
+		
+		return x;
+    }
+
 	/**
 		{@inheritDoc}
 	*/	
     @Override
     public double lnDet() 
     {
-		assert choleskyDecomposition != null : "MyCholesky: Cholesky Decomposition not initialised.";
+		assert choleskyDecomposition != null || factor != null : "MyCholesky: Cholesky Decomposition not initialised.";
 		
 		//I do not need to perform the square root explicitly since 
 		//it is already considered in the decomposition.
-		return Math.log( (choleskyDecomposition.getL()).det()   );
+		//The logarithm of the determinant of L is evaluated as 
+		//the sum of the logarithms of its diagonal, when decomposing.
+		return lnDet;
     }
 	
 }
@@ -0,0 +1,147 @@
+/*
+ * 	 MyEigen.java
+ *
+ *   This is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   It is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this code.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.algebrautils;
+
+import Jama.*;
+
+/**
+	Performs the eigendecomposition of a symmetric matrix,
+	that is A = U * diag(lambda) * U', and rotates vectors
+	and matrices in the basis of its eigenvectors.
+
+	Once the matrix is decomposed, any matrix of the form
+	a*I + b*A shares the same eigenvectors and has eigenvalues
+	a + b*lambda, thus systems and determinants involving it
+	can be evaluated in linear time in the rotated basis.
+
+	It uses	the "Jama" library for the decomposition.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+*/
+
+public class MyEigen
+{
+	/** The eigenvalues, in ascending order */
+	private final double[] eigenvalues;
+	/** The eigenvectors, stored in columns */
+	private final double[][] eigenvectors;
+	/** The size of the original (square) matrix. */
+	private final int size;
+
+	/**
+		Constructor.
+
+		Decomposes the given matrix. The matrix is not modified.
+
+		@precondition the matrix must be square and symmetric
+
+		@param a the matrix to decompose
+	*/
+	public MyEigen(double[][] a)
+	{
+		assert a.length == 0 || a.length == a[0].length : "MyEigen: the eigendecomposition can't be applied: the matrix is not square";
+
+		size = a.length;
+
+		//Jama uses the symmetric tridiagonal QL algorithm
+		//when the matrix is symmetric
+		EigenvalueDecomposition evd = new EigenvalueDecomposition(new Matrix(a, size, size));
+		eigenvalues = evd.getRealEigenvalues();
+		eigenvectors = evd.getV().getArray();
+	}
+
+	/**
+		Returns the size of the decomposed matrix.
+
+		@return the size of the matrix
+	*/
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+		Returns the eigenvalues of the decomposed matrix.
+
+		@return the eigenvalues
+	*/
+	public double[] eigenvalues()
+	{
+		return eigenvalues;
+	}
+
+	/**
+		Rotates a vector in the basis of the eigenvectors,
+		that is it evaluates U'b.
+
+		@precondition the dimensions must agree
+
+		@param b the vector to rotate
+		@return the rotated vector
+	*/
+	public double[] rotate(double[] b)
+	{
+		assert b.length == size : "MyEigen: dimensions must agree";
+
+		double[] x = new double[size];
+		for (int i=0; i<size; i++)
+		{
+			double[] u = eigenvectors[i];
+			for (int k=0; k<size; k++)
+				x[k] += u[k] * b[i];
+		}
+
+		return x;
+	}
+
+	/**
+		Rotates the columns of a matrix in the basis of the
+		eigenvectors, that is it evaluates U'B.
+
+		@precondition the number of rows of B must agree with the
+		size of the decomposed matrix
+
+		@param b the matrix to rotate
+		@return the rotated matrix
+	*/
+	public double[][] rotate(double[][] b)
+	{
+		assert b.length == size : "MyEigen: dimensions must agree";
+
+		int cols = (size == 0) ? 0 : b[0].length;
+		double[][] x = new double[size][cols];
+		for (int i=0; i<size; i++)
+		{
+			double[] u = eigenvectors[i];
+			for (int k=0; k<size; k++)
+			{
+				double v = u[k];
+				if (v == 0.0)
+					continue;
+				for (int j=0; j<cols; j++)
+					x[k][j] += v * b[i][j];
+			}
+		}
+
+		return x;
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ * 	 MyLDL.java
+ *
+ *   This is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   It is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this code.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.algebrautils;
+
+/**
+	Performs the LDL' decomposition of a symmetric (possibly
+	indefinite) matrix with the Bunch-Kaufman diagonal pivoting,
+	that is P*A*P' = L*D*L', where L is unit lower triangular
+	and D is block diagonal, with blocks of order 1 or 2.
+
+	It costs about half the LU and a quarter of the QR decomposition,
+	and it can be used with matrices that are not positive definite,
+	such as unbent genetic relationship matrices. The determinant
+	is evaluated from the blocks of D.
+
+	The factors are stored in a buffer that is reused as long as
+	the size of the decomposed matrices does not change. Since the
+	matrices are symmetric, the k-th row of the buffer stores the
+	k-th column of the lower triangle, so that the columns of L are
+	accessed by rows. The algorithm is the one of the LAPACK routines
+	DSYTF2 and DSYTRS (lower triangle).
+
+	References for the implementation can be found at:
+		Bunch, James R., and Linda Kaufman. Some stable methods for
+		calculating inertia and solving symmetric linear systems.
+		Mathematics of computation 31.137 (1977): 163-179.
+		Anderson, Edward, et al. LAPACK Users' guide. SIAM, 1999.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+*/
+
+public class MyLDL extends Decomposer
+{
+	/**  Threshold used to choose the pivots, that is (1+sqrt(17))/8 */
+	private static final double ALPHA = (1.0 + Math.sqrt(17.0)) / 8.0;
+
+	/**  The result of the decomposition, stored by columns */
+	private double[][] ldl;
+	/**  The pivots, in the LAPACK notation (0-based): the k-th row
+		was exchanged with the pivots[k]-th row for a block of order 1,
+		while for a block of order 2 starting at k both pivots[k] and
+		pivots[k+1] are -(p+1), where p is the row exchanged with the
+		(k+1)-th row */
+	private int[] pivots;
+	/**  The column solved by the last substitution, reused by the 
+		systems with several right-hand sides */
+	private double[] column;
+	/**  The logarithm of the absolute value of the determinant of D */
+	private double lnDet;
+
+	/**
+		Constructor.
+
+		Initialises an empty object.
+	*/
+	public MyLDL()
+	{
+		super();
+		ldl = null;
+		pivots = null;
+		column = null;
+		lnDet = Double.NaN;
+	}
+
+	/**
+		Exchanges two elements of a vector.
+
+		@param x the vector
+		@param i the position of the first element
+		@param j the position of the second element
+	*/
+	private static void swap(double[] x, int i, int j)
+	{
+		double t = x[i];
+		x[i] = x[j];
+		x[j] = t;
+	}
+
+	/**
+		Exchanges two elements of two vectors.
+
+		@param x the first vector
+		@param i the position in the first vector
+		@param y the second vector
+		@param j the position in the second vector
+	*/
+	private static void swap(double[] x, int i, double[] y, int j)
+	{
+		double t = x[i];
+		x[i] = y[j];
+		y[j] = t;
+	}
+
+	/**
+		{@inheritDoc}
+
+		The matrix is not modified, and only its lower
+		triangle is used.
+
+		@precondition the matrix must be square and symmetric
+		@throws RuntimeException if the matrix is singular
+	*/
+	@Override
+	protected void decompose(double[][] a)
+	{
+		assert a.length == 0 || a.length == a[0].length : "MyLDL: the LDL' decomposition can't be applied: the matrix is not square";
+
+		//the matrix is symmetric, thus its rows are its columns
+		size = a.length;
+		ldl = copy(a, ldl);
+		if (pivots == null || pivots.length != size)
+			pivots = new int[size];
+
+		lnDet = 0.0;
+		int k = 0;
+		while (k < size)
+		{
+			double[] colk = ldl[k];
+			int kstep = 1;
+			int kp;
+
+			//largest off-diagonal element in the k-th column
+			double absakk = Math.abs(colk[k]);
+			int imax = k;
+			double colmax = 0.0;
+			for (int i=k+1; i<size; i++)
+				if (Math.abs(colk[i]) > colmax)
+				{
+					colmax = Math.abs(colk[i]);
+					imax = i;
+				}
+
+			if (Math.max(absakk, colmax) == 0.0)
+				throw new RuntimeException("Matrix is singular.");
+
+			if (absakk >= ALPHA * colmax)
+				kp = k;
+			else
+			{
+				//largest off-diagonal element in the imax-th row/column
+				double rowmax = 0.0;
+				for (int j=k; j<imax; j++)
+					rowmax = Math.max(rowmax, Math.abs(ldl[j][imax]));
+				for (int j=imax+1; j<size; j++)
+					rowmax = Math.max(rowmax, Math.abs(ldl[imax][j]));
+
+				if (absakk >= ALPHA * colmax * (colmax / rowmax))
+					kp = k;
+				else if (Math.abs(ldl[imax][imax]) >= ALPHA * rowmax)
+					kp = imax;
+				else
+				{
+					kp = imax;
+					kstep = 2;
+				}
+			}
+
+			//interchanges rows and columns kk and kp in the trailing submatrix
+			int kk = k + kstep - 1;
+			if (kp != kk)
+			{
+				double[] colkk = ldl[kk];
+				double[] colkp = ldl[kp];
+				for (int i=kp+1; i<size; i++)
+					swap(colkk, i, colkp, i);
+				for (int j=kk+1; j<kp; j++)
+					swap(colkk, j, ldl[j], kp);
+				swap(colkk, kk, colkp, kp);
+				if (kstep == 2)
+					swap(colk, k+1, kp);
+			}
+
+			if (kstep == 1)
+			{
+				//1x1 block: A = A - (1/d) * x * x', then L(k) = x / d
+				double d11 = 1.0 / colk[k];
+				for (int j=k+1; j<size; j++)
+				{
+					double t = d11 * colk[j];
+					if (t == 0.0)
+						continue;
+					double[] colj = ldl[j];
+					for (int i=j; i<size; i++)
+						colj[i] -= colk[i] * t;
+				}
+				for (int i=k+1; i<size; i++)
+					colk[i] *= d11;
+
+				lnDet += Math.log(Math.abs(colk[k]));
+				pivots[k] = kp;
+			}
+			else
+			{
+				//2x2 block: A = A - [x y] * D^-1 * [x y]', then L(k, k+1) = [x y] * D^-1
+				double[] colk1 = ldl[k+1];
+				double d21 = colk[k+1];
+				double d11 = colk1[k+1] / d21;
+				double d22 = colk[k] / d21;
+				double t = 1.0 / (d11 * d22 - 1.0);
+
+				//det(D) = d21^2 * (d11 * d22 - 1)
+				lnDet += 2.0 * Math.log(Math.abs(d21)) + Math.log(Math.abs(d11 * d22 - 1.0));
+
+				d21 = t / d21;
+				for (int j=k+2; j<size; j++)
+				{
+					double wk = d21 * (d11 * colk[j] - colk1[j]);
+					double wkp1 = d21 * (d22 * colk1[j] - colk[j]);
+					double[] colj = ldl[j];
+					for (int i=j; i<size; i++)
+						colj[i] -= colk[i] * wk + colk1[i] * wkp1;
+					colk[j] = wk;
+					colk1[j] = wkp1;
+				}
+
+				pivots[k] = -(kp + 1);
+				pivots[k+1] = -(kp + 1);
+			}
+
+			k += kstep;
+		}
+	}
+
+	/**
+		{@inheritDoc}
+	*/
+	@Override
+	public double[] solve(double[][] a, double[] b)
+	{
+		return solve(a, b, new double[b.length]);
+	}
+
+	/**
+		{@inheritDoc}
+	*/
+	@Override
+	public double[][] solve(double[][] a, double[][] b)
+	{
+		int nx = (b.length == 0) ? 0 : b[0].length;
+		return solve(a, b, new double[b.length][nx]);
+	}
+
+	/**
+		{@inheritDoc}
+
+		The matrix A is not modified.
+	*/
+	@Override
+	public double[] solve(double[][] a, double[] b, double[] x)
+	{
+		assert a.length == b.length && b.length == x.length : "MyLDL: system dimensions must agree";
+
+		decompose(a);
+
+		System.arraycopy(b, 0, x, 0, size);
+		return substitute(x);
+	}
+
+	/**
+		{@inheritDoc}
+
+		The matrix A is not modified.
+	*/
+	@Override
+	public double[][] solve(double[][] a, double[][] b, double[][] x)
+	{
+		assert a.length == b.length && b.length == x.length : "MyLDL: system dimensions must agree";
+
+		decompose(a);
+
+		//each column is solved independently
+		int nx = (size == 0) ? 0 : x[0].length;
+		if (column == null || column.length != size)
+			column = new double[size];
+		for (int c=0; c<nx; c++)
+		{
+			for (int i=0; i<size; i++)
+				column[i] = b[i][c];
+			substitute(column);
+			for (int i=0; i<size; i++)
+				x[i][c] = column[i];
+		}
+
+		return x;
+	}
+
+	/**
+		Solves the system using the factors of the last
+		decomposition.
+
+		@precondition a matrix A should have been decomposed
+
+		@param x the vector b, that is overwritten by the solution
+		@return the solution of the system, that is x
+	*/
+	private double[] substitute(double[] x)
+	{
+		//solves L*D*Y = P*B
+		int k = 0;
+		while (k < size)
+		{
+			double[] colk = ldl[k];
+			if (pivots[k] >= 0)
+			{
+				swap(x, k, pivots[k]);
+				double xk = x[k];
+				for (int i=k+1; i<size; i++)
+					x[i] -= colk[i] * xk;
+				x[k] = xk / colk[k];
+				k++;
+			}
+			else
+			{
+				double[] colk1 = ldl[k+1];
+				swap(x, k+1, -pivots[k]-1);
+				double xk = x[k];
+				double xk1 = x[k+1];
+				for (int i=k+2; i<size; i++)
+					x[i] -= colk[i] * xk + colk1[i] * xk1;
+
+				double akm1k = colk[k+1];
+				double akm1 = colk[k] / akm1k;
+				double ak = colk1[k+1] / akm1k;
+				double denom = akm1 * ak - 1.0;
+				double bkm1 = xk / akm1k;
+				double bk = xk1 / akm1k;
+				x[k] = (ak * bkm1 - bk) / denom;
+				x[k+1] = (akm1 * bk - bkm1) / denom;
+				k += 2;
+			}
+		}
+
+		//solves L'*P*X = Y
+		k = size - 1;
+		while (k >= 0)
+		{
+			double[] colk = ldl[k];
+			double s = x[k];
+			for (int i=k+1; i<size; i++)
+				s -= colk[i] * x[i];
+			x[k] = s;
+
+			if (pivots[k] >= 0)
+			{
+				swap(x, k, pivots[k]);
+				k--;
+			}
+			else
+			{
+				double[] colk1 = ldl[k-1];
+				s = x[k-1];
+				for (int i=k+1; i<size; i++)
+					s -= colk1[i] * x[i];
+				x[k-1] = s;
+				swap(x, k, -pivots[k]-1);
+				k -= 2;
+			}
+		}
+
+		return x;
+	}
+
+	/**
+		{@inheritDoc}
+
+		The absolute value of the determinant is used.
+	*/
+	@Override
+	public double lnDet()
+	{
+		assert ldl != null : "MyLDL: LDL' Decomposition not initialised.";
+
+		return lnDet/2;
+	}
+}
@@ -20,93 +20,235 @@
 
 package com.github.alesssia.algebrautils;
 
-import no.uib.cipr.matrix.*;
-import java.util.Arrays;
+/**
+	Performs the LU decomposition with partial pivoting, that
+	is P*A = L*U.
 
-/** 
-	Performs the LU decomposition.
+	The matrix is factorised once, and the same factors are
+	used both to solve the systems and to evaluate the determinant.
+	The factors are stored in a buffer that is reused as long as
+	the size of the decomposed matrices does not change: the
+	strictly lower triangle stores L (whose diagonal is set to 1)
+	and the upper triangle stores U.
 
 	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
-	@version     1.0     
+	@version     1.0
 */
 
 public class MyLU extends Decomposer
 {
-	
-	/**  The result of the decomposition */
-	private DenseLU luDecomposition;  
-	
+
+	/**  The result of the decomposition, rows are permuted */
+	private double[][] lu;
+	/**  The pivots, that is the row exchanged with the k-th
+		row at the k-th step of the decomposition */
+	private int[] pivots;
+
 	/**
 		{@inheritDoc}
-	*/	
+	*/
     public MyLU()
     {
 		super();
-		luDecomposition = null;
+		lu = null;
+		pivots = null;
     }
-    
+
 	/**
 		{@inheritDoc}
-		
-		It can be applied to a square matrix only.
-		
+
+		It can be applied to a square matrix only. The matrix
+		is not modified.
+
 		@precondition the matrix must be square
+		@throws RuntimeException if the matrix is singular
 	*/
     @Override
-    protected void decompose(double[][] a) 
+    protected void decompose(double[][] a)
     {
 		//LU requires a square matrix
-        assert a.length == a[0].length : "MyLU: the LU decomposition can't be applied: the matrix is not square";
-		
+        assert a.length == 0 || a.length == a[0].length : "MyLU: the LU decomposition can't be applied: the matrix is not square";
+
 		size = a.length;
-		luDecomposition = DenseLU.factorize( new DenseMatrix(a) );
+		lu = copy(a, lu);
+		if (pivots == null || pivots.length != size)
+			pivots = new int[size];
+
+		for (int k=0; k<size; k++)
+		{
+			//finds the pivot
+			int p = k;
+			for (int i=k+1; i<size; i++)
+				if (Math.abs(lu[i][k]) > Math.abs(lu[p][k]))
+					p = i;
+			pivots[k] = p;
+			if (p != k)
+			{
+				double[] t = lu[p];
+				lu[p] = lu[k];
+				lu[k] = t;
+			}
+
+			double[] lurowk = lu[k];
+			if (lurowk[k] == 0.0)
+				throw new RuntimeException("Matrix is singular.");
+
+			//eliminates the k-th column
+			for (int i=k+1; i<size; i++)
+			{
+				double[] lurowi = lu[i];
+				double m = lurowi[k] / lurowk[k];
+				lurowi[k] = m;
+				if (m == 0.0)
+					continue;
+				for (int j=k+1; j<size; j++)
+					lurowi[j] -= m * lurowk[j];
+			}
+		}
+    }
+
+	/**
+		{@inheritDoc}
+	*/
+    @Override
+    public double[] solve(double[][] a, double[] b)
+    {
+		return solve(a, b, new double[b.length]);
     }
 
 	/**
 		{@inheritDoc}
 	*/
     @Override
-    public double[] solve(double[][] a, double[] b) 
+    public double[][] solve(double[][] a, double[][] b)
     {
-		assert a.length == b.length : "MyLU: system dimensions must agree";
-		 
+		int nx = (b.length == 0) ? 0 : b[0].length;
+		return solve(a, b, new double[b.length][nx]);
+    }
+
+	/**
+		{@inheritDoc}
+
+		The matrix A is not modified.
+	*/
+    @Override
+    public double[] solve(double[][] a, double[] b, double[] x)
+    {
+		assert a.length == b.length && b.length == x.length : "MyLU: system dimensions must agree";
+
 		decompose(a);
-		return luDecomposition.solve(new DenseMatrix(new DenseVector(b))).getData();
+
+		System.arraycopy(b, 0, x, 0, size);
+		for (int k=0; k<size; k++)
+		{
+			double t = x[k];
+			x[k] = x[pivots[k]];
+			x[pivots[k]] = t;
+		}
+
+		//solves L*Y = P*B
+		for (int i=0; i<size; i++)
+		{
+			double[] lurowi = lu[i];
+			double s = x[i];
+			for (int j=0; j<i; j++)
+				s -= lurowi[j] * x[j];
+			x[i] = s;
+		}
+
+		//solves U*X = Y
+		for (int i=size-1; i>=0; i--)
+		{
+			double[] lurowi = lu[i];
+			double s = x[i];
+			for (int j=i+1; j<size; j++)
+				s -= lurowi[j] * x[j];
+			x[i] = s / lurowi[i];
+		}
+
+		return x;
     }
-	
 
 	/**
 		{@inheritDoc}
-	*/	
+
+		The matrix A is not modified.
+	*/
     @Override
-    public double lnDet() 
+    public double[][] solve(double[][] a, double[][] b, double[][] x)
     {
-		assert luDecomposition != null : "MyLU: LU decomposition not initialised.";
+		assert a.length == b.length && b.length == x.length : "MyLU: system dimensions must agree";
+
+		decompose(a);
+
+		int nx = (size == 0) ? 0 : x[0].length;
+		for (int i=0; i<size; i++)
+			System.arraycopy(b[i], 0, x[i], 0, nx);
+		for (int k=0; k<size; k++)
+		{
+			double[] t = x[k];
+			x[k] = x[pivots[k]];
+			x[pivots[k]] = t;
+		}
+
+		//solves L*Y = P*B
+		for (int i=0; i<size; i++)
+		{
+			double[] lurowi = lu[i];
+			double[] xi = x[i];
+			for (int j=0; j<i; j++)
+			{
+				double l = lurowi[j];
+				if (l == 0.0)
+					continue;
+				double[] xj = x[j];
+				for (int c=0; c<nx; c++)
+					xi[c] -= l * xj[c];
+			}
+		}
+
+		//solves U*X = Y
+		for (int i=size-1; i>=0; i--)
+		{
+			double[] lurowi = lu[i];
+			double[] xi = x[i];
+			for (int j=i+1; j<size; j++)
+			{
+				double u = lurowi[j];
+				if (u == 0.0)
+					continue;
+				double[] xj = x[j];
+				for (int c=0; c<nx; c++)
+					xi[c] -= u * xj[c];
+			}
+			for (int c=0; c<nx; c++)
+				xi[c] /= lurowi[i];
+		}
+
+		return x;
+    }
+
+	/**
+		{@inheritDoc}
+	*/
+    @Override
+    public double lnDet()
+    {
+		assert lu != null : "MyLU: LU decomposition not initialised.";
 		assert size != -1 : "MyLU: LU dimension not set.";
-		
-		//getData returns an array describing:
-		// - in the lower triangular matrix the L part of the decomposition 
-		//   (since the diagonal of L is set to 1 this information is not 
-		//   represented). 
-		// - in the upper triangular matrix the U part of the decomposition 
-		double[] decomposition = luDecomposition.getL().getData();
-		
+
 		//To solve this, I will use the properties of logarithmic functions. In fact,
-		//what I need to evaluate is the natural logarithm of the square root of 
+		//what I need to evaluate is the natural logarithm of the square root of
 		//determinant of the decomposition, that is ln(sqrt(det(A))), or ln(det(A))/2,
-		//where det(A) = (-1)^S\prod(L_{ii})\prod(U_{ii}). 
-		//First I can observe that L_{ii} == 1 for each i, and thus det(A) can be 
+		//where det(A) = (-1)^S\prod(L_{ii})\prod(U_{ii}).
+		//First I can observe that L_{ii} == 1 for each i, and thus det(A) can be
 		//evaluated as: det(A) = (-1)^S\prod(U_{ii}). Then I can transform
-		//ln(det(A))/2=log(\prod(U_{ii}))/2=\Sigma(log(U_{ii}))/2.
-		// FIXME in this implementation (-1)^S has been ignored.
+		//ln(|det(A)|)/2=log(|\prod(U_{ii})|)/2=\Sigma(log(|U_{ii}|))/2.
+		// FIXME in this implementation the sign of the determinant has been ignored.
 		double result = 0.0;
-		//Of the vector representation of the decomposition, I will need only the diagonal elements
-		//that are described by the following recursive procedure
-		// - n_0 = 0
-		// - n_n = n_(n-1) + dim + 1
-		for (int i=0; i<decomposition.length; i+=size+1 )
-			result += Math.log(decomposition[i]);
-		
+		for (int i=0; i<size; i++)
+			result += Math.log(Math.abs(lu[i][i]));
+
 		return result/2;
 	}
 }
@@ -128,6 +128,52 @@ public class MyPCA
 		proportionOfVariance = null;
 	}
 	
+	/**
+		Constructor.
+		
+		Initialises the data structure with a data matrix that 
+		is already transposed.
+		
+		@param t the transposed matrix, that is modified by the PCA
+		@param missing the value used to represent missing values
+		@param missingValues whether the matrix includes missing values
+	*/
+	private MyPCA(double[][] t, double missing, boolean missingValues) 
+	{
+		input = null;
+		data = t;
+		
+		missingValue = missing;
+		hasMissing = missingValues;
+		
+		pca = null;
+		proportionOfVariance = null;
+	}
+	
+	/**
+		Returns the PCA of a data matrix that is already 
+		transposed, that is the row of the matrix describes 
+		the observations, while the columns describes the 
+		variables. 
+		
+		The matrix is not copied, thus it is modified by 
+		the PCA. It allows matrix with missing values that 
+		will be transformed during the PCA.
+		
+		@precondition the number of observations m must be greater or equals to the 
+		number of variables n.
+		
+		@param t the transposed matrix
+		@param missing the value used to represent missing values
+		@return the PCA, to be evaluated
+	*/
+	public static MyPCA transposed(double[][] t, double missing)
+	{
+		assert t.length >= t[0].length : "MyPCA : the number of observations is smaller than the number of variables to estimate";
+		
+		return new MyPCA(t, missing, true);
+	}
+	
 	/**
 		Returns the modified data used internally
 		by the PCA.
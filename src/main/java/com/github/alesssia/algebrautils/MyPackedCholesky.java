@@ -0,0 +1,241 @@
+/*
+ * 	 MyPackedCholesky.java
+ *
+ *   This is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   It is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this code.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.algebrautils;
+
+/**
+	Performs the Cholesky decomposition on packed storage.
+
+	The factor L is stored by rows in a single array of n(n+1)/2
+	elements, where the element L[i][j], with j &lt;= i, is in
+	position i(i+1)/2 + j. The array is allocated once and reused
+	as long as the size of the decomposed matrices does not change,
+	and only the lower triangle of the matrix is read.
+
+	Systems are solved by forward and back substitution on the
+	factor, and the determinant is evaluated as the product of
+	its diagonal, without any further decomposition.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+*/
+
+public class MyPackedCholesky extends Decomposer
+{
+	/**  The factor L, packed by rows */
+	private double[] packed;
+	/**  The logarithm of the determinant of the factor L */
+	private double lnDet;
+
+	/**
+		Constructor.
+
+		Initialises an empty object.
+	*/
+	public MyPackedCholesky()
+	{
+		super();
+		packed = null;
+		lnDet = Double.NaN;
+	}
+
+	/**
+		{@inheritDoc}
+
+		The matrix is not modified, and only its lower
+		triangle is used.
+
+		@precondition the matrix must be square and symmetric
+		@throws RuntimeException if the matrix is not positive definite
+	*/
+	@Override
+	protected void decompose(double[][] a)
+	{
+		//Cholesky requires a square matrix
+		assert a.length == 0 || a.length == a[0].length : "MyPackedCholesky: the Cholesky can't be applied: the matrix is not square";
+
+		size = a.length;
+		int length = size * (size + 1) / 2;
+		if (packed == null || packed.length != length)
+			packed = new double[length];
+
+		lnDet = 0.0;
+		for (int j=0, rj=0; j<size; rj+=++j)
+		{
+			double[] arowj = a[j];
+			double d = 0.0;
+			for (int k=0, rk=0; k<j; rk+=++k)
+			{
+				double s = 0.0;
+				for (int i=0; i<k; i++)
+					s += packed[rk+i] * packed[rj+i];
+				s = (arowj[k] - s) / packed[rk+k];
+				packed[rj+k] = s;
+				d += s * s;
+			}
+			d = arowj[j] - d;
+			if (!(d > 0.0))
+				throw new RuntimeException("Matrix is not symmetric positive definite.");
+			packed[rj+j] = Math.sqrt(d);
+			lnDet += Math.log(packed[rj+j]);
+		}
+	}
+
+	/**
+		Gets the Cholesky factor L of the decomposed matrix A.
+
+		@precondition a matrix A should have been decomposed
+
+		@return L, the Cholesky factor
+	*/
+	public double[][] getL()
+	{
+		assert packed != null : "MyPackedCholesky: Cholesky Decomposition not initialised.";
+
+		double[][] l = new double[size][size];
+		for (int i=0, ri=0; i<size; ri+=++i)
+			System.arraycopy(packed, ri, l[i], 0, i+1);
+		return l;
+	}
+
+	/**
+		{@inheritDoc}
+	*/
+	@Override
+	public double[] solve(double[][] a, double[] b)
+	{
+		return solve(a, b, new double[b.length]);
+	}
+
+	/**
+		{@inheritDoc}
+	*/
+	@Override
+	public double[][] solve(double[][] a, double[][] b)
+	{
+		int nx = (b.length == 0) ? 0 : b[0].length;
+		return solve(a, b, new double[b.length][nx]);
+	}
+
+	/**
+		{@inheritDoc}
+
+		The matrix A is not modified.
+	*/
+	@Override
+	public double[] solve(double[][] a, double[] b, double[] x)
+	{
+		assert a.length == b.length && b.length == x.length : "MyPackedCholesky: system dimensions must agree";
+
+		decompose(a);
+
+		System.arraycopy(b, 0, x, 0, size);
+
+		//solves L*Y = B
+		for (int k=0, rk=0; k<size; rk+=++k)
+		{
+			double s = x[k];
+			for (int i=0; i<k; i++)
+				s -= x[i] * packed[rk+i];
+			x[k] = s / packed[rk+k];
+		}
+
+		//solves L'*X = Y, reading L by rows
+		for (int k=size-1, rk=size*(size-1)/2; k>=0; rk-=k--)
+		{
+			double s = x[k] / packed[rk+k];
+			x[k] = s;
+			for (int i=0; i<k; i++)
+				x[i] -= s * packed[rk+i];
+		}
+
+		return x;
+	}
+
+	/**
+		{@inheritDoc}
+
+		The matrix A is not modified.
+	*/
+	@Override
+	public double[][] solve(double[][] a, double[][] b, double[][] x)
+	{
+		assert a.length == b.length && b.length == x.length : "MyPackedCholesky: system dimensions must agree";
+
+		decompose(a);
+
+		int nx = (size == 0) ? 0 : x[0].length;
+		for (int i=0; i<size; i++)
+			System.arraycopy(b[i], 0, x[i], 0, nx);
+
+		//solves L*Y = B
+		for (int k=0, rk=0; k<size; rk+=++k)
+		{
+			double[] xk = x[k];
+			for (int i=0; i<k; i++)
+			{
+				double l = packed[rk+i];
+				if (l == 0.0)
+					continue;
+				double[] xi = x[i];
+				for (int j=0; j<nx; j++)
+					xk[j] -= xi[j] * l;
+			}
+			double l = packed[rk+k];
+			for (int j=0; j<nx; j++)
+				xk[j] /= l;
+		}
+
+		//solves L'*X = Y, reading L by rows
+		for (int k=size-1, rk=size*(size-1)/2; k>=0; rk-=k--)
+		{
+			double[] xk = x[k];
+			double l = packed[rk+k];
+			for (int j=0; j<nx; j++)
+				xk[j] /= l;
+			for (int i=0; i<k; i++)
+			{
+				l = packed[rk+i];
+				if (l == 0.0)
+					continue;
+				double[] xi = x[i];
+				for (int j=0; j<nx; j++)
+					xi[j] -= xk[j] * l;
+			}
+		}
+
+		return x;
+	}
+
+	/**
+		{@inheritDoc}
+	*/
+	@Override
+	public double lnDet()
+	{
+		assert packed != null : "MyPackedCholesky: Cholesky Decomposition not initialised.";
+
+		//the square root is already considered in the decomposition,
+		//and the logarithm of the determinant of L is evaluated as
+		//the sum of the logarithms of its diagonal, when decomposing
+		return lnDet;
+	}
+
+}
@@ -20,98 +20,242 @@
 
 package com.github.alesssia.algebrautils;
 
-import no.uib.cipr.matrix.*;
+import java.util.Arrays;
 
-/** 
-	Performs the QR decomposition.
+/**
+	Performs the QR decomposition by Householder reflections.
+
+	The matrix is factorised once, and the same factors are
+	used both to solve the systems and to evaluate the determinant.
+	The factors are stored in a buffer that is reused as long as
+	the size of the decomposed matrices does not change.
+
+	Since the decomposed matrices are symmetric, the k-th row of
+	the buffer stores the k-th column of the matrix, so that
+	the Householder vectors (the part of the k-th column below
+	the diagonal) and the strictly upper triangle of R (the part
+	of the k-th column above the diagonal) are accessed by rows.
+
+	References for the implementation can be found at:
+		Golub, Gene H., and Charles F. Van Loan. Matrix computations.
+		Johns Hopkins University Press, 1996.
 
 	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
-	@version     1.0     
+	@version     1.0
 */
 
 public class MyQR extends Decomposer
 {
-	/**  The result of the decomposition */
-	private QR qrDecomposition; 
-	
+	/**  The result of the decomposition, stored by columns */
+	private double[][] qr;
+	/**  The diagonal of R */
+	private double[] rdiag;
+
 	/**
 		{@inheritDoc}
-	*/	
+	*/
 	public MyQR()
 	{
 		super();
-		qrDecomposition = null;
+		qr = null;
+		rdiag = null;
 	}
-	
-	
+
+
 	/**
 		{@inheritDoc}
-	*/	
+
+		The matrix is not modified.
+
+		@precondition the matrix must be square and symmetric
+		@throws RuntimeException if the matrix is singular
+	*/
     @Override
     protected void decompose(double[][] a)
     {
+		assert a.length == 0 || a.length == a[0].length : "MyQR: the QR decomposition can't be applied: the matrix is not square";
+
+		//the matrix is symmetric, thus its rows are its columns
         size = a.length;
-		qrDecomposition = QR.factorize( new DenseMatrix(a) );
+		qr = copy(a, qr);
+		if (rdiag == null || rdiag.length != size)
+			rdiag = new double[size];
+
+		for (int k=0; k<size; k++)
+		{
+			double[] qrcolk = qr[k];
+
+			//norm of the k-th column, below the diagonal
+			double nrm = 0.0;
+			for (int i=k; i<size; i++)
+				nrm += qrcolk[i] * qrcolk[i];
+			nrm = Math.sqrt(nrm);
+
+			if (nrm == 0.0)
+				throw new RuntimeException("Matrix is rank deficient.");
+
+			//forms the k-th Householder vector
+			if (qrcolk[k] < 0)
+				nrm = -nrm;
+			for (int i=k; i<size; i++)
+				qrcolk[i] /= nrm;
+			qrcolk[k] += 1.0;
+
+			//applies the transformation to the remaining columns
+			for (int j=k+1; j<size; j++)
+			{
+				double[] qrcolj = qr[j];
+				double s = 0.0;
+				for (int i=k; i<size; i++)
+					s += qrcolk[i] * qrcolj[i];
+				s = -s / qrcolk[k];
+				for (int i=k; i<size; i++)
+					qrcolj[i] += s * qrcolk[i];
+			}
+
+			rdiag[k] = -nrm;
+		}
     }
-	
+
 	/**
 		{@inheritDoc}
-	*/	
+	*/
     @Override
 	public double[] solve(double[][] a, double[] b)
 	{
-		assert a.length == b.length : "MyQR: system dimensions must agree";
-		
-		//the matrix decomposition is evaluated only 
-		//for the lnDet calculation. In fact MJT does not
-		//have a specific solver codified for the QR, but
-		//it uses the general Matrix solver. This general
-		//solver decides whether to use LU or QR at runtime
-		//(and since our matrix is squared LU is used)
-		//However the usage of QR may change the determinant
-		//the minimization step and thus the convergence of
-		//the system.
-        decompose(a); 
-		
-		//Solving the system using the general matrix solver.
-		DenseMatrix A = new DenseMatrix(a);
-        Matrix B = new DenseMatrix(new DenseVector(b));
-        Matrix X = new DenseMatrix(new DenseVector(new double[b.length]));
-		X = A.solve(B, X);
-		
-		// return new double[dim];
-		return ((DenseMatrix)X).getData();
+		return solve(a, b, new double[b.length]);
 	}
-	
+
 	/**
 		{@inheritDoc}
-	*/			
+	*/
     @Override
-    public double lnDet() 
+	public double[][] solve(double[][] a, double[][] b)
+	{
+		int nx = (b.length == 0) ? 0 : b[0].length;
+		return solve(a, b, new double[b.length][nx]);
+	}
+
+	/**
+		{@inheritDoc}
+
+		The matrix A is not modified.
+	*/
+    @Override
+	public double[] solve(double[][] a, double[] b, double[] x)
+	{
+		assert a.length == b.length && b.length == x.length : "MyQR: system dimensions must agree";
+
+        decompose(a);
+
+		System.arraycopy(b, 0, x, 0, size);
+
+		//evaluates Y = Q'*B
+		for (int k=0; k<size; k++)
+		{
+			double[] qrcolk = qr[k];
+			double s = 0.0;
+			for (int i=k; i<size; i++)
+				s += qrcolk[i] * x[i];
+			s = -s / qrcolk[k];
+			for (int i=k; i<size; i++)
+				x[i] += s * qrcolk[i];
+		}
+
+		//solves R*X = Y
+		for (int k=size-1; k>=0; k--)
+		{
+			double[] qrcolk = qr[k];
+			x[k] /= rdiag[k];
+			for (int i=0; i<k; i++)
+				x[i] -= x[k] * qrcolk[i];
+		}
+
+		return x;
+	}
+
+	/**
+		{@inheritDoc}
+
+		The matrix A is not modified.
+	*/
+    @Override
+	public double[][] solve(double[][] a, double[][] b, double[][] x)
+	{
+		assert a.length == b.length && b.length == x.length : "MyQR: system dimensions must agree";
+
+        decompose(a);
+
+		int nx = (size == 0) ? 0 : x[0].length;
+		for (int i=0; i<size; i++)
+			System.arraycopy(b[i], 0, x[i], 0, nx);
+
+		double[] s = new double[nx];
+
+		//evaluates Y = Q'*B
+		for (int k=0; k<size; k++)
+		{
+			double[] qrcolk = qr[k];
+			Arrays.fill(s, 0.0);
+			for (int i=k; i<size; i++)
+			{
+				double q = qrcolk[i];
+				double[] xi = x[i];
+				for (int c=0; c<nx; c++)
+					s[c] += q * xi[c];
+			}
+			for (int c=0; c<nx; c++)
+				s[c] = -s[c] / qrcolk[k];
+			for (int i=k; i<size; i++)
+			{
+				double q = qrcolk[i];
+				double[] xi = x[i];
+				for (int c=0; c<nx; c++)
+					xi[c] += s[c] * q;
+			}
+		}
+
+		//solves R*X = Y
+		for (int k=size-1; k>=0; k--)
+		{
+			double[] qrcolk = qr[k];
+			double[] xk = x[k];
+			for (int c=0; c<nx; c++)
+				xk[c] /= rdiag[k];
+			for (int i=0; i<k; i++)
+			{
+				double r = qrcolk[i];
+				if (r == 0.0)
+					continue;
+				double[] xi = x[i];
+				for (int c=0; c<nx; c++)
+					xi[c] -= xk[c] * r;
+			}
+		}
+
+		return x;
+	}
+
+	/**
+		{@inheritDoc}
+	*/
+    @Override
+    public double lnDet()
     {
-		assert qrDecomposition != null : "MyQR: QR Decomposition not initialised.";
+		assert rdiag != null : "MyQR: QR Decomposition not initialised.";
 		assert size != -1 : "MyQR: QR dimension not set.";
-		
+
 		//To solve this, I will use the properties of logarithmic functions. In fact,
-		//what I need to evaluate is the natural logarithm of the square root of 
+		//what I need to evaluate is the natural logarithm of the square root of
 		//determinant of the decomposition, that is ln(sqrt(det(A))), or ln(det(A))/2,
-		//where det(A) = det(R)*det(Q), Since Q is unitary, |\det(Q)|=1. Thus,	
+		//where det(A) = det(R)*det(Q), Since Q is unitary, |\det(Q)|=1. Thus,
 		//|\det(A)|=|\det(R)|=|\prod(R_{ii})|. Then I can transform
 		//ln(det(A))/2=log(\prod(R_{ii}))/2=\Sigma(log(R_{ii}))/2.
-		UpperTriangDenseMatrix R = qrDecomposition.getR();
 		double result = 0.0;
 		for (int i=0; i<size; i++)
-			//FIXME: I am forcing an ABS here
-			result += Math.log(Math.abs(R.get(i,i)));
+			//FIXME: I am forcing an ABS here, the sign of det(Q) is ignored
+			result += Math.log(Math.abs(rdiag[i]));
 
-        //qrDecomposition.getQ() is a bottleneck and it is only needed to
-        //compute the sign. I am thus commeting it FIXME
-		// det *= Math.sqrt(Math.abs(qrDecomposition.getQ().det())); //I still need to consider the unity part
-			
 		return result/2;
     }
 }
-	
-
-
-
@@ -0,0 +1,282 @@
+/*
+ * 	 Admission.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+	Limits the number of tests running at the same time, so
+	that their working sets fit in the heap.
+
+	The working set of a test grows with the square of the number
+	of people analysed in each family, since each family stores
+	dim x dim matrices (the decompositions of the covariance
+	matrices of the null and the full model, and the inverse). 
+	Before running, a test acquires its estimated working set 
+	from a budget set as a fraction (the heap option)
+	of the heap that is free when the analysis starts, and it waits
+	if it does not fit. Tests are admitted in order, so that the
+	largest ones do not starve, and a test larger than the whole
+	budget runs alone.
+
+	The estimate includes the scratch buffers of the thread running
+	the test, one set for each size of its families and an inverse
+	of the covariance matrix for each family: before waiting, the 
+	thread drops the buffers of the other sizes, and the inverses 
+	exceeding its families, so that those it keeps belong to the 
+	working set of the test it is running.
+	A block of sites screened together in batch mode also stores
+	their values for all the people, and whitens them one family
+	at a time.
+
+	A part of the budget is reserved to the model templates cached
+	by the snapshot, that are shared by the tests and thus are not
+	counted in their working sets.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.MyTest
+	@see com.github.alesssia.poppante.Workspace
+*/
+
+class Admission
+{
+	/** The number of dim x dim matrices stored for each family,
+		besides the buffers of the workspace */
+	private static final int MATRICES = 2;
+	/** The (rough) number of values stored for each person */
+	private static final int VECTORS = 64;
+	/** The bytes of a unit of the budget */
+	private static final long UNIT = 1024;
+	/** The inverse of the fraction of the budget reserved to the cached templates */
+	private static final int TEMPLATES = 4;
+
+	/** The budget, in units */
+	private final int capacity;
+	/** The budget reserved to the cached templates, in units */
+	private final long reserved;
+	/** The units that are not used by the running tests */
+	private final Semaphore available;
+	/** The number of tests running */
+	private int running;
+	/** The largest number of tests running at the same time */
+	private int peak;
+	/** The number of tests that waited to be admitted */
+	private int waits;
+
+	/**
+		Constructor.
+
+		Sets the budget as a fraction of the heap that is free
+		when the analysis starts, and reserves a part of it to 
+		the cached templates.
+
+		@see com.github.alesssia.poppante.Constants
+	*/
+	public Admission()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		long units = (long)(Constants.heap * free) / UNIT;
+		reserved = units / TEMPLATES;
+		units -= reserved;
+		capacity = (int) Math.max(1, Math.min(units, Integer.MAX_VALUE));
+		available = new Semaphore(capacity, true);
+		running = 0;
+		peak = 0;
+		waits = 0;
+	}
+
+	/**
+		Returns the sizes of the families analysed by a test.
+
+		@param analysable the families analysed by the test
+		@return the numbers of analysable people, sorted and distinct
+	*/
+	private static int[] sizes(Analysable analysable)
+	{
+		int[] sizes = new int[analysable.numFamilies()];
+		for (int f = 0; f < sizes.length; f++)
+			sizes[f] = analysable.analysableFamiles(f).numAnalysable();
+		Arrays.sort(sizes);
+
+		int distinct = 0;
+		for (int f = 0; f < sizes.length; f++)
+			if (distinct == 0 || sizes[f] != sizes[distinct - 1])
+				sizes[distinct++] = sizes[f];
+
+		return Arrays.copyOf(sizes, distinct);
+	}
+
+	/**
+		Returns the number of families of each size analysed 
+		by a test.
+
+		@param analysable the families analysed by the test
+		@param dims the sizes of the families, sorted and distinct
+		@return the number of families of each size
+	*/
+	private static int[] counts(Analysable analysable, int[] dims)
+	{
+		int[] counts = new int[dims.length];
+		for (int f = 0; f < analysable.numFamilies(); f++)
+			counts[Arrays.binarySearch(dims, analysable.analysableFamiles(f).numAnalysable())]++;
+
+		return counts;
+	}
+
+	/**
+		Estimates the working set of a test.
+
+		@param analysable the families analysed by the test
+		@param dims the sizes of the families, sorted and distinct
+		@param counts the number of families of each size
+		@param sites the number of sites screened together, 0 when a single site is tested
+		@return the working set, in units, at most the whole budget
+	*/
+	private int estimate(Analysable analysable, int[] dims, int[] counts, int sites)
+	{
+		long values = 0;
+		long largest = 0;
+		long people = 0;
+		for (int f = 0; f < analysable.numFamilies(); f++)
+		{
+			long n = analysable.analysableFamiles(f).numAnalysable();
+			values += MATRICES * n * n + VECTORS * n;
+			largest = Math.max(largest, n);
+			people += n;
+		}
+		values += Workspace.footprint(dims, counts);
+		values += sites * (people + 2 * largest);
+
+		long units = (8 * values + UNIT - 1) / UNIT;
+		return (int) Math.max(1, Math.min(units, capacity));
+	}
+
+	/**
+		Admits a test, waiting until its working set fits
+		in the budget.
+
+		@param analysable the families analysed by the test
+		@return the units acquired, to be released when the test ends
+		@throws InterruptedException if the thread is interrupted while waiting
+	*/
+	public int acquire(Analysable analysable) throws InterruptedException
+	{
+		return acquire(analysable, 0);
+	}
+
+	/**
+		Admits a block of sites screened together in batch 
+		mode, waiting until its working set fits in the budget.
+
+		@param analysable the families analysed by the block
+		@param sites the number of sites of the block
+		@return the units acquired, to be released when the block ends
+		@throws InterruptedException if the thread is interrupted while waiting
+	*/
+	public int acquire(Analysable analysable, int sites) throws InterruptedException
+	{
+		int[] dims = sizes(analysable);
+		int[] counts = counts(analysable, dims);
+		int units = estimate(analysable, dims, counts, sites);
+
+		//the buffers of the other sizes are not counted
+		Workspace.current().retain(dims, counts);
+
+		//unlike tryAcquire(units), it does not overtake the waiting tests
+		if (!available.tryAcquire(units, 0, TimeUnit.SECONDS))
+		{
+			synchronized (this)
+			{
+				waits++;
+			}
+			available.acquire(units);
+		}
+
+		synchronized (this)
+		{
+			running++;
+			peak = Math.max(peak, running);
+		}
+		return units;
+	}
+
+	/**
+		Releases the working set of an ended test.
+
+		@param units the units acquired by the test
+	*/
+	public void release(int units)
+	{
+		synchronized (this)
+		{
+			running--;
+		}
+		available.release(units);
+	}
+
+	/**
+		Returns the largest number of tests that ran at the
+		same time, that is the effective parallelism.
+
+		@return the number of tests
+	*/
+	public synchronized int peak()
+	{
+		return peak;
+	}
+
+	/**
+		Returns the number of tests that waited for the
+		working set of the others to be released.
+
+		@return the number of tests
+	*/
+	public synchronized int waits()
+	{
+		return waits;
+	}
+
+	/**
+		Returns the budget reserved to the model templates
+		cached by the snapshot.
+
+		@return the number of values that can be cached
+		@see com.github.alesssia.poppante.Snapshot
+	*/
+	public long templates()
+	{
+		return reserved * UNIT / 8;
+	}
+
+	/**
+		Returns the budget.
+
+		@return the budget, in MB
+	*/
+	public long capacity()
+	{
+		return capacity * UNIT / (1024 * 1024);
+	}
+}
@@ -72,6 +72,8 @@ class Amoeba
 	
 	/** The minimum likelihood reached */
 	private double fmin;
+	/** The number of cycles performed */
+	private long cycles;
 
 	/**  Linear system to optimise */
 	private final NormalSet caller;
@@ -99,6 +101,18 @@ class Amoeba
 		ptry = new double[n];
 		
 		fmin = Double.MAX_VALUE;
+		cycles = 0;
+	}
+	
+	/**
+		Returns the number of cycles performed, over all
+		the minimisations.
+		
+		@return the number of cycles
+	*/
+	public long cycles()
+	{
+		return cycles;
 	}
 	
 	/**
@@ -252,6 +266,7 @@ class Amoeba
 			{
 				System.arraycopy(simplex[ilo], 0, point, 0, point.length);
 				fmin = y[ilo];
+				cycles += cycleCount;
 				return fmin;
 			}
 			
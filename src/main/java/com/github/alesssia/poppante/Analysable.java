@@ -121,6 +121,25 @@ public class Analysable
 		return isAnalysable[i];
 	}
 	
+	/**
+		Returns the set of analysable individuals.
+		
+		It identifies the tests that share the same equations, 
+		apart from their outcomes and their predictor.
+		
+		@return the positions of the analysable individuals
+		@see com.github.alesssia.poppante.ModelTemplate
+	*/
+	public BitSet individuals()
+	{
+		BitSet individuals = new BitSet(isAnalysable.length);
+		for (int i=0; i<isAnalysable.length; i++)
+			if (isAnalysable[i])
+				individuals.set(i);
+		
+		return individuals;
+	}
+	
 	/**
 		Returns the information of the i-th analysable family
 		
@@ -142,6 +161,8 @@ public class Analysable
 	describes some of its properties, that is:
 
 	- the number of analysable members
+	- its position in the sorted list of families, and
+	  its number of members
 	- the position where this family starts in the
 	  position Table, information that is used by
 	  the VC to indicise the members' data in the
@@ -157,6 +178,10 @@ class AnalysableFamily
 
 	/** Family ID */
 	private final String famID;
+	/** Position in the sorted list of families */
+	private final int family;
+	/** Number of members */
+	private final int numMembers;
 	/** Number of analysable member */
 	private final int numAnalysable;
 	/** Position in the datamanager's data 
@@ -169,12 +194,16 @@ class AnalysableFamily
 		Defines a new analysable family
 		
 		@param id the family's ID
+		@param f the position of the family in the sorted list of families
+		@param members the number of members
 		@param n the number of analysable member
 		@param start position in the datamanager's data structure where this family starts
 	*/
-	public AnalysableFamily(String id, int n, int start)
+	public AnalysableFamily(String id, int f, int members, int n, int start)
 	{
 		famID = id;
+		family = f;
+		numMembers = members;
 		numAnalysable = n;
 		startPos = start;
 	}
@@ -189,6 +218,28 @@ class AnalysableFamily
 		return famID;
 	}
 	
+	/**
+		Returns the position of the family in the sorted 
+		list of families
+		
+		@return the position of the family
+		@see com.github.alesssia.poppante.Snapshot
+	*/
+	public int family()
+	{
+		return family;
+	}
+	
+	/**
+		Returns the number of family's member
+		
+		@return the number of family's member
+	*/
+	public int numMembers()
+	{
+		return numMembers;
+	}
+	
 	/**
 		Returns the number of analysable family's member
 		
@@ -0,0 +1,190 @@
+/*
+ * 	 BatchEquations.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import Jama.*;
+
+/**
+	Represents the generalised least squares (GLS) normal equations
+	of a block of predictors tested one at a time against the same
+	response, with the same fixed effects and for the same variances.
+
+	Given the columns Z of the fixed effects, the response y and
+	the block M of predictors, it stores Z'V^-1Z, Z'V^-1y, Z'V^-1M,
+	y'V^-1M and the diagonal of M'V^-1M, from which the score test
+	of every predictor is evaluated at once.
+
+	Each equation of the set adds its own contribution.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.Normal
+	@see com.github.alesssia.poppante.NormalEquations
+*/
+
+class BatchEquations
+{
+	/** The matrix Z'V^-1Z */
+	private final double[][] ztvz;
+	/** The vector Z'V^-1y */
+	private final double[] ztvy;
+	/** The matrix M'V^-1Z, by predictor */
+	private final double[][] mtvz;
+	/** The vector y'V^-1M */
+	private final double[] ytvm;
+	/** The diagonal of M'V^-1M */
+	private final double[] mtvm;
+
+	/**
+		Constructor.
+
+		Initialises empty equations.
+
+		@param lmd the number of fixed effects
+		@param predictors the number of predictors in the block
+	*/
+	public BatchEquations(int lmd, int predictors)
+	{
+		ztvz = new double[lmd][lmd];
+		ztvy = new double[lmd];
+		mtvz = new double[predictors][lmd];
+		ytvm = new double[predictors];
+		mtvm = new double[predictors];
+	}
+
+	/**
+		Returns the number of fixed effects.
+
+		@return the number of fixed effects
+	*/
+	public int fixedEffects()
+	{
+		return ztvy.length;
+	}
+
+	/**
+		Returns the number of predictors in the block.
+
+		@return the number of predictors
+	*/
+	public int predictors()
+	{
+		return ytvm.length;
+	}
+
+	/**
+		Adds the contribution of an equation.
+
+		Both matrices have a row for each observation and the
+		columns [Z y M], that is the fixed effects, followed by
+		the response, followed by the predictors. The second one
+		is the first one premultiplied by V^-1 (or the first one
+		in any basis where V is diagonal, divided by its diagonal).
+
+		@param b the columns [Z y M]
+		@param w the columns V^-1[Z y M]
+	*/
+	public void add(double[][] b, double[][] w)
+	{
+		int lmd = ztvy.length;
+		int predictors = ytvm.length;
+
+		for (int i = 0; i < b.length; i++)
+		{
+			double[] bi = b[i];
+			double[] wi = w[i];
+			double y = bi[lmd];
+			for (int j = 0; j < lmd; j++)
+			{
+				double z = bi[j];
+				for (int k = 0; k < lmd; k++)
+					ztvz[j][k] += z * wi[k];
+				ztvy[j] += z * wi[lmd];
+			}
+			for (int c = 0; c < predictors; c++)
+			{
+				double wm = wi[lmd + 1 + c];
+				double[] mz = mtvz[c];
+				for (int j = 0; j < lmd; j++)
+					mz[j] += bi[j] * wm;
+				ytvm[c] += y * wm;
+				mtvm[c] += bi[lmd + 1 + c] * wm;
+			}
+		}
+	}
+
+	/**
+		Evaluates the efficient score of the beta coefficient of
+		each predictor, and its information, when the coefficient
+		is fixed to zero and the fixed effects are estimated.
+
+		For the predictor m the score is m'Py and the information
+		m'Pm, where P = V^-1 - V^-1Z(Z'V^-1Z)^-1Z'V^-1, as in the
+		normal equations of the single predictor. The system in
+		Z'V^-1Z is solved only once for the whole block.
+
+		@return the score and the information of each predictor, in this order
+		@throws RuntimeException if Z'V^-1Z is singular
+		@see com.github.alesssia.poppante.NormalEquations
+	*/
+	public double[][] scores()
+	{
+		int lmd = ztvy.length;
+		int predictors = ytvm.length;
+
+		double[][] scores = new double[predictors][2];
+		if (lmd == 0)
+		{
+			for (int c = 0; c < predictors; c++)
+			{
+				scores[c][0] = ytvm[c];
+				scores[c][1] = mtvm[c];
+			}
+			return scores;
+		}
+
+		//solves (Z'V^-1Z)[a A] = [Z'V^-1y Z'V^-1M]
+		double[][] rhs = new double[lmd][predictors + 1];
+		for (int j = 0; j < lmd; j++)
+		{
+			rhs[j][0] = ztvy[j];
+			for (int c = 0; c < predictors; c++)
+				rhs[j][c + 1] = mtvz[c][j];
+		}
+		double[][] w = new Matrix(ztvz).solve(new Matrix(rhs)).getArray();
+
+		for (int c = 0; c < predictors; c++)
+		{
+			double score = ytvm[c];
+			double information = mtvm[c];
+			double[] mz = mtvz[c];
+			for (int j = 0; j < lmd; j++)
+			{
+				score -= mz[j] * w[j][0];
+				information -= mz[j] * w[j][c + 1];
+			}
+			scores[c][0] = score;
+			scores[c][1] = information;
+		}
+
+		return scores;
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * 	 Brent.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   mario.falchi@kcl.ac.uk
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+/**
+	Performs the Brent's method for minimising a function of one
+	variable within an interval.
+
+	It combines the golden section search with the successive parabolic
+	interpolation, and it is used to minimise the profile -likelihood
+	of a linear mixed model with respect to the heritability ratio,
+	once beta coefficients and total variance are profiled out.
+
+	References for the implementation can be found at:
+		Brent, Richard P. Algorithms for minimization without derivatives.
+		Englewood Cliffs: Prentice-Hall, 1973.
+		Press, William H., et al. Numerical recipes in C.
+		Vol. 2. Cambridge: Cambridge university press, 1996.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@author      Mario Falchi     <mario.falchi@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.NormalSet
+*/
+
+class Brent
+{
+	/** Maximum number of iterations for the minimiser */
+	public static final int    ITERMAX = 500;
+	/** The golden ratio used in the golden section search */
+	public static final double CGOLD   = 0.3819660112501051;
+	/** Relative precision, that is the square root of the machine precision */
+	public static final double EPS     = 1.4901161193847656E-8;
+
+	/** The point that minimises the function */
+	private double point;
+	/** The minimum value reached */
+	private double fmin;
+	/** Number of iterations performed */
+	private int iterations;
+
+	/**  Linear system to optimise */
+	private final NormalSet caller;
+
+	/**
+		Constructor.
+
+		It initialises the data structures.
+
+		@param caller the linear mixed model to optimise
+	*/
+	public Brent(NormalSet caller)
+	{
+		this.caller = caller;
+
+		point = Double.NaN;
+		fmin = Double.MAX_VALUE;
+		iterations = 0;
+	}
+
+	/**
+		Returns the point that minimises the function.
+
+		@return the optimised parameter
+	*/
+	public double point()
+	{
+		return point;
+	}
+
+	/**
+		Returns the minimum value reached.
+
+		@return the minimum value
+	*/
+	public double fmin()
+	{
+		return fmin;
+	}
+
+	/**
+		Returns the number of iterations performed.
+
+		@return the number of iterations
+	*/
+	public int iterations()
+	{
+		return iterations;
+	}
+
+	/**
+		Minimises the function in the interval [a, b].
+
+		The lower bound is evaluated as well, since the
+		method looks for the minimum only within the interval.
+
+		@param a the lower bound of the interval
+		@param b the upper bound of the interval
+		@param tol the absolute tolerance on the point
+		@return the minimum value
+		@throws NotConvergencingException if it can't converge
+	*/
+	public double minimize(double a, double b, double tol) throws NotConvergencingException
+	{
+		double x, w, v, u;
+		double fx, fw, fv, fu;
+		double d = 0.0;
+		double e = 0.0;
+		double lower = a;
+
+		x = w = v = a + CGOLD * (b - a);
+		fx = fw = fv = caller.callHeritability(x);
+
+		while (true)
+		{
+			double xm = 0.5 * (a + b);
+			double tol1 = EPS * Math.abs(x) + tol;
+			double tol2 = 2.0 * tol1;
+
+			if (Math.abs(x - xm) <= (tol2 - 0.5 * (b - a)))
+				break;
+
+			if (++iterations > ITERMAX)
+				throw new NotConvergencingException("Warning : Brent couldn't converge in " + ITERMAX + " iterations");
+
+			boolean golden = true;
+			if (Math.abs(e) > tol1)
+			{
+				//tries the parabolic interpolation
+				double r = (x - w) * (fx - fv);
+				double q = (x - v) * (fx - fw);
+				double p = (x - v) * q - (x - w) * r;
+				q = 2.0 * (q - r);
+				if (q > 0.0)
+					p = -p;
+				else
+					q = -q;
+				double etemp = e;
+				e = d;
+
+				if (Math.abs(p) < Math.abs(0.5 * q * etemp) && p > q * (a - x) && p < q * (b - x))
+				{
+					d = p / q;
+					u = x + d;
+					if (u - a < tol2 || b - u < tol2)
+						d = (xm - x >= 0) ? tol1 : -tol1;
+					golden = false;
+				}
+			}
+
+			if (golden)
+			{
+				e = (x >= xm) ? a - x : b - x;
+				d = CGOLD * e;
+			}
+
+			u = (Math.abs(d) >= tol1) ? x + d : x + (d >= 0 ? tol1 : -tol1);
+			fu = caller.callHeritability(u);
+
+			if (fu <= fx)
+			{
+				if (u >= x)
+					a = x;
+				else
+					b = x;
+				v = w; fv = fw;
+				w = x; fw = fx;
+				x = u; fx = fu;
+			}
+			else
+			{
+				if (u < x)
+					a = u;
+				else
+					b = u;
+				if (fu <= fw || w == x)
+				{
+					v = w; fv = fw;
+					w = u; fw = fu;
+				}
+				else if (fu <= fv || v == x || v == w)
+				{
+					v = u; fv = fu;
+				}
+			}
+		}
+
+		//the minimum may lie on the lower bound (e.g., no heritability)
+		double flower = caller.callHeritability(lower);
+		if (flower <= fx)
+		{
+			x = lower;
+			fx = flower;
+		}
+
+		point = x;
+		fmin = fx;
+
+		return fmin;
+	}
+}
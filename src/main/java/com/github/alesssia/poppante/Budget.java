@@ -0,0 +1,113 @@
+/*
+ * 	 Budget.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+/**
+	Represents the time and evaluation budget of a test.
+
+	The budget is shared by all the models fitted by the test
+	(null, full and permuted models) and it is spent at each
+	likelihood evaluation, so that the minimisers stop as soon
+	as it runs out, whatever the cycle they are in.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.Constants
+	@see com.github.alesssia.poppante.NormalSet
+*/
+
+class Budget
+{
+	/** The beginning of the message of the tests exceeding their budget */
+	public static final String WARNING = "Warning : budget exceeded";
+
+	/** The time (in ns) after which the test is stopped,
+		or Long.MAX_VALUE if not set */
+	private final long deadline;
+	/** The likelihood evaluations left, or Long.MAX_VALUE if not set */
+	private long evaluations;
+
+	/**
+		Constructor.
+
+		Starts the budget of a test, as set by the timeout
+		and maxeval options.
+
+		@see com.github.alesssia.poppante.Constants
+	*/
+	public Budget()
+	{
+		deadline = (Constants.timeout == Utilities.INVALID_D) ? Long.MAX_VALUE : System.nanoTime() + (long)(Constants.timeout * 1.0E9);
+		evaluations = (Constants.maxeval == Utilities.INVALID_I) ? Long.MAX_VALUE : Constants.maxeval;
+	}
+
+	/**
+		Returns whether a budget is set.
+
+		@return true if the timeout or the maxeval options are set, false otherwise
+	*/
+	public static boolean isSet()
+	{
+		return Constants.timeout != Utilities.INVALID_D || Constants.maxeval != Utilities.INVALID_I;
+	}
+
+	/**
+		Spends a likelihood evaluation.
+
+		@throws BudgetExceededException if the test has no budget left
+	*/
+	public void spend() throws BudgetExceededException
+	{
+		if (--evaluations < 0)
+			throw new BudgetExceededException(WARNING + " (" + Constants.maxeval + " likelihood evaluations)");
+
+		if (deadline != Long.MAX_VALUE && System.nanoTime() > deadline)
+			throw new BudgetExceededException(WARNING + " (" + Constants.timeout + " seconds)");
+	}
+}
+
+
+/**
+	Runtime exception.
+
+	Raised when a test has exceeded its time or evaluation budget.
+
+	It is a NotConvergencingException, since the model has not
+	converged, but the minimisers must not try again.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+ */
+class BudgetExceededException extends NotConvergencingException
+{
+    private static final long serialVersionUID = 1L;
+	/**
+		Constructor.
+
+		Initialises the exception message.
+
+		@param msg the exception message
+	*/
+	public BudgetExceededException(String msg)
+	{
+		super(msg);
+	}
+}
@@ -53,7 +53,7 @@ class Constants
 	public static boolean help 	 = false; 
 	/** Analysis to be performed.
       
-		Allowed values are: "heritability", "association", "pedcheck". */
+		Allowed values are: "heritability", "association", "pedcheck", "merge". */
 	public static int	  mode   = -1 ;   
 	
 	/**  File path of the pedigree file. 
@@ -87,6 +87,17 @@ class Constants
 	
 	/** File path of the output file. */                                     
 	public static String  output = null;
+	/** The shard of the tests to perform, as k/N.
+		
+		When set, the tests are partitioned in N shards balanced 
+		by their estimated cost, only the tests of the k-th shard 
+		are performed, and their results are written in a partial 
+		result file, to be merged with those of the other shards. */
+	public static String  shard = null;
+	/** File paths of the partial result files to merge.
+		
+		They are mandatory when the analysis mode is "merge". */
+	public static String[] merge = null;
 	/** File path of the covariate file.
 		
 		The file should contains the individuals' IDs as
@@ -122,6 +133,14 @@ class Constants
 		All the values are used in the analysis. */ 
 	public static String correct = null;
 	
+	/** File path of the binary cache of the predictor data.
+		
+		When set, the predictor data (map, values, and missing 
+		values) are read from the cache if it was written from the
+		same files, predictors, and individuals; otherwise, they are 
+		read from the files and the cache is written. */ 
+	public static String cache = null;
+	
 	/** Whether verbose. */	
 	public static boolean verbose  = false;
 	/** Whether print Manhattan and Q-Q plot. */	
@@ -130,15 +149,89 @@ class Constants
 	public static boolean header   = true; 
 	/** Whether to print the variance in the output file. */ 
 	public static boolean variance = false;
+	/** Whether to spill the results on disk while the tests run.
+		
+		When set, the results are appended to a temporary run file
+		as soon as they are available, and only their p-values are 
+		kept in memory for the multiple comparisons correction. 
+		The run file is then read again to write the output file. */ 
+	public static boolean spill = false;
+	/** Whether to write a checkpoint journal while the tests run.
+		
+		When set, the results are written, as soon as they are 
+		collected, to a journal named as the output file with the 
+		".journal" extension, so that the analysis can be resumed. */ 
+	public static boolean checkpoint = false;
+	/** Whether to resume the analysis from its checkpoint journal.
+		
+		When set, the tests listed in the journal are not performed 
+		again, and their results are read from the journal. It 
+		implies the checkpoint option. */ 
+	public static boolean resume = false;
 	/** Whether to perform the quantile normalisation on the quantitative traits. */ 
 	public static String normalise = null; 
-	/** Whether to force the usage the QR/LU decomposition
+	/** Whether to bend the external kinship matrix.
 		
 		It works only when the external kinship matrix is 
-		supplied. The default is to use a bending procedure to
-		make the matrix positive definite followed by the 
-		Cholesky decomposition. */
+		supplied and no decomposition is forced. The default is 
+		to use a bending procedure to make the matrix positive 
+		definite followed by the Cholesky decomposition. When the
+		matrix is not bent, the LDL' decomposition (with 
+		Bunch-Kaufman pivoting) is used, that is the cheapest 
+		option for matrices that are not positive definite. */
+	public static boolean bending = true;
+	/** Whether to force the usage the QR/LU/LDL decomposition
+		
+		It works only when the external kinship matrix is 
+		supplied, that is not bent. The default is given by the
+		bending option. */
 	public static String decomposition = null;
+	/** Which engine evaluates the likelihood of the variant component models.
+		
+		Allowed values are: "dense", that builds and decomposes
+		the covariance matrix at each evaluation, and "spectral",
+		that decomposes the kinship only once and evaluates the 
+		likelihood in the basis of its eigenvectors. The default 
+		is "dense". */
+	public static String engine = null;
+	/** How the predictor values are stored.
+		
+		Allowed values are: "double", that stores them in double
+		precision, and "float", that stores them in single precision,
+		halving the memory taken by the predictor table, while the 
+		tests are still performed in double precision. The default
+		is "double". */
+	public static String storage = null;
+	/** Which minimiser is used to estimate the variant component models.
+		
+		Allowed values are: "amoeba", the Nelder–Mead method over 
+		beta coefficients and variances, "newton", Fisher scoring 
+		over the variances with the beta coefficients estimated in 
+		closed form, and "brent", a one-dimensional search over the 
+		heritability ratio with beta coefficients and total variance 
+		profiled out (two random effects at most). When the Newton 
+		or Brent minimisers do not converge, Amoeba is used instead. 
+		The default is "amoeba". */
+	public static String optimiser = null;
+	/** How the permutation tests are performed.
+		
+		Allowed values are: "refit", that fits the full model 
+		again for each permutation, and "fixed", that fixes the 
+		variances to those of the null model and evaluates each 
+		permutation on the whitened model in linear time. 
+		The default is "refit". */
+	public static String permutation = null;
+	/** How the tests are scheduled on the threads.
+		
+		Allowed values are: "site", that submits the tests as they 
+		are generated, sorted by methylation site, "pattern", that 
+		groups the tests by phenotype and missingness pattern of the 
+		methylation sites, fits the null model of each group once, and 
+		only then submits the tests of the group (association mode 
+		only), and "cost", that estimates the cost of each test and 
+		submits the most expensive tests first to a work-stealing pool. 
+		The default is "site". */
+	public static String schedule = null;
  
 	/** Window size (in bp) for the region-based tests. 
 		
@@ -172,6 +265,37 @@ class Constants
 		family contribution to the chi-square are evaluated
 		and printed in the output file. */
 	public static double  relc   = Utilities.INVALID_D; 
+	/** Threshold for the score-test prescreening. 
+		
+		When set, the score test for each association is
+		evaluated using the variances of the null model, and 
+		the full model is fitted only if its p-value is smaller 
+		than or equal to prescreen. Otherwise, the score test is 
+		reported. It is used in association mode only, and it
+		can't be used with the permutation tests, since the 
+		score test has no empirical p-value. */
+	public static double  prescreen = Utilities.INVALID_D; 
+	/** Number of methylation sites tested together in the batch mode. 
+		
+		When set, the methylation sites sharing the same missingness 
+		pattern are tested in blocks of batch sites by means of the 
+		score test, keeping the variances fixed to those of the null 
+		model, and the full model is fitted only for the sites whose 
+		p-value is smaller than or equal to prescreen. It is used in 
+		association mode only and requires prescreen. */
+	public static int     batch = Utilities.INVALID_I; 
+	/** Time budget (in seconds) of each test.
+		
+		When set, the optimisation of a test stops as soon as 
+		the test has run for longer than timeout seconds, and a 
+		warning is reported in place of its result. */
+	public static double  timeout = Utilities.INVALID_D; 
+	/** Budget of likelihood evaluations of each test.
+		
+		When set, the optimisation of a test stops as soon as 
+		the test has evaluated maxeval likelihoods, and a warning 
+		is reported in place of its result. */
+	public static int     maxeval = Utilities.INVALID_I; 
 	/** Threshold for the kinship value. 
         
 		Pairs of individuals with a kinship value smaller than mink 
@@ -182,9 +306,19 @@ class Constants
 		This value adjusted a run time to meet the 
 		machine availability. */                                          
 	public static int     threads = 1;  
+	/** Fraction of the free heap that the running tests can use.
+		
+		The tests whose working set does not fit wait for the 
+		others to end, thus fewer than threads tests may run 
+		at the same time. */
+	public static double  heap = 0.75;  
 	
 	 /** List of avaliable options. */
 	private static Option[] options;   
+	/** The shard of the tests to perform (k), from 1 */
+	private static int shardIndex = Utilities.INVALID_I;
+	/** The number of shards (N) */
+	private static int shardCount = Utilities.INVALID_I;
 	
 
 	/**
@@ -275,6 +409,73 @@ class Constants
 		if (mode == Utilities.MODE_HERITABILITY)
 			alpha = Utilities.INVALID_D;
 		
+		//The prescreening is performed only for
+		//association analysis and it is a p-value.
+		if (mode == Utilities.MODE_HERITABILITY)
+			prescreen = Utilities.INVALID_D;
+		if (prescreen != Utilities.INVALID_D && (prescreen <= 0 || prescreen > 1))
+			throw new IllegalModeException("ERROR: the prescreen option is not valid.\nUse the option --help for details about PopPAnTe usage.");	
+		if (prescreen != Utilities.INVALID_D && alpha != Utilities.INVALID_D)
+			throw new IllegalModeException("ERROR: the prescreen option can't be used with the permutation tests.\nUse the option --help for details about PopPAnTe usage.");	
+		
+		//The batch mode is performed only for association 
+		//analysis of single sites, and its top hits are those 
+		//passing the prescreening
+		if (mode == Utilities.MODE_HERITABILITY)
+			batch = Utilities.INVALID_I;
+		if (batch != Utilities.INVALID_I && batch < 1)
+			throw new IllegalModeException("ERROR: the batch option is not valid.\nUse the option --help for details about PopPAnTe usage.");	
+		if (batch != Utilities.INVALID_I && prescreen == Utilities.INVALID_D)
+			throw new IllegalModeException("ERROR: the batch option requires the prescreen option.\nUse the option --help for details about PopPAnTe usage.");	
+		if (batch != Utilities.INVALID_I && region != Utilities.INVALID_I)
+			throw new IllegalModeException("ERROR: the batch option can't be used in region-based tests.\nUse the option --help for details about PopPAnTe usage.");	
+		
+		//the budgets of the tests should be positive
+		if (timeout != Utilities.INVALID_D && timeout <= 0)
+			throw new IllegalModeException("ERROR: the timeout option is not valid.\nUse the option --help for details about PopPAnTe usage.");	
+		if (maxeval != Utilities.INVALID_I && maxeval < 1)
+			throw new IllegalModeException("ERROR: the maxeval option is not valid.\nUse the option --help for details about PopPAnTe usage.");	
+		
+		//the heap used by the tests should be a fraction in (0, 1]
+		if (heap <= 0 || heap > 1)
+			throw new IllegalModeException("ERROR: the heap option is not valid.\nUse the option --help for details about PopPAnTe usage.");	
+		
+		//the shard should be k/N, with 1 <= k <= N, and its
+		//partial results are written on file
+		if (shard != null)
+		{
+			String[] tokens = shard.split("/");
+			try
+			{
+				shardIndex = Integer.parseInt(tokens[0].trim());
+				shardCount = Integer.parseInt(tokens[1].trim());
+			}
+			catch (NumberFormatException | ArrayIndexOutOfBoundsException e)
+			{
+				shardCount = Utilities.INVALID_I;
+			}
+			if (tokens.length != 2 || shardCount == Utilities.INVALID_I || shardIndex < 1 || shardIndex > shardCount)
+				throw new IllegalModeException("ERROR: the shard option is not valid.\nUse the option --help for details about PopPAnTe usage.");	
+			if (output == null)
+				throw new MandatoryParameterException("ERROR: the output file must be specified when the shard option is used.\nUse the option --help for details about PopPAnTe usage.");
+		}
+		
+		//the journal is named after the output file, and 
+		//resuming an analysis goes on writing it
+		if (resume)
+			checkpoint = true;
+		if (checkpoint && output == null)
+			throw new MandatoryParameterException("ERROR: the output file must be specified when the checkpoint or resume options are used.\nUse the option --help for details about PopPAnTe usage.");
+		
+		//if a schedule is specified it should be one of the
+		//following: site, pattern, cost. The null models are shared 
+		//only in association analysis, and the batch mode 
+		//already groups the tests by missingness pattern
+		if (schedule != null && !schedule.equals("site") && !schedule.equals("pattern") && !schedule.equals("cost"))
+			throw new IllegalModeException("ERROR: the schedule option is not valid.\nUse the option --help for details about PopPAnTe usage.");	
+		if ((mode == Utilities.MODE_HERITABILITY && schedule != null && schedule.equals("pattern")) || batch != Utilities.INVALID_I)
+			schedule = null;
+		
 		
 		//If correct is a numeric value, then it must be 
 		//included in 0-1
@@ -292,10 +493,30 @@ class Constants
 			throw new IllegalModeException("ERROR: the normalisation option is not valid.\nUse the option --help for details about PopPAnTe usage.");	
 		
 		//if a decomposition is specified it should be one of the
-		//following: QR, bending
-		if (decomposition != null && !decomposition.equals("QR") && !decomposition.equals("LU"))
+		//following: QR, LU, LDL
+		if (decomposition != null && !decomposition.equals("QR") && !decomposition.equals("LU") && !decomposition.equals("LDL"))
 			throw new IllegalModeException("ERROR: the decomposition option is not valid.\nUse the option --help for details about PopPAnTe usage.");	
 		
+		//if an engine is specified it should be one of the
+		//following: dense, spectral
+		if (engine != null && !engine.equals("dense") && !engine.equals("spectral"))
+			throw new IllegalModeException("ERROR: the engine option is not valid.\nUse the option --help for details about PopPAnTe usage.");	
+		
+		//if a storage is specified it should be one of the
+		//following: double, float
+		if (storage != null && !storage.equals("double") && !storage.equals("float"))
+			throw new IllegalModeException("ERROR: the storage option is not valid.\nUse the option --help for details about PopPAnTe usage.");	
+		
+		//if a minimiser is specified it should be one of the
+		//following: amoeba, newton, brent
+		if (optimiser != null && !optimiser.equals("amoeba") && !optimiser.equals("newton") && !optimiser.equals("brent"))
+			throw new IllegalModeException("ERROR: the optimiser option is not valid.\nUse the option --help for details about PopPAnTe usage.");	
+		
+		//if a permutation mode is specified it should be one of the
+		//following: refit, fixed
+		if (permutation != null && !permutation.equals("refit") && !permutation.equals("fixed"))
+			throw new IllegalModeException("ERROR: the permutation option is not valid.\nUse the option --help for details about PopPAnTe usage.");	
+		
 		//check if the mink values is valid (that is if it is <= 1)
 		if (mink > 1)
 			throw new IllegalModeException("ERROR: the minimum genomic relationship coefficient is not valid.\nUse the option --help for details about PopPAnTe usage.");
@@ -329,6 +550,16 @@ class Constants
 		else
 			throw new MandatoryParameterException("ERROR: the analysis mode has not been specified as input.\nUse the option --help for details about PopPAnTe usage.");
 				
+		//I only need the partial results
+		if (Constants.mode == Utilities.MODE_MERGE)
+		{
+			if (cli.hasOption("merge")) 
+				merge = cli.getOptionValues("merge");
+			else
+				throw new MandatoryParameterException("ERROR: the partial result files to merge were not specified as input.\nUse the option --help for details about PopPAnTe usage.");
+			return;
+		}
+		
 		if (cli.hasOption("ped")) 
 			ped = cli.getOptionValue("ped");
 		else
@@ -381,6 +612,9 @@ class Constants
 		if (cli.hasOption("kinship")) 
 			kinship = cli.getOptionValue("kinship");
 
+		if (cli.hasOption("cache")) 
+			cache = cli.getOptionValue("cache");
+
 		if (cli.hasOption("mink"))
 		{
 			String s = cli.getOptionValue("mink");
@@ -409,18 +643,63 @@ class Constants
 		if (cli.hasOption("variance"))
 			variance = readBooleanParameter(cli, "variance");
 		
+		if (cli.hasOption("spill"))
+			spill = readBooleanParameter(cli, "spill");
+		
+		if (cli.hasOption("checkpoint"))
+			checkpoint = readBooleanParameter(cli, "checkpoint");
+		
+		if (cli.hasOption("resume"))
+			resume = readBooleanParameter(cli, "resume");
+		
+		if (cli.hasOption("bending"))
+			bending = readBooleanParameter(cli, "bending");
+		
 		if (cli.hasOption("decomposition"))
 			decomposition =  cli.getOptionValue("decomposition");
 		
+		if (cli.hasOption("engine"))
+			engine =  cli.getOptionValue("engine");
+		
+		if (cli.hasOption("optimiser"))
+			optimiser =  cli.getOptionValue("optimiser");
+		
+		if (cli.hasOption("storage"))
+			storage =  cli.getOptionValue("storage");
+		
+		if (cli.hasOption("permutation"))
+			permutation =  cli.getOptionValue("permutation");
+		
+		if (cli.hasOption("shard"))
+			shard =  cli.getOptionValue("shard");
+		
+		if (cli.hasOption("schedule"))
+			schedule =  cli.getOptionValue("schedule");
+		
 		if (cli.hasOption("region"))
 			region = (int)readNumericParameter(cli, "region");
 		
 		if (cli.hasOption("threads"))
 		    threads = (int)readNumericParameter(cli, "threads");
 		
+		if (cli.hasOption("heap"))
+			heap = readNumericParameter(cli, "heap");
+		
 		if (cli.hasOption("relc")) 
 			relc = readNumericParameter(cli, "relc");
 		
+		if (cli.hasOption("prescreen")) 
+			prescreen = readNumericParameter(cli, "prescreen");
+		
+		if (cli.hasOption("batch")) 
+			batch = (int)readNumericParameter(cli, "batch");
+		
+		if (cli.hasOption("timeout")) 
+			timeout = readNumericParameter(cli, "timeout");
+		
+		if (cli.hasOption("maxeval")) 
+			maxeval = (int)readNumericParameter(cli, "maxeval");
+		
 	    if (cli.hasOption("filter"))
 			filter = cli.getOptionValue("filter");
 		
@@ -455,6 +734,9 @@ class Constants
 			case "association" :
 				mode = Utilities.MODE_ASSOCIATION;
 				break;
+			case "merge" :
+				mode = Utilities.MODE_MERGE;
+				break;
 			default:
 				throw new IllegalModeException("ERROR: the selected mode is not available.\nUse the option --help for details about PopPAnTe usage.");
 		}
@@ -519,36 +801,53 @@ class Constants
 		s += "Mandatory parameters:\n\n";
 		
 		s += "\t-mode <mode>\t\twhich analysis perform:\n";
-		s += "\t\t\t\tmode=<heritability | association | pedcheck>\n";
+		s += "\t\t\t\tmode=<heritability | association | pedcheck | merge>\n";
 		
 		
 		s += "\t-map file path\t\tmap for the predictors (not mandatory mode\n\t\t\t\tis 'pedcheck')\n";
 		s += "\t-ped file path\t\tpedigree file\n";
 		s += "\t-predictors file path\tpredictors values (not mandatory if mode is\n\t\t\t\t'pedcheck')\n";
 		s += "\t-response file path\tresponse variables information (mandatory only if mode\n\t\t\t\tis 'association')\n";
+		s += "\t-merge file,...,file\tpartial result files written by the shards\n\t\t\t\t(mandatory only if mode is 'merge')\n";
 		
 		
 		s += "\nOptional parameters:\n\n";
 		
 		s += "\t[-alpha num]\t\tp-value that controls the experiment-wise error \n\t\t\t\trate in the adaptive permutation procedure\n\t\t\t\t(default: null)\n";
+		s += "\t[-batch num]\t\ttest num predictors at time with the score test,\n\t\t\t\tevaluated with the variances of the null model,\n\t\t\t\tand fit the full model only for those passing\n\t\t\t\tprescreen (default: none, association only)\n";
+		s += "\t[-bending <true|false>]whether bending the genetic relationship matrix\n\t\t\t\tand using the Cholesky decomposition, or using\n\t\t\t\tthe LDL' decomposition on the matrix as it is\n\t\t\t\t(default: true)\n";
 		s += "\t[-c num]\t\tdesired precision in the adaptive permutation\n\t\t\t\tprocedure (default: null)\n";
+		s += "\t[-cache file path]\tbinary cache of the predictor data, read instead\n\t\t\t\tof the map and predictor files when it matches\n\t\t\t\tthem, and written otherwise (default: none)\n";
+		s += "\t[-checkpoint <true|false>]whether writing the results in a journal as\n\t\t\t\tthe tests end, to resume the analysis if it is\n\t\t\t\tinterrupted (default: false)\n";
 		s += "\t[-correct <th|path>]\tthe file of covariates used to correct the\n\t\t\t\tpredictors OR the threshold of the total\n\t\t\t\tvariability to be removed by PCA\n";
 		s += "\t[-covariate file path]\tcovariate file\n";
-		s += "\t[-decomposition <QR|LU>]apply the QR/LU decomposition when the genetic\n\t\t\t\trelationship matrix is provided as input (default:\n\t\t\t\tapply a bending procedure and use the Cholesky\n\t\t\t\tdecomposition)\n";
+		s += "\t[-decomposition <QR|LU|LDL>]apply the QR/LU/LDL' decomposition when the genetic\n\t\t\t\trelationship matrix is provided as input, without\n\t\t\t\tbending it (default: given by the bending option)\n";
+		s += "\t[-engine <dense|spectral>]how the likelihood is evaluated: decomposing the\n\t\t\t\tcovariance matrix at each evaluation or once\n\t\t\t\tdecomposing the kinship in its eigenvectors\n\t\t\t\t(default: dense)\n";
 		s += "\t[-filter file path]\tlist of responses to tests (default: all)\n";
 		s += "\t[-include file path]\tlist of predictors to tests (default: all)\n";
 		s += "\t[-header <true|false>]\twhether the output file has a header (default: true)\n";
+		s += "\t[-heap fraction]\tfraction of the free heap used by the running tests,\n\t\t\t\tthat otherwise wait (default: 0.75)\n";
 		s += "\t-help\t\t\tprint this message\n";
 		s += "\t[-kinship file path]\tgenetic relationship matrix file (default: null)\n";
+		s += "\t[-maxeval num]\t\tstop the optimisation of a test after num likelihood\n\t\t\t\tevaluations, reporting a warning (default: none)\n";
 		s += "\t[-mink threshold]\tminimum genomic relationship coefficient\n\t\t\t\t(default: 0)\n";
 		s += "\t[-mink 2]\t\tset the minimum genomic relationship coefficient to " + SECOND_COUSIN_KINSHIP + "\n";
 		s += "\t[-mink 3]\t\tset the minimum genomic relationship coefficient to " + THIRD_COUSIN_KINSHIP + "\n";
 		s += "\t[-normalise <what>]\twhether quantile normalisation is applied to\n\t\t\t\tresponses, predictors, or both\n\t\t\t\t(default: none) what=<response|predictor|both>\n";
+		s += "\t[-optimiser <amoeba|newton|brent>]which minimiser estimates the models: the\n\t\t\t\tNelder-Mead method, Fisher scoring, or a search\n\t\t\t\tover the heritability ratio, falling back to\n\t\t\t\tNelder-Mead (default: amoeba)\n";
 		s += "\t[-output file path]\toutput file (default: standard output)\n";
+		s += "\t[-permutation <refit|fixed>]how the permutation tests are performed: fitting\n\t\t\t\tthe full model again or fixing the variances to\n\t\t\t\tthose of the null model (default: refit)\n";
 		s += "\t[-plot <true|false>]\twhether print the Manhattan and Q-Q plot (default: false)\n";
+		s += "\t[-prescreen p]\t\tfit the full model only if the p-value of the score\n\t\t\t\ttest, evaluated with the variances of the null\n\t\t\t\tmodel, is at most p (default: none, association only,\n\t\t\t\tnot with -alpha)\n";
 		s += "\t[-region bp]\t\twindow size for the region-based tests (default: 0,\n\t\t\t\tsingle-predictor analysis)\n";
 		s += "\t[-relc threshold]\twhether evaluating additional statistics and which\n\t\t\t\tp-value threshold use (default: none)\n";		
+		s += "\t[-resume <true|false>]\twhether resuming the analysis from its journal,\n\t\t\t\tperforming only the tests it does not list\n\t\t\t\t(default: false)\n";
+		s += "\t[-schedule <site|pattern|cost>]how the tests are submitted: as generated,\n\t\t\t\tgrouped by response and missingness pattern\n\t\t\t\tafter fitting their null model, or the most\n\t\t\t\texpensive first (default: site)\n";
+		s += "\t[-shard k/N]\t\tperform only the k-th of N shards of the tests,\n\t\t\t\tbalanced by their estimated cost, and write\n\t\t\t\ttheir results in a partial result file\n\t\t\t\t(default: none, all the tests are performed)\n";
+		s += "\t[-spill <true|false>]\twhether spilling the results on disk, keeping only\n\t\t\t\ttheir p-values in memory (default: false)\n";
+		s += "\t[-storage <double|float>]how the predictor values are stored: in double\n\t\t\t\tor in single precision, halving their memory\n\t\t\t\t(default: double)\n";
 		s += "\t[-threads num]\t\tnumber of threads to use (default: 1)\n";
+		s += "\t[-timeout sec]\t\tstop the optimisation of a test after sec seconds,\n\t\t\t\treporting a warning (default: none)\n";
 		s += "\t[-variance <true|false>]whether printing the variances (default: false)\n";
 		s += "\t[-verbose <true|false>]\twhether verbose (default: false)\n";
 				
@@ -556,6 +855,27 @@ class Constants
 	}
 	
 	
+	/**
+		Returns the shard of the tests to perform.
+		
+		@return the shard (k), from 1, or Utilities.INVALID_I if the shard option is not set
+	*/
+	public static int shardIndex()
+	{
+		return shardIndex;
+	}
+	
+	/**
+		Returns the number of shards.
+		
+		@return the number of shards (N), or Utilities.INVALID_I if the shard option is not set
+	*/
+	public static int shardCount()
+	{
+		return shardCount;
+	}
+	
+	
 	/**
 		Lists the option in effects.
 		
@@ -0,0 +1,277 @@
+/*
+ * 	 DataCache.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+	Represents the binary cache of the methylation data, that
+	is the list of methylation sites, the table of methylation
+	values and the individuals having a missing value for each
+	site, as they are once the MAP and PREDICTOR files are read.
+
+	The cache starts with a header storing the fingerprint of the
+	MAP and PREDICTOR files (their path, size and modification time),
+	of the list of methylation sites to include, and of the individuals
+	in the order of the position table. Then, it stores the table, a
+	row for each methylation site, as it is stored in memory (either
+	in double or in single precision), and the list of methylation
+	sites.
+	When the fingerprint matches, the table is read by memory mapping
+	the file, and the text files are not parsed at all; otherwise,
+	they are parsed and the cache is written again. A cache written
+	with a different storage option is written again as well.
+
+	The cache stores the data before any normalisation or correction,
+	that are applied afterwards as when the files are parsed. The
+	PED, RESPONSE and covariate files are still parsed, since they
+	determine the individuals analysed.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.MyFileReader
+	@see com.github.alesssia.poppante.DataManager
+*/
+
+class DataCache
+{
+	/** The first bytes of the cache */
+	private static final byte[] MAGIC = "PopPAnTe cache".getBytes(StandardCharsets.US_ASCII);
+	/** The version of the file format */
+	private static final int VERSION = 1;
+	/** The bytes of the header, where the table starts */
+	private static final int HEADER = 64;
+	/** The byte order of the table */
+	private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	/** The cache file name */
+	private final String name;
+	/** This is where the data are stored */
+	private final DataManager datamanager;
+	/** The fingerprint of the data */
+	private final long fingerprint;
+
+	/**
+		Constructor.
+
+		Computes the fingerprint of the data to cache.
+
+		@precondition the positionTable should have been initialised
+		@precondition the list of methylation sites to include should have been read
+
+		@param name the cache file name
+		@param dm the data manager
+	*/
+	public DataCache(String name, DataManager dm)
+	{
+		this.name = name;
+		datamanager = dm;
+		fingerprint = fingerprint();
+	}
+
+	/**
+		Computes the fingerprint of the data to cache.
+
+		@return the fingerprint
+	*/
+	private long fingerprint()
+	{
+		long h = VERSION;
+		for (String source : new String[] {Constants.map, Constants.predictor})
+		{
+			File file = new File(source);
+			h = 31 * h + file.getAbsolutePath().hashCode();
+			h = 31 * h + file.length();
+			h = 31 * h + file.lastModified();
+		}
+
+		//the order of the sites to include does not matter
+		if (Constants.include != null)
+		{
+			Vector<String> included = new Vector<>(datamanager.includedMeth());
+			Collections.sort(included);
+			for (String site : included)
+				h = 31 * h + site.hashCode();
+		}
+		else
+			h = 31 * h - 1;
+
+		for (String individual : datamanager.individuals())
+			h = 31 * h + individual.hashCode();
+
+		return h;
+	}
+
+	/**
+		Loads the methylation data from the cache, if it
+		exists and its fingerprint matches.
+
+		Nothing is loaded if the cache is missing, belongs to
+		different data, or can't be read.
+
+		@precondition no methylation site should have been read
+		@return true if the data have been loaded, false otherwise
+	*/
+	public boolean load()
+	{
+		assert datamanager.listMeths().isEmpty() : "Internal error: predictor information already read.";
+
+		if (!new File(name).isFile())
+			return false;
+
+		try (FileChannel channel = FileChannel.open(Paths.get(name), StandardOpenOption.READ))
+		{
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).order(ORDER);
+			byte[] magic = new byte[MAGIC.length];
+			header.get(magic);
+			if (!Arrays.equals(magic, MAGIC) || header.getInt() != VERSION || header.getLong() != fingerprint)
+				return false;
+			int methFields = header.getInt();
+			int people = header.getInt();
+			int sites = header.getInt();
+			int width = header.getInt();
+			boolean single = Constants.storage != null && Constants.storage.equals("float");
+			if (people != datamanager.people() || width != (single ? 4 : 8))
+				return false;
+
+			PredictorTable methylations = new PredictorTable(sites, people, single);
+
+			//the table is mapped a window of rows at a time,
+			//since a mapping can't exceed Integer.MAX_VALUE bytes
+			long row = (long) width * people;
+			int rows = (int) Math.max(1, Integer.MAX_VALUE / Math.max(1, row));
+			for (int first = 0; first < sites; first += rows)
+			{
+				int last = Math.min(sites, first + rows);
+				ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, HEADER + first * row, (last - first) * row).order(ORDER);
+				for (int m = first; m < last; m++)
+					methylations.read(m, window);
+			}
+
+			channel.position(HEADER + sites * row);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			Vector<Marker> markers = new Vector<>(sites);
+			for (int m = 0; m < sites; m++)
+			{
+				String marker = in.readUTF();
+				Marker site = in.readBoolean() ? new Marker(marker, in.readUTF(), in.readLong()) : new Marker(marker);
+				int missing = in.readInt();
+				for (int i = 0; i < missing; i++)
+					site.addMissing(in.readInt());
+				markers.add(site);
+			}
+
+			datamanager.setMethFields(methFields);
+			datamanager.listMeths().addAll(markers);
+			datamanager.setMethylations(methylations);
+			return true;
+		}
+		catch (IOException | BufferUnderflowException | IllegalArgumentException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+		Writes the methylation data in the cache.
+
+		The cache is written in a temporary file, that then
+		replaces the previous cache, so that an interrupted run
+		does not leave a truncated cache.
+
+		@precondition the methylation data should have been read, and not transformed yet
+		@throws IOException if the cache can't be written
+	*/
+	public void write() throws IOException
+	{
+		assert datamanager.isMethylationsInitialised() : "Internal error: predictor table not initialised";
+
+		Vector<Marker> markers = datamanager.listMeths();
+		PredictorTable methylations = datamanager.methylations();
+		int people = datamanager.people();
+
+		Path cache = Paths.get(name);
+		Path temporary = Paths.get(name + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ORDER);
+			header.put(MAGIC);
+			header.putInt(VERSION);
+			header.putLong(fingerprint);
+			header.putInt(datamanager.methFields());
+			header.putInt(people);
+			header.putInt(markers.size());
+			header.putInt(methylations.width());
+			header.clear();
+			write(channel, header);
+
+			ByteBuffer row = ByteBuffer.allocateDirect(methylations.width() * people).order(ORDER);
+			for (int m = 0; m < methylations.rows(); m++)
+			{
+				row.clear();
+				methylations.write(m, row);
+				write(channel, row);
+			}
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			for (Marker marker : markers)
+			{
+				out.writeUTF(marker.name());
+				out.writeBoolean(marker.chromosome() != null);
+				if (marker.chromosome() != null)
+				{
+					out.writeUTF(marker.chromosome());
+					out.writeLong(marker.position());
+				}
+				long[] missing = marker.missing();
+				out.writeInt(missing.length);
+				for (long person : missing)
+					out.writeInt((int) person);
+			}
+			out.flush();
+		}
+		catch (IOException e)
+		{
+			Files.deleteIfExists(temporary);
+			throw new IOException("ERROR: the cache " + name + " can't be written (" + e.getMessage() + ").");
+		}
+
+		Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+		Writes the whole buffer in the file.
+
+		@param channel the file
+		@param buffer the buffer, positioned at its beginning
+		@throws IOException if the file can't be written
+	*/
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+}
@@ -61,6 +61,9 @@ import com.github.alesssia.algebrautils.MyPCA;
 
 class DataManager 
 {
+	/**  The maximum number of null models stored */
+	private static final int NULL_MODELS = 4096;
+	
 	/**  Family and subjects information. */
 	private Hashtable<String, Family> families; 
 	/**  Mapping between individuals' and their position.
@@ -93,8 +96,10 @@ class DataManager
 		Each row represents a methylation site and each column represents 
 		an individual. Order of the sites is done by the 
 		listMeths list, while order of the individuals is done
-		according to the position in positionTable. */
-	private double[][] methylations;
+		according to the position in positionTable. The values
+		are stored in single precision when the storage option
+		is "float". */
+	private PredictorTable methylations;
 	
 	
 	/** Covariate values.
@@ -129,13 +134,14 @@ class DataManager
 		identifies its missingness pattern */
 	private String[] missingnessMethPattern;
 		
-	/**	Set of missingness pattern identified 
-		for the phenotypes and the methylation
-		sites and their null log likelihood.
-		They hash key represent the phenotype (each
-		phenotype will have its null model) and the
-		value is the null model itself */
-	private Hashtable<Integer, NullModel>  missingnessPattern;
+	/**	Null models evaluated for each phenotype and missingness
+		pattern of the methylation sites. The hash key is the 
+		position of the phenotype and the missingness pattern, 
+		the value is the null model itself.
+		
+		The least recently used models are evicted when more
+		than NULL_MODELS models are stored. */
+	private LinkedHashMap<String, NullModel> nullModels;
 	
 	/** Number of fields used to describe the
 		methylation values */
@@ -169,7 +175,14 @@ class DataManager
 		//Variable used for the missingness patterns
 		hashids = new Hashids("42"); //set salt
 		missingnessMethPattern = new String[0];
-		missingnessPattern = new Hashtable();
+		nullModels = new LinkedHashMap<String, NullModel>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, NullModel> eldest)
+			{
+				return size() > NULL_MODELS;
+			}
+		};
 	}
 	
 	/**
@@ -293,7 +306,7 @@ class DataManager
 	*/
 	public boolean isMethylationsInitialised()
 	{
-		return methylations != null && methylations.length != 0 && methylations[0].length != 0;
+		return methylations != null && methylations.rows() != 0 && methylations.columns() != 0;
 	}
 	
     /**
@@ -301,12 +314,9 @@ class DataManager
 		
 		@return the table of methylation values
 	*/
-	public double[][] methylations()
+	public PredictorTable methylations()
 	{
-		if (methylations == null)
-			return null;
-		
-		return methylations.clone();
+		return methylations;
 	}
 	
 	
@@ -361,10 +371,29 @@ class DataManager
 	*/
 	public void setMeth(int row, int col, double value)
 	{
-		assert row >= 0 && row < methylations.length : "Internal error: invalid predictor position";
-		assert col >= 0 && col < methylations[0].length : "Internal error: invalid predictor position";
+		assert row >= 0 && row < methylations.rows() : "Internal error: invalid predictor position";
+		assert col >= 0 && col < methylations.columns() : "Internal error: invalid predictor position";
+		
+		methylations.set(row, col, value);
+	}
+	
+	
+	/**
+		Sets the table of methylation values, as read from
+		the cache.
+		
+		@precondition the methylation sites should have been set
+		@precondition the position table should have been initialised
+		
+		@param values the table of methylation values
+		@see com.github.alesssia.poppante.DataCache
+	*/
+	public void setMethylations(PredictorTable values)
+	{
+		assert values.rows() == listMeths.size() : "Internal error: invalid predictor table";
+		assert values.columns() == positionTable.size() : "Internal error: invalid predictor table";
 		
-		methylations[row][col] = value;
+		methylations = values;
 	}
 	
 	
@@ -423,6 +452,23 @@ class DataManager
 	}
 	
 	
+	/**
+		Returns the individuals, codified as the concatenation
+		of their famID with their ID, in the order of their 
+		position in the positionTable.
+		
+		@return the individuals
+	*/
+	public String[] individuals()
+	{
+		String[] individuals = new String[positionTable.size()];
+		for (Map.Entry<String, Integer> entry : positionTable.entrySet())
+			individuals[entry.getValue()] = entry.getKey();
+		
+		return individuals;
+	}
+	
+	
 	/**
 		Sorts the individuals within familes
 		
@@ -671,8 +717,7 @@ class DataManager
 		assert listMeths.size() > 0 : "Internal error: no predictor information available";
 		assert positionTable.size() > 0 : "Internal error: position table not initialised";
 		
-		//FIXME: Bottleneck
-		methylations = Utilities.set(listMeths.size(), positionTable.size(), Utilities.INVALID_D);
+		methylations = new PredictorTable(listMeths.size(), positionTable.size(), Constants.storage != null && Constants.storage.equals("float"));
 	}
 	
 	/**
@@ -881,13 +926,15 @@ class DataManager
 	*/
 	private void inverseNormalTransformMeth() throws RuntimeException 
 	{
-		for (int p=0; p<methylations.length; p++)
+		for (int p=0; p<methylations.rows(); p++)
 		{
+			double[] values = methylations.row(p);
+			
 			//extracts the valid phenotypes
 			Vector<Double> v = new Vector<>();
-			for (int i = 0; i < methylations[p].length; i++)
-				if (methylations[p][i] != Utilities.INVALID_D)
-				    v.add(methylations[p][i]);
+			for (int i = 0; i < values.length; i++)
+				if (values[i] != Utilities.INVALID_D)
+				    v.add(values[i]);
 			
 			//Creates the rank vector
 		    RankVector rankVector = new RankVector(v.toArray(new Double[]{}));
@@ -898,12 +945,13 @@ class DataManager
 		
 			//conts the position inside zs
 			int c = 0;
-			for (int i = 0; i < methylations[p].length; i++)
-				if (methylations[p][i] != Utilities.INVALID_D)
+			for (int i = 0; i < values.length; i++)
+				if (values[i] != Utilities.INVALID_D)
 				{
-					methylations[p][i] = zs[c];
+					values[i] = zs[c];
 					c++;
-				}					
+				}
+			methylations.setRow(p, values);
 		}
 	}
 	
@@ -946,6 +994,8 @@ class DataManager
 		//for each sites
 		for (int m=0; m<listMeths.size(); m++)
 		{
+			double[] values = methylations.row(m);
+			
 			//initialises the data structure, that are vectors instead
 			//of arrays because I don't know how many people I have
 			//with missing values
@@ -956,10 +1006,10 @@ class DataManager
 					
 			//extracts the valid methylations values and the
 			//correction covariates for that person
-			for (int i = 0; i < methylations[m].length; i++)
-				if (methylations[m][i] != Utilities.INVALID_D)
+			for (int i = 0; i < values.length; i++)
+				if (values[i] != Utilities.INVALID_D)
 				{
-				    tmpY.add(methylations[m][i]);
+				    tmpY.add(values[i]);
 					for (int j = 0; j<numCorrectionCovs; j++)
 						tmpX.get(j).add(correctionCovs[j][i]);
 				}
@@ -980,12 +1030,13 @@ class DataManager
 			//Sets the value back
 			//c conts the position inside zs
 			int c = 0;
-			for (int i = 0; i < methylations[m].length; i++)
-				if (methylations[m][i] != Utilities.INVALID_D)
+			for (int i = 0; i < values.length; i++)
+				if (values[i] != Utilities.INVALID_D)
 				{
-					methylations[m][i] = zs[c];
+					values[i] = zs[c];
 					c++;
-				}		
+				}
+			methylations.setRow(m, values);
 		}
 
 		//once the data structure have been populated the correction is
@@ -1013,9 +1064,9 @@ class DataManager
 	{
 		assert Utilities.isDouble(Constants.correct) : "Internal error : --correct requires a number.";
 	
-		//Variables should stay in the columns (I already creted the matrix
-		//that way)
-		MyPCA pca = new MyPCA(methylations, Utilities.INVALID_D);
+		//Variables should stay in the columns: the table is 
+		//transposed (and widened, in single precision) directly
+		MyPCA pca = MyPCA.transposed(methylations.transpose(), Utilities.INVALID_D);
 		pca.evaluatePCA();
 		
 	    // selects the number of PC to use and initialises
@@ -1062,56 +1113,74 @@ class DataManager
 	}
 	
 	/**
-		Sets the missingness code for each phenotype.
-		
-		Each phenotype is assigned to a missingness pattern, that
-		is a unique code identifying the people having
-		missing values, as recorded when the phenotype data 
-		were loaded in the DataManager structures.
-		This code will be used to identify group of poeple/
-		methylation sites to be analysed together (that is:
-		using the same null model).
+		Resets the list of people having missing values for 
+		each phenotype.
 		
-		This function also initialises a null model for each
-		phenotype, that will be used if there is a methylation
-		site sharing the same missingness pattern.
+		Since all the phenotype values are loaded, the people
+		analysed for a phenotype and a methylation site only 
+		depend on the missingness pattern of the latter. Thus,
+		the phenotype missingness pattern is not needed and
+		the lists are deleted, in order to save space.
 		
-		@precondition the request position is valid
 		@see com.github.alesssia.poppante.Phenotypes
 	*/
-	public void setMissingnessPhenoPattern()
+	public void resetMissingnessPhenoPattern()
 	{
 		assert Constants.mode == Utilities.MODE_ASSOCIATION : "Internal error: missingness pattern should not be set when predictor heritability is assessed.";	
 		assert phenotypeNames.size() > 0 : "Internal error: no response variable available";
 		
 		for (int i=0; i<phenotypeNames.size(); i++)
-		{
-			Phenotype pheno = phenotypeNames.get(i);
-			//the pattern is set in order to compare it with the 
-			//methylation site's one
-			//No missing values are an empty string
-			missingnessPattern.put(i, new NullModel(hashids.encode(pheno.missing())));
-
-			//once the code is set, the list of person can be deleted
-			//from the marker, in order to save space
-			pheno.resetMissing();
-		}		
+			phenotypeNames.get(i).resetMissing();
 	}
 	
 	
 	/**
-		Returns the null model associated to the missingness pattern
-		of the given phenotype.
+		Returns the null model associated to the given phenotype
+		and to the missingness pattern of the given methylation site.
 		
-		It is the VC that decide whether used it or not
+		The model is created, but not evaluated, the first time 
+		it is requested, and it is shared by all the methylation
+		sites with the same missingness pattern. It is the VC that 
+		evaluates it.
 		
 		@param phenotypePosition the phenotype for which we want to extract the null model
+		@param methylationPosition the methylation site for which we want to extract the null model
 		@return the null model
+		@see com.github.alesssia.poppante.NullModel
 	*/	
-	public NullModel getNull(int phenotypePosition)
+	public NullModel getNull(int phenotypePosition, int methylationPosition)
 	{
 		assert missingnessMethPattern.length > 0 : "Internal error: missingness pattern not initialised.";
-		return missingnessPattern.get(phenotypePosition);
+		
+		String pattern = missingnessMethPattern[methylationPosition];
+		String key = phenotypePosition + "." + pattern;
+		synchronized (nullModels)
+		{
+			NullModel model = nullModels.get(key);
+			if (model == null)
+			{
+				model = new NullModel(pattern);
+				nullModels.put(key, model);
+			}
+			
+			return model;
+		}
+	}
+	
+	/**
+		Freezes the data into an immutable snapshot, that is read 
+		by the tests without acquiring any monitor.
+		
+		@precondition the data should be loaded and pre-processed, and 
+		the missingness pattern of the methylation sites should be set 
+		when association is tested
+		
+		@return the snapshot of the data
+		@see com.github.alesssia.poppante.Snapshot
+	*/
+	public Snapshot snapshot()
+	{
+		return new Snapshot(this);
 	}
 	
 	/**
@@ -0,0 +1,165 @@
+/*
+ * 	 FixedPermutation.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import Jama.*;
+import java.util.Random;
+import mathutils.ProbDist;
+
+/**
+	Evaluates permutation tests keeping the variances fixed.
+
+	Once the model is whitened for the given variances, the
+	observations are independent and identically distributed,
+	and the residuals of the response regressed on the fixed
+	effects of the null model are exchangeable under the null
+	hypothesis. Thus, each permutation shuffles the whitened
+	residuals and evaluates the score test of the predictor,
+	that is (x'e)^2/(x'x) where x is the whitened predictor
+	regressed on the same fixed effects and e the residuals,
+	in linear time.
+
+	References for the implementation can be found at:
+		Abney, M. (2015). Permutation testing in the presence
+		of polygenic variation. Genetic epidemiology, 39(4),
+		249-258.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.VC
+	@see com.github.alesssia.poppante.NormalSet
+*/
+
+class FixedPermutation
+{
+	/** The whitened residuals of the response */
+	private final double[] residuals;
+	/** The whitened residuals of the predictor */
+	private final double[] predictor;
+	/** The information of the predictor, that is x'x */
+	private final double information;
+	/** The random number generator */
+	private final Random random;
+
+	/**
+		Constructor.
+
+		Regresses the whitened response and predictor on the
+		whitened fixed effects.
+
+		@param whitened the whitened fixed effects, response and predictor, a row for each observation
+		@throws RuntimeException if the fixed effects are singular
+	*/
+	public FixedPermutation(double[][] whitened)
+	{
+		int n = whitened.length;
+		int lmd = whitened[0].length - 2;
+
+		double[][] z = new double[n][lmd];
+		double[][] yx = new double[n][2];
+		for (int i = 0; i < n; i++)
+		{
+			System.arraycopy(whitened[i], 0, z[i], 0, lmd);
+			yx[i][0] = whitened[i][lmd];
+			yx[i][1] = whitened[i][lmd + 1];
+		}
+
+		double[][] fitted = (lmd == 0) ? new double[n][2] : new Matrix(z).times(new Matrix(z).solve(new Matrix(yx))).getArray();
+
+		residuals = new double[n];
+		predictor = new double[n];
+		double xx = 0.0;
+		for (int i = 0; i < n; i++)
+		{
+			residuals[i] = yx[i][0] - fitted[i][0];
+			predictor[i] = yx[i][1] - fitted[i][1];
+			xx += predictor[i] * predictor[i];
+		}
+		information = xx;
+
+		random = new Random();
+	}
+
+	/**
+		Returns whether the predictor carries information once
+		regressed on the fixed effects.
+
+		@return true if the test can be performed, false otherwise
+	*/
+	public boolean isInformative()
+	{
+		return information > 0;
+	}
+
+	/**
+		Evaluates the score statistic for the current order of
+		the residuals.
+
+		@return the score statistic
+	*/
+	public double statistic()
+	{
+		double score = 0.0;
+		for (int i = 0; i < residuals.length; i++)
+			score += predictor[i] * residuals[i];
+
+		return score * score / information;
+	}
+
+	/**
+		Evaluates the p-value of the score statistic for the
+		current order of the residuals.
+
+		@return the p-value
+	*/
+	public double pvalue()
+	{
+		return ProbDist.gammq(0.5 * 1, 0.5 * statistic());
+	}
+
+	/**
+		Performs a batch of permutation tests and returns the
+		p-values obtained by the permuted residuals.
+
+		The residuals are shuffled in place, since the composition
+		of random permutations is still a random permutation.
+
+		@param count the number of permutations
+		@return the p-values
+	*/
+	public double[] permute(int count)
+	{
+		double[] pvalues = new double[count];
+		for (int p = 0; p < count; p++)
+		{
+			for (int i = residuals.length - 1; i > 0; i--)
+			{
+				int index = random.nextInt(i + 1);
+				double a = residuals[index];
+				residuals[index] = residuals[i];
+				residuals[i] = a;
+			}
+			pvalues[p] = pvalue();
+		}
+
+		return pvalues;
+	}
+}
@@ -0,0 +1,551 @@
+/*
+ * 	 Journal.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+	Represents the checkpoint journal of an analysis, that lists
+	the results of the completed tests, so that an interrupted
+	analysis can be resumed without performing them again.
+
+	The journal starts with a header storing the fingerprint of
+	the data and of the options affecting the results. Then, it
+	lists the results as they are collected, each one preceded by
+	its phenotype and methylation site, without any multiple
+	comparisons correction (that is applied on all the results,
+	once the analysis ends).
+
+	The results are written to a buffered stream, that is flushed
+	and synchronised with the disk every FLUSH_INTERVAL, thus the
+	threads running the tests never wait for the disk. When an
+	analysis is interrupted, the last results may be lost or
+	truncated: the truncated one is discarded when resuming.
+
+	The journal is a collection that forwards the results to the
+	list of results of the analysis: each result is journaled with
+	the test it belongs to.
+
+	When resuming, only the tests listed in the journal are kept in
+	memory, with the position of their results in the journal, and
+	their results are read again from the journal only when they are
+	merged with the results of the remaining tests.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.MyTest
+	@see com.github.alesssia.poppante.Result
+*/
+
+class Journal extends AbstractCollection<Result>
+{
+	/** The first string of the journal */
+	private static final String MAGIC = "PopPAnTe journal";
+	/** The version of the file format */
+	private static final int VERSION = 1;
+	/** The time (in ns) between two flushes of the journal */
+	private static final long FLUSH_INTERVAL = 10000000000L;
+	/** The options that do not affect the results, and
+		can change when resuming an analysis */
+	private static final List<String> NEUTRAL = Arrays.asList("help", "verbose", "threads", "heap", "schedule", "spill", "output", "plot", "header", "variance", "checkpoint", "resume", "merge", "cache");
+
+	/** The stream of the journal file */
+	private final FileOutputStream file;
+	/** The (buffered) stream writing the results */
+	private final DataOutputStream out;
+	/** The list of results, where the results are forwarded */
+	private final Collection<Result> results;
+	/** The journal file name */
+	private final String name;
+	/** The keys of the tests completed before resuming, sorted */
+	private long[] completed;
+	/** The offset of the result of each completed test in the journal, as the keys */
+	private long[] offsets;
+	/** The bytes of the result of each completed test in the journal, as the keys */
+	private int[] lengths;
+	/** The time (in ns) of the last flush */
+	private long flushed;
+
+	/**
+		Constructor.
+
+		Opens the journal. If the resume option is set and the
+		journal exists, the results it lists are read and the
+		new ones are appended; otherwise a new journal is started.
+
+		@param name the journal file name
+		@param data the data analysed
+		@param results the list where the results are forwarded
+		@throws IOException if the journal can't be read or written
+		@throws JournalException if the journal belongs to a different analysis
+	*/
+	public Journal(String name, Snapshot data, Collection<Result> results) throws IOException
+	{
+		this.name = name;
+		this.results = results;
+		completed = new long[0];
+		offsets = new long[0];
+		lengths = new int[0];
+
+		long fingerprint = fingerprint(data);
+		File journal = new File(name);
+		if (Constants.resume && journal.exists())
+		{
+			long length = read(name, fingerprint);
+			//discards the truncated result, if any
+			try (RandomAccessFile raf = new RandomAccessFile(journal, "rw"))
+			{
+				raf.setLength(length);
+			}
+			file = new FileOutputStream(journal, true);
+			out = new DataOutputStream(new BufferedOutputStream(file));
+		}
+		else
+		{
+			file = new FileOutputStream(journal);
+			out = new DataOutputStream(new BufferedOutputStream(file));
+			out.writeUTF(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fingerprint);
+		}
+		flushed = System.nanoTime();
+	}
+
+	/**
+		Reads the tests listed in the journal, and the position
+		of their results.
+
+		The journal is read twice: first the keys of the tests are
+		read and sorted, then the position of each result is found.
+
+		@param name the journal file name
+		@param fingerprint the fingerprint of the analysis
+		@return the length of the journal, without the truncated result
+		@throws IOException if the journal can't be read
+		@throws JournalException if the journal belongs to a different analysis
+	*/
+	private long read(String name, long fingerprint) throws IOException
+	{
+		long[] keys = new long[1024];
+		int n = 0;
+		long length;
+		try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(name))))
+		{
+			DataInputStream in = new DataInputStream(counter);
+			readHeader(in, name, fingerprint);
+
+			length = counter.count();
+			try
+			{
+				while (true)
+				{
+					int p = in.readInt();
+					int m = in.readInt();
+					Result.read(in);
+					if (n == keys.length)
+						keys = Arrays.copyOf(keys, 2 * n);
+					keys[n++] = key(p, m);
+					length = counter.count();
+				}
+			}
+			catch (EOFException | UTFDataFormatException e)
+			{
+				//end of the journal, or truncated result
+			}
+		}
+
+		//a test journaled twice is kept once
+		Arrays.sort(keys, 0, n);
+		int distinct = 0;
+		for (int i = 0; i < n; i++)
+			if (distinct == 0 || keys[i] != keys[distinct - 1])
+				keys[distinct++] = keys[i];
+		completed = Arrays.copyOf(keys, distinct);
+		offsets = new long[distinct];
+		lengths = new int[distinct];
+
+		try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(name))))
+		{
+			DataInputStream in = new DataInputStream(counter);
+			readHeader(in, name, fingerprint);
+			while (counter.count() < length)
+			{
+				int k = Arrays.binarySearch(completed, key(in.readInt(), in.readInt()));
+				long start = counter.count();
+				Result.read(in);
+				offsets[k] = start;
+				lengths[k] = (int) (counter.count() - start);
+			}
+		}
+
+		return length;
+	}
+
+	/**
+		Reads the header of the journal, and checks that it
+		belongs to the analysis.
+
+		@param in the stream reading the journal
+		@param name the journal file name
+		@param fingerprint the fingerprint of the analysis
+		@throws IOException if the journal can't be read
+		@throws JournalException if the journal belongs to a different analysis
+	*/
+	private static void readHeader(DataInputStream in, String name, long fingerprint) throws IOException
+	{
+		try
+		{
+			if (!in.readUTF().equals(MAGIC) || in.readInt() != VERSION)
+				throw new JournalException("ERROR: " + name + " is not a journal.");
+			if (in.readLong() != fingerprint)
+				throw new JournalException("ERROR: the journal " + name + " belongs to a different analysis.\nRemove it, or do not use the resume option.");
+		}
+		catch (EOFException | UTFDataFormatException e)
+		{
+			throw new JournalException("ERROR: " + name + " is not a journal.");
+		}
+	}
+
+	/**
+		Returns the key of a test.
+
+		@param p the position of the phenotype
+		@param m the position of the methylation site
+		@return the key
+	*/
+	private static long key(int p, int m)
+	{
+		return ((long)p << 32) | (m & 0xFFFFFFFFL);
+	}
+
+	/**
+		Returns whether a test was completed before resuming.
+
+		@param input the test
+		@return true if the test was completed, false otherwise
+	*/
+	private boolean isCompleted(InputTest input)
+	{
+		return Arrays.binarySearch(completed, key(input.p(), input.m())) >= 0;
+	}
+
+	/**
+		Returns the number of tests completed before resuming.
+
+		@return the number of tests
+	*/
+	public int resumed()
+	{
+		return completed.length;
+	}
+
+	/**
+		Selects the tests that were not completed before resuming,
+		as they are generated.
+
+		@param inputs the tests
+		@return the tests to perform
+	*/
+	public Iterator<InputTest> remaining(final Iterator<InputTest> inputs)
+	{
+		return new Iterator<InputTest>()
+		{
+			/** The next test to perform, or null */
+			private InputTest next = advance();
+
+			/**
+				Finds the next test to perform.
+
+				@return the test, or null if there are no more tests
+			*/
+			private InputTest advance()
+			{
+				while (inputs.hasNext())
+				{
+					InputTest input = inputs.next();
+					if (!isCompleted(input))
+						return input;
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext()
+			{
+				return next != null;
+			}
+
+			@Override
+			public InputTest next()
+			{
+				if (next == null)
+					throw new NoSuchElementException();
+
+				InputTest input = next;
+				next = advance();
+				return input;
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+		Journals a result with the test it belongs to,
+		and forwards it to the list of results.
+
+		@param result the result
+		@return true
+		@throws JournalException if the result does not belong to a test, or can't be written
+	*/
+	@Override
+	public boolean add(Result result)
+	{
+		InputTest input = (result == null) ? null : result.test();
+		if (input == null)
+			throw new JournalException("Internal error: a result was collected without its test.");
+
+		try
+		{
+			out.writeInt(input.p());
+			out.writeInt(input.m());
+			result.write(out);
+			if (System.nanoTime() - flushed > FLUSH_INTERVAL)
+				sync();
+		}
+		catch (IOException e)
+		{
+			throw new JournalException("ERROR: the journal can't be written (" + e.getMessage() + ").");
+		}
+
+		return results.add(result);
+	}
+
+	/**
+		Flushes the journal and synchronises it with the disk.
+
+		@throws IOException if the journal can't be written
+	*/
+	private void sync() throws IOException
+	{
+		out.flush();
+		file.getFD().sync();
+		flushed = System.nanoTime();
+	}
+
+	/**
+		Flushes and closes the journal.
+
+		@throws IOException if the journal can't be written
+	*/
+	public void close() throws IOException
+	{
+		try
+		{
+			sync();
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+		Merges the results of the tests completed before resuming
+		with the ones of the remaining tests, in the order of the tests.
+
+		The results of the completed tests are read from the journal
+		one at a time. When the spill option is set, the results are 
+		appended to a run file as they are merged.
+
+		@precondition the journal should have been closed
+		@param inputs the tests, as they are generated
+		@param fresh the results of the remaining tests, in order
+		@return the results of all the tests
+		@throws IOException if the journal can't be read or the run file can't be written
+		@see com.github.alesssia.poppante.ResultSpill
+	*/
+	public Collection<Result> merge(Iterator<InputTest> inputs, Collection<Result> fresh) throws IOException
+	{
+		Collection<Result> merged = Constants.spill ? new ResultSpill() : new Vector<Result>();
+
+		Iterator<Result> others = fresh.iterator();
+		try (RandomAccessFile raf = new RandomAccessFile(name, "r"))
+		{
+			while (inputs.hasNext())
+			{
+				InputTest input = inputs.next();
+				int k = Arrays.binarySearch(completed, key(input.p(), input.m()));
+				if (k < 0)
+				{
+					merged.add(others.next());
+					continue;
+				}
+
+				byte[] bytes = new byte[lengths[k]];
+				raf.seek(offsets[k]);
+				raf.readFully(bytes);
+				merged.add(Result.read(new DataInputStream(new ByteArrayInputStream(bytes))));
+			}
+		}
+		assert !others.hasNext() : "Internal error: a result was collected for a test that was completed.";
+
+		completed = new long[0];
+		offsets = new long[0];
+		lengths = new int[0];
+		return merged;
+	}
+
+	@Override
+	public Iterator<Result> iterator()
+	{
+		return results.iterator();
+	}
+
+	@Override
+	public int size()
+	{
+		return results.size();
+	}
+
+	/**
+		Computes the fingerprint of an analysis, from the data
+		and the options that affect the results.
+
+		@param data the data analysed
+		@return the fingerprint
+		@see com.github.alesssia.poppante.Snapshot#fingerprint()
+	*/
+	private static long fingerprint(Snapshot data)
+	{
+		long h = data.fingerprint();
+
+		for (Field field : Constants.class.getFields())
+		{
+			if (!Modifier.isStatic(field.getModifiers()) || NEUTRAL.contains(field.getName()))
+				continue;
+
+			Object value;
+			try
+			{
+				value = field.get(null);
+			}
+			catch (IllegalAccessException e)
+			{
+				continue;
+			}
+
+			String s = (value instanceof Object[]) ? Arrays.toString((Object[]) value) : String.valueOf(value);
+			h = 31 * h + field.getName().hashCode();
+			h = 31 * h + s.hashCode();
+		}
+
+		return h;
+	}
+
+	/**
+		Input stream counting the bytes read, so that the
+		truncated result at the end of the journal is found.
+	*/
+	private static class CountingInputStream extends FilterInputStream
+	{
+		/** The bytes read */
+		private long count;
+
+		/**
+			Constructor.
+
+			@param in the stream to count
+		*/
+		CountingInputStream(InputStream in)
+		{
+			super(in);
+			count = 0;
+		}
+
+		/**
+			Returns the number of bytes read.
+
+			@return the number of bytes
+		*/
+		long count()
+		{
+			return count;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if (b >= 0)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
+
+
+/**
+	Runtime exception.
+
+	Raised when the journal can't be read or written.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+ */
+class JournalException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+	/**
+		Constructor.
+
+		Initialises the exception message.
+
+		@param msg the exception message
+	*/
+	public JournalException(String msg)
+	{
+		super(msg);
+	}
+}
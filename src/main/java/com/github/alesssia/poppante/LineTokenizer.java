@@ -0,0 +1,494 @@
+/*
+ * 	 LineTokenizer.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+	Reads a text file one line at a time, splitting each line
+	in fields separated by whitespaces.
+
+	The file is read through a large buffer, that grows to hold
+	the longest line, and the fields are located by their offsets
+	in the buffer: they are converted to strings only when asked
+	for, while numbers and missing values are parsed straight from
+	the bytes.
+
+	Lines and fields are the same of RandomAccessFile.readLine()
+	followed by String.split("\\s+") (or by String.trim().split("\\s+")
+	when the lines are trimmed), and numbers are parsed as by
+	Double.parseDouble(), so that the readers behave as before.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.MyFileReader
+*/
+
+class LineTokenizer implements Closeable
+{
+	/** The initial size of the buffer */
+	private static final int BUFFER_SIZE = 1 << 20;
+	/** The largest number of digits parsed without Double.parseDouble() */
+	private static final int MAX_DIGITS = 15;
+	/** The powers of ten that are exactly represented */
+	private static final double[] POWERS = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	/** The strings representing missing values, as bytes */
+	private static final byte[][] MISSING;
+	static
+	{
+		MISSING = new byte[Utilities.MISSING_VALUES.size()][];
+		for (int i = 0; i < MISSING.length; i++)
+			MISSING[i] = Utilities.MISSING_VALUES.get(i).getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/** The file */
+	private final FileChannel channel;
+	/** Whether the lines are trimmed before being split */
+	private final boolean trim;
+	/** The offset where the lines are no longer read */
+	private final long to;
+	/** The offset in the file of the beginning of the buffer */
+	private long base;
+	/** The buffer */
+	private byte[] buffer;
+	/** The end of the bytes read in the buffer */
+	private int limit;
+	/** The beginning of the next line in the buffer */
+	private int next;
+	/** Whether the whole file has been read */
+	private boolean eof;
+	/** The number of the current line, from 1 */
+	private int line;
+	/** The beginning of each field of the current line */
+	private int[] starts;
+	/** The end of each field of the current line */
+	private int[] ends;
+	/** The number of fields of the current line */
+	private int fields;
+
+	/**
+		Constructor.
+
+		Opens the file.
+
+		@param file the file path
+		@param trim whether the lines are trimmed before being split
+		@throws IOException if the file can't be opened
+	*/
+	public LineTokenizer(String file, boolean trim) throws IOException
+	{
+		this(file, trim, 0, Long.MAX_VALUE);
+	}
+
+	/**
+		Constructor.
+
+		Opens the file, to read only the lines starting in the
+		given range of bytes.
+
+		@param file the file path
+		@param trim whether the lines are trimmed before being split
+		@param from the offset of the first line, that should be the beginning of a line
+		@param to the offset where the lines are no longer read
+		@throws IOException if the file can't be opened
+		@see com.github.alesssia.poppante.LineTokenizer#chunks(String, int)
+	*/
+	public LineTokenizer(String file, boolean trim, long from, long to) throws IOException
+	{
+		channel = new FileInputStream(file).getChannel();
+		channel.position(from);
+		this.trim = trim;
+		this.to = to;
+		base = from;
+		buffer = new byte[BUFFER_SIZE];
+		limit = 0;
+		next = 0;
+		eof = false;
+		line = 0;
+		starts = new int[16];
+		ends = new int[16];
+		fields = 0;
+	}
+
+	/**
+		Reads the next line and splits it in fields.
+
+		Lines are terminated by '\n', '\r', or "\r\n".
+
+		@return true if a line has been read, false at the end of the file
+		@throws IOException if the file can't be read
+	*/
+	public boolean next() throws IOException
+	{
+		if (base + next >= to)
+			return false;
+		
+		//finds the end of the line, reading more of the file if needed
+		int end = next;
+		while (true)
+		{
+			while (end < limit && buffer[end] != '\n' && buffer[end] != '\r')
+				end++;
+			//a '\r' may be followed by a '\n' that is not read yet
+			if (end < limit && (buffer[end] == '\n' || end + 1 < limit || eof))
+				break;
+			if (eof)
+			{
+				if (next == limit)
+					return false;
+				break;
+			}
+			
+			int offset = end - next;
+			fill();
+			end = next + offset;
+		}
+
+		int start = next;
+		next = end;
+		if (end < limit)
+		{
+			next++;
+			if (buffer[end] == '\r' && next < limit && buffer[next] == '\n')
+				next++;
+		}
+		line++;
+
+		split(start, end);
+		return true;
+	}
+
+	/**
+		Moves the bytes not read yet to the beginning of the buffer,
+		growing it if it is full, and reads more of the file.
+
+		@throws IOException if the file can't be read
+	*/
+	private void fill() throws IOException
+	{
+		if (next > 0)
+		{
+			System.arraycopy(buffer, next, buffer, 0, limit - next);
+			base += next;
+			limit -= next;
+			next = 0;
+		}
+		if (limit == buffer.length)
+		{
+			byte[] larger = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, larger, 0, limit);
+			buffer = larger;
+		}
+
+		ByteBuffer window = ByteBuffer.wrap(buffer, limit, buffer.length - limit);
+		int n = channel.read(window);
+		if (n < 0)
+			eof = true;
+		else
+			limit += n;
+	}
+
+	/**
+		Splits the line in fields.
+
+		As String.split("\\s+"), an empty line has a single empty field,
+		a line made of whitespaces has no field, and a line starting
+		with a whitespace has an empty first field.
+
+		@param start the beginning of the line
+		@param end the end of the line
+	*/
+	private void split(int start, int end)
+	{
+		fields = 0;
+		if (trim)
+		{
+			while (start < end && (buffer[start] & 0xFF) <= ' ')
+				start++;
+			while (end > start && (buffer[end - 1] & 0xFF) <= ' ')
+				end--;
+		}
+
+		if (start == end)
+		{
+			add(start, end);
+			return;
+		}
+
+		int i = start;
+		if (isWhitespace(buffer[i]))
+		{
+			add(start, start);
+			while (i < end && isWhitespace(buffer[i]))
+				i++;
+		}
+		while (i < end)
+		{
+			int s = i;
+			while (i < end && !isWhitespace(buffer[i]))
+				i++;
+			add(s, i);
+			while (i < end && isWhitespace(buffer[i]))
+				i++;
+		}
+
+		//trailing empty fields are removed
+		if (fields == 1 && starts[0] == ends[0])
+			fields = 0;
+	}
+
+	/**
+		Adds a field to the current line.
+
+		@param start the beginning of the field
+		@param end the end of the field
+	*/
+	private void add(int start, int end)
+	{
+		if (fields == starts.length)
+		{
+			int[] s = new int[fields * 2];
+			int[] e = new int[fields * 2];
+			System.arraycopy(starts, 0, s, 0, fields);
+			System.arraycopy(ends, 0, e, 0, fields);
+			starts = s;
+			ends = e;
+		}
+		starts[fields] = start;
+		ends[fields] = end;
+		fields++;
+	}
+
+	/**
+		Returns whether a byte is a whitespace, as matched by \s.
+
+		@param b the byte
+		@return true if it is a whitespace, false otherwise
+	*/
+	private static boolean isWhitespace(byte b)
+	{
+		return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+	}
+
+	/**
+		Splits a file in chunks of (roughly) the same size, that
+		begin at the beginning of a line, so that they can be read
+		at the same time.
+
+		Each chunk but the first begins after a '\n', thus a file whose
+		lines are terminated by '\r' only is read as a single chunk.
+
+		@param file the file path
+		@param n the number of chunks
+		@return the offsets of the beginning of the chunks, followed by the size of the file
+		@throws IOException if the file can't be read
+	*/
+	public static long[] chunks(String file, int n) throws IOException
+	{
+		try (FileChannel channel = new FileInputStream(file).getChannel())
+		{
+			long size = channel.size();
+			long[] bounds = new long[n + 1];
+			bounds[n] = size;
+			ByteBuffer window = ByteBuffer.allocate(1 << 16);
+			for (int k = 1; k < n; k++)
+			{
+				//looks for the first '\n' from the byte before the guess
+				long position = Math.max(bounds[k - 1], k * (size / n) - 1);
+				bounds[k] = size;
+				boolean found = false;
+				while (!found && position < size)
+				{
+					window.clear();
+					int read = channel.read(window, position);
+					if (read <= 0)
+						break;
+					for (int i = 0; i < read && !found; i++)
+						if (window.get(i) == '\n')
+						{
+							bounds[k] = position + i + 1;
+							found = true;
+						}
+					position += read;
+				}
+			}
+
+			return bounds;
+		}
+	}
+
+	/**
+		Returns the number of the current line.
+
+		@return the number of the line, from 1 (in the chunk when a range is read)
+	*/
+	public int line()
+	{
+		return line;
+	}
+
+	/**
+		Returns the number of fields of the current line.
+
+		@return the number of fields
+	*/
+	public int fields()
+	{
+		return fields;
+	}
+
+	/**
+		Returns the i-th field of the current line.
+
+		@param i the position of the field
+		@return the field
+	*/
+	public String field(int i)
+	{
+		return new String(buffer, starts[i], ends[i] - starts[i], StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+		Returns whether the i-th field of the current line is
+		equal to the given string (made of ASCII characters).
+
+		@param i the position of the field
+		@param s the string
+		@return true if they are equal, false otherwise
+	*/
+	public boolean equals(int i, String s)
+	{
+		int length = ends[i] - starts[i];
+		if (length != s.length())
+			return false;
+		for (int k = 0; k < length; k++)
+			if (buffer[starts[i] + k] != s.charAt(k))
+				return false;
+		return true;
+	}
+
+	/**
+		Returns whether the i-th field of the current line
+		represents a missing value.
+
+		@param i the position of the field
+		@return true if it is a missing value, false otherwise
+		@see com.github.alesssia.poppante.Utilities#isMissing(String)
+	*/
+	public boolean isMissing(int i)
+	{
+		int length = ends[i] - starts[i];
+		for (byte[] missing : MISSING)
+		{
+			if (missing.length != length)
+				continue;
+			int k = 0;
+			while (k < length && buffer[starts[i] + k] == missing[k])
+				k++;
+			if (k == length)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+		Parses the i-th field of the current line as a double.
+
+		Decimal numbers with at most MAX_DIGITS digits and a small
+		exponent are parsed from the bytes, since both their digits
+		and the power of ten are exactly represented, and a single
+		(correctly rounded) product or division gives the same value
+		of Double.parseDouble(). The other fields are parsed by
+		Double.parseDouble().
+
+		@param i the position of the field
+		@return the value
+		@throws NumberFormatException if the field is not a number
+	*/
+	public double number(int i) throws NumberFormatException
+	{
+		int k = starts[i];
+		int end = ends[i];
+
+		boolean negative = false;
+		if (k < end && (buffer[k] == '-' || buffer[k] == '+'))
+			negative = buffer[k++] == '-';
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean found = false;
+		while (k < end && buffer[k] >= '0' && buffer[k] <= '9')
+		{
+			mantissa = 10 * mantissa + (buffer[k++] - '0');
+			if (mantissa > 0)
+				digits++;
+			found = true;
+		}
+		if (k < end && buffer[k] == '.')
+		{
+			k++;
+			while (k < end && buffer[k] >= '0' && buffer[k] <= '9')
+			{
+				mantissa = 10 * mantissa + (buffer[k++] - '0');
+				if (mantissa > 0)
+					digits++;
+				exponent--;
+				found = true;
+			}
+		}
+		if (found && k < end && (buffer[k] == 'e' || buffer[k] == 'E'))
+		{
+			k++;
+			boolean negativeExponent = false;
+			if (k < end && (buffer[k] == '-' || buffer[k] == '+'))
+				negativeExponent = buffer[k++] == '-';
+			int e = 0;
+			found = false;
+			while (k < end && buffer[k] >= '0' && buffer[k] <= '9' && e < 1000)
+			{
+				e = 10 * e + (buffer[k++] - '0');
+				found = true;
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+
+		if (!found || k != end || digits > MAX_DIGITS || exponent < -22 || exponent > 22)
+			return Double.parseDouble(field(i));
+
+		double value = (exponent >= 0) ? mantissa * POWERS[exponent] : mantissa / POWERS[-exponent];
+		return negative ? -value : value;
+	}
+
+	/**
+		Closes the file.
+
+		@throws IOException if the file can't be closed
+	*/
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
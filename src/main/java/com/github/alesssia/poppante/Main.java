@@ -84,6 +84,119 @@ public class Main
 	}
 	
 
+	/**
+		Corrects the p-values for multiple comparisons, plots the 
+		Manhattan and Q-Q plots, if required, and writes the results
+		on the output file (or on the standard output).
+		
+		@param res the results, in the order they should be written
+		@param methFields the number of fields of the map file
+		@param stopwatch the stopwatch
+		@throws Exception if the results can't be corrected or written
+		@see com.github.alesssia.poppante.ResultTable
+	*/
+	private static void write(Collection<Result> res, int methFields, Stopwatch stopwatch) throws Exception
+	{
+	   //  _____          _                                            _
+	   // |  __ \        | |                                          (_)
+	   // | |__) |__  ___| |_ ______ _ __  _ __ ___   ___ ___  ___ ___ _ _ __   __ _
+	   // |  ___/ _ \/ __| __|______| '_ \| '__/ _ \ / __/ _ \/ __/ __| | '_ \ / _` |
+	   // | |  | (_) \__ \ |_       | |_) | | | (_) | (_|  __/\__ \__ \ | | | | (_| |
+	   // |_|   \___/|___/\__|      | .__/|_|  \___/ \___\___||___/___/_|_| |_|\__, |
+	   //                           | |                                         __/ |
+	   //                           |_|                                        |___/
+		
+		//does FDR correction and plots manhattan and qqplot
+		if (Constants.verbose)
+			System.out.println("Correcting for multiple comparisons...");
+		
+		String plotNames = "";
+		
+		stopwatch.reset();
+		stopwatch.start();
+		ResultTable rt = new ResultTable(res, false);
+		rt.adjustPvalues();
+		
+		if (Constants.plot)
+		{
+			plotNames += rt.qqplot(false) + "\n";
+			plotNames += "\t\t\t" + rt.manhattan(false) + "\n";
+		}
+		
+		//empirical p-values are corrcted and plotted only if necessary
+		ResultTable ert = null;
+		if (Constants.alpha != Utilities.INVALID_D)
+		{
+			ert = new ResultTable(res, true);
+			ert.adjustPvalues();
+			if (Constants.plot)
+			{
+				plotNames += "\t\t\t" + ert.qqplot(true) + "\n";
+				plotNames += "\t\t\t" + ert.manhattan(true) + "\n";
+			}
+		}
+		stopwatch.stop();
+		
+		if (Constants.verbose)
+		{
+			System.out.println("Correction performed in " + stopwatch.getTime() + ".") ;
+			if (Constants.plot)
+				System.out.println("\nPlots saved as\t" + plotNames + ".") ;
+		}
+		
+		
+	   //  _____        _                        _ _   _
+	   // |  __ \      | |                      (_) | (_)
+	   // | |  | | __ _| |_ __ _  __      ___ __ _| |_ _ _ __   __ _
+	   // | |  | |/ _` | __/ _` | \ \ /\ / / '__| | __| | '_ \ / _` |
+	   // | |__| | (_| | || (_| |  \ V  V /| |  | | |_| | | | | (_| |
+	   // |_____/ \__,_|\__\__,_|   \_/\_/ |_|  |_|\__|_|_| |_|\__, |
+	   //                                                       __/ |
+	   //                                                      |___/
+		
+		//prints results
+		if (Constants.verbose)
+			System.out.println("Writing results...");
+		
+		if (Constants.output != null)
+			System.setOut(new PrintStream(new FileOutputStream(new File(Constants.output + ".tsv"))));
+		else
+			System.out.println();
+	
+		if (Constants.header)
+			System.out.println(Result.header(methFields));
+		
+		stopwatch.reset();
+		stopwatch.start();
+		//the adjusted p-values are set while the results are written,
+		//since these may be read again from the run file
+		int i = 0;
+		for (Result r : res)
+		{
+			r.setAdjPvalue(rt.adjPvalue(i));
+			if (ert != null)
+				r.setAdjePvalue(ert.adjPvalue(i));
+			System.out.println(r);
+			i++;
+		}
+		stopwatch.stop();
+	
+		if (Constants.output != null)
+		{
+			System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.out)));
+			System.out.print("Results written in " + Constants.output + ".tsv");
+			if (Constants.verbose)
+				System.out.println(" in " + stopwatch.getTime());
+			else
+				System.out.println("\n");
+		}
+		else if (Constants.verbose)
+			System.out.println("\nResults written in " + stopwatch.getTime() + ".") ;
+		
+		if (Constants.verbose)
+			System.out.println("PopPAnTe ends.\n");	
+	}
+	
 	/**
 		PopPAnTe evaluates the heritability of DNA methylation]
 		sites and their association with phenotypic traits as 
@@ -134,9 +247,9 @@ public class Main
 				System.out.println(Constants.printConstants());
 				
 				//Prints suhhestions on how to preceed if the system does not converge
-				if (Constants.kinship != null && Constants.decomposition == null)
-					System.out.println("\n\tIn the unluckily case PopPAnTe raises exception during the\n\tvariant component evaluation please try with the option\n\t --decomposition LU or --decomposition QR\n");
-				else if (Constants.kinship != null && !Constants.decomposition.equals("QR"))
+				if (Constants.kinship != null && Constants.decomposition == null && Constants.bending)
+					System.out.println("\n\tIn the unluckily case PopPAnTe raises exception during the\n\tvariant component evaluation please try with the option\n\t --bending false, --decomposition LU or --decomposition QR\n");
+				else if (Constants.kinship != null && !"QR".equals(Constants.decomposition))
 					System.out.println("\n\tIn the unluckily case PopPAnTe raises exception during the\n\tvariant component evaluation please try with the option\n\t --decomposition QR\n");
 				
 				if (t.threads() > 1)
@@ -145,6 +258,23 @@ public class Main
 			}
 		
 						
+			//the partial results of the shards are merged and
+			//written as in a single run
+			if (Constants.mode == Utilities.MODE_MERGE)
+			{
+				if (Constants.verbose)
+					System.out.println("Merging the partial results of " + Constants.merge.length + " shards...\n");
+				
+				PartialResults partials = new PartialResults(Constants.merge);
+				Collection<Result> res = partials.merge();
+				stopwatch.stop();
+				if (Constants.verbose)
+					System.out.println(res.size() + " results merged in " + stopwatch.getTime() + ".\n");
+				
+				write(res, partials.methFields(), stopwatch);
+				return;
+			}
+			
 			//creating our workhorse and the file manager
 			DataManager datamanager = new DataManager();
 			MyFileReader filereader = new MyFileReader(datamanager);
@@ -298,7 +428,7 @@ public class Main
 				datamanager.adjustKinship();
 				filereader.readKinship();	
 				
-				if (Constants.decomposition == null)
+				if (Constants.decomposition == null && Constants.bending)
 					datamanager.bending();
 			}
 
@@ -313,13 +443,36 @@ public class Main
 			//dimension of the methylation array is set immedetialy after.
 			//Please note that the list of methylation sites to analyse may
 			//include also sites that are not in the dataset.
+			//When a cache of the methylation data is used, and it has 
+			//been written from the same files, sites, and individuals,
+			//the two files are not parsed at all. Otherwise, the cache 
+			//is written once the files are read, before any normalisation 
+			//or correction.
 			int numSites2analyse = 0;
 			if (Constants.include != null) 
 				numSites2analyse = filereader.readIncludedMeths();
-			int numSites = filereader.readMethylationInformation();
 			
-			datamanager.resetMethylations();
-			filereader.readMethylationData();	
+			DataCache cache = null;
+			boolean cached = false;
+			if (Constants.cache != null)
+			{
+				cache = new DataCache(Constants.cache, datamanager);
+				cached = cache.load();
+			}
+			
+			int numSites;
+			if (cached)
+				numSites = datamanager.listMeths().size();
+			else
+			{
+				numSites = filereader.readMethylationInformation();
+			
+				datamanager.resetMethylations();
+				filereader.readMethylationData();
+				
+				if (cache != null)
+					cache.write();
+			}
 			
 			//If the user provides also covariates for the correction
 			//of the methylation values, they must be read as well.
@@ -350,7 +503,10 @@ public class Main
 					 System.out.println("\t" + numPhenos2analyse + "\tresponses\thave been selected from [ " + Constants.filter + " ]");
 				if (Constants.include != null)
 					 System.out.println("\t" + numSites2analyse + "\tpredictors\thave been selected from [ " + Constants.include + " ]");
-				System.out.println("\t" + numSites + "\tpredictors\tloaded from [ " + Constants.predictor + " ]");
+				if (cached)
+					System.out.println("\t" + numSites + "\tpredictors\tloaded from [ " + Constants.cache + " ]");
+				else
+					System.out.println("\t" + numSites + "\tpredictors\tloaded from [ " + Constants.predictor + " ]");
 				
 		
 				if (Constants.covariate != null) 
@@ -470,117 +626,55 @@ public class Main
 			stopwatch.reset();
 			stopwatch.start();
 			
-			//I need to initialise the missingness pattern for both phenotypes
-			//and methylations. I need also to create an empty null model for each 
-			// phenotype. In fact each phenotype has is own missingness pattern
- 			//and some methylation sites may have it as well, and the same
- 			//null model can be used to assess multiple sites.
+			//I need to initialise the missingness pattern of the methylation sites.
+			//The people analysed for a phenotype only depend on the missingness 
+			//pattern of the methylation sites, and the same null model can be 
+			//used to assess all the sites having the same pattern.
 			//This is done to speed up the evaluation of the variance component
 			//system, because the null model will be common among these "datasets".
 			if (Constants.mode == Utilities.MODE_ASSOCIATION)
 			{
 				datamanager.setMissingnessMethPattern();
-				datamanager.setMissingnessPhenoPattern();
+				datamanager.resetMissingnessPhenoPattern();
 			}
 
 			
 			MyTest test = new MyTest(datamanager);
-			Vector<Result> res = test.analyse();
+			Collection<Result> res = test.analyse();
 			stopwatch.stop();
 		
-			if (Constants.verbose)
-				System.out.println("\n\nAnalysis ended.\n\t" + test.tests() + " tests performed in " + stopwatch.getTime() + ".\n") ;
-			
-					
-		   //  _____          _                                            _
-		   // |  __ \        | |                                          (_)
-		   // | |__) |__  ___| |_ ______ _ __  _ __ ___   ___ ___  ___ ___ _ _ __   __ _
-		   // |  ___/ _ \/ __| __|______| '_ \| '__/ _ \ / __/ _ \/ __/ __| | '_ \ / _` |
-		   // | |  | (_) \__ \ |_       | |_) | | | (_) | (_|  __/\__ \__ \ | | | | (_| |
-		   // |_|   \___/|___/\__|      | .__/|_|  \___/ \___\___||___/___/_|_| |_|\__, |
-		   //                           | |                                         __/ |
-		   //                           |_|                                        |___/
-			
-			//does FDR correction and plots manhattan and qqplot
-			if (Constants.verbose)
-				System.out.println("Correcting for multiple comparisons...");
-			
-			String plotNames = "";
-			
-			stopwatch.reset();
-			stopwatch.start();
-			ResultTable rt = new ResultTable(res, false);
-			rt.adjustPvalues(false);
-			
-			if (Constants.plot)
-			{
-				plotNames += rt.qqplot(false) + "\n";
-				plotNames += "\t\t\t" + rt.manhattan(false) + "\n";
-			}
-			
-			//empirical p-values are corrcted and plotted only if necessary
-			if (Constants.alpha != Utilities.INVALID_D)
-			{
-				rt = new ResultTable(res, true);
-				rt.adjustPvalues(true);
-				if (Constants.plot)
-				{
-					plotNames += "\t\t\t" + rt.qqplot(true) + "\n";
-					plotNames += "\t\t\t" + rt.manhattan(true) + "\n";
-				}
-			}
-			stopwatch.stop();
-			
 			if (Constants.verbose)
 			{
-				System.out.println("Correction performed in " + stopwatch.getTime() + ".") ;
-				if (Constants.plot)
-					System.out.println("\nPlots saved as\t" + plotNames + ".") ;
-			}
-			
-			
-		   //  _____        _                        _ _   _
-		   // |  __ \      | |                      (_) | (_)
-		   // | |  | | __ _| |_ __ _  __      ___ __ _| |_ _ _ __   __ _
-		   // | |  | |/ _` | __/ _` | \ \ /\ / / '__| | __| | '_ \ / _` |
-		   // | |__| | (_| | || (_| |  \ V  V /| |  | | |_| | | | | (_| |
-		   // |_____/ \__,_|\__\__,_|   \_/\_/ |_|  |_|\__|_|_| |_|\__, |
-		   //                                                       __/ |
-		   //                                                      |___/
-			
-			//prints results
-			if (Constants.verbose)
-				System.out.println("Writing results...");
-			
-			if (Constants.output != null)
-				System.setOut(new PrintStream(new FileOutputStream(new File(Constants.output + ".tsv"))));
-			else
+				System.out.println("\n\nAnalysis ended.\n\t" + test.tests() + " tests performed in " + stopwatch.getTime() + ".") ;
+				if (test.tests() > 0)
+					System.out.println("\tOn average, " + (test.evaluations() / test.tests()) + " likelihood evaluations and " + (test.iterations() / test.tests()) + " minimiser iterations per test.");
+				if (test.measured() > 0)
+					System.out.println("\tOn average, " + (test.allocated() / test.measured() / 1024) + " KB allocated per test fitting its full model.");
+				if (Constants.prescreen != Utilities.INVALID_D)
+					System.out.println("\t" + test.screened() + " tests were not refitted, since their score test p-value was above the prescreen threshold.");
+				if (Budget.isSet())
+					System.out.println("\t" + test.overruns() + " tests were stopped, since they exceeded their time or evaluation budget.");
+				if (Constants.resume)
+					System.out.println("\t" + test.resumed() + " tests were read from the journal, since they were completed before resuming.");
+				if (test.fallbacks() > 0)
+					System.out.println("\tThe Amoeba minimiser was used " + test.fallbacks() + " times, as the selected minimiser did not converge.");
+				if (test.tests() > 0)
+					System.out.println("\tAt most " + test.admission().peak() + " tests ran at the same time on " + new Thread().threads() + " threads, as " + test.admission().waits() + " tests waited for " + test.admission().capacity() + " MB of heap.");
+				if (test.tests() > 0)
+					System.out.println("\tThe threads were busy running the tests " + Math.round(100 * test.utilisation()) + "% of the time.");
 				System.out.println();
-		
-			if (Constants.header)
-				System.out.println(Result.header(datamanager.methFields()));
+			}
 			
-			stopwatch.reset();
-			stopwatch.start();
-			for (Enumeration<Result> elements = res.elements(); elements.hasMoreElements();)
-				System.out.println(elements.nextElement());
-			stopwatch.stop();
-		
-			if (Constants.output != null)
+			//each shard writes its partial results, that are 
+			//corrected only once merged
+			if (Constants.shard != null)
 			{
-				System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.out)));
-				System.out.print("Results written in " + Constants.output + ".tsv");
-				if (Constants.verbose)
-					System.out.println(" in " + stopwatch.getTime());
-				else
-					System.out.println("\n");
+				PartialResults.write(Constants.output + ".part", res, test.positions(), test.total(), datamanager.methFields());
+				System.out.println("Partial results of the shard " + Constants.shard + " written in " + Constants.output + ".part\n");
+				return;
 			}
-			else if (Constants.verbose)
-				System.out.println("\nResults written in " + stopwatch.getTime() + ".") ;
 			
-			if (Constants.verbose)
-				System.out.println("PopPAnTe ends.\n");	
-				
+			write(res, datamanager.methFields(), stopwatch);
 		} 
 		catch (Exception e)  //something bad happened
 		{
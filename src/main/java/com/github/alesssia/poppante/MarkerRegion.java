@@ -57,11 +57,11 @@ class MarkerRegion
 		@see com.github.alesssia.poppante.VC	
 		@see com.github.alesssia.poppante.Marker	
 	*/
-	public MarkerRegion(Vector<Integer> sites, double[][] methylations)
+	public MarkerRegion(Vector<Integer> sites, PredictorTable methylations)
 	{
-		data = new double[sites.size()][methylations[0].length];
+		data = new double[sites.size()][methylations.columns()];
 		for (int i=0; i<sites.size(); i++)
-			data[i] = Arrays.copyOf(methylations[sites.get(i)], methylations[sites.get(i)].length);		
+			data[i] = Arrays.copyOf(methylations.row(sites.get(i)), methylations.columns());		
 	}
 	
 	/**
@@ -0,0 +1,210 @@
+/*
+ * 	 ModelTemplate.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import com.github.alesssia.algebrautils.MyEigen;
+import java.util.BitSet;
+
+/**
+	Represents the part of the equations that depends only on the
+	analysable individuals, that is the kinship and the covariates 
+	of each analysable family. The other random effect, the identity,
+	is not stored: it is read from the workspace of the thread.
+
+	All the tests having the same analysable individuals share the
+	same template, and the equations read its matrices without
+	copying them, so that a test only fills its outcomes and its
+	predictor. The eigendecomposition of the kinship, used by the
+	spectral engine, is evaluated the first time it is requested
+	and then shared as well, and its values are added to those 
+	of the template in the cache.
+
+	The matrices are never modified once the template is built.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.Snapshot
+	@see com.github.alesssia.poppante.VC
+	@see com.github.alesssia.poppante.Normal
+*/
+
+final class ModelTemplate
+{
+	/** The kinship of the analysable members of each analysable family */
+	private final double[][][] kinships;
+	/** The covariates of the analysable members of each analysable
+		family, a row for each member */
+	private final double[][][] covariates;
+	/** The eigendecomposition of the kinship of each analysable family,
+		or null if not evaluated yet */
+	private final MyEigen[] spectra;
+	/** The snapshot of the data, whose cache stores the template */
+	private final Snapshot data;
+	/** The analysable individuals, that identify the template in the cache */
+	private final BitSet key;
+	/** The number of values stored, updated by the snapshot 
+		holding the monitor of its cache */
+	private long size;
+
+	/**
+		Constructor.
+
+		Extracts the kinship and the covariates of the analysable
+		individuals of each analysable family.
+
+		@param data the snapshot of the data
+		@param analysable the list of families to analyse
+	*/
+	public ModelTemplate(Snapshot data, Analysable analysable)
+	{
+		this.data = data;
+		key = analysable.individuals();
+		int n = analysable.numFamilies();
+		kinships = new double[n][][];
+		covariates = new double[n][][];
+		spectra = new MyEigen[n];
+
+		long values = 0;
+		for (int f=0; f<n; f++)
+		{
+			AnalysableFamily family = analysable.analysableFamiles(f);
+			int dim = family.numAnalysable();
+
+			//positions of the analysable members within the family
+			int[] members = new int[dim];
+			int l = 0;
+			for (int i=0; i<family.numMembers(); i++)
+				if (analysable.isAnalysable(family.startPos()+i))
+					members[l++] = i;
+
+			Kinship kinship = data.kinship(family.family());
+			kinships[f] = new double[dim][dim];
+			for (int i=0; i<dim; i++)
+			{
+				for (int j=i; j<dim; j++)
+				{
+					double value = kinship.getValue(members[i], members[j]);
+					kinships[f][i][j] = value;
+					kinships[f][j][i] = value;
+				}
+			}
+
+			covariates[f] = new double[dim][data.numCovar()];
+			for (int i=0; i<dim; i++)
+				for (int c=0; c<data.numCovar(); c++)
+					covariates[f][i][c] = data.covariates()[c][family.startPos()+members[i]];
+
+			values += (long)dim * dim + (long)dim * data.numCovar();
+		}
+		size = values;
+	}
+
+	/**
+		Returns the number of values stored, used to bound
+		the memory taken by the templates.
+
+		@return the number of values
+	*/
+	public long size()
+	{
+		return size;
+	}
+
+	/**
+		Adds to the number of values stored.
+
+		@param values the number of values added
+		@see com.github.alesssia.poppante.Snapshot
+	*/
+	public void grow(long values)
+	{
+		size += values;
+	}
+
+	/**
+		Returns the analysable individuals of the template.
+
+		@return the analysable individuals
+	*/
+	public BitSet key()
+	{
+		return key;
+	}
+
+	/**
+		Returns the random effects of the f-th analysable family,
+		that is the identity followed by the kinship.
+		
+		The identity is the one of the workspace of the thread, 
+		and it must not be modified.
+
+		@param f the position of the analysable family
+		@param vc the number of random effects
+		@return the random effects
+	*/
+	public double[][][] varComponents(int f, int vc)
+	{
+		assert vc == 1 || vc == 2 : "Internal error: the templates provide only the identity and the kinship.";
+
+		double[][] identity = Workspace.current().identity(kinships[f].length);
+		return (vc == 1) ? new double[][][] {identity} : new double[][][] {identity, kinships[f]};
+	}
+
+	/**
+		Returns the covariates of the f-th analysable family.
+
+		@param f the position of the analysable family
+		@return the covariates, a row for each analysable member
+	*/
+	public double[][] covariates(int f)
+	{
+		return covariates[f];
+	}
+
+	/**
+		Returns the eigendecomposition of the kinship of the f-th
+		analysable family.
+
+		It is evaluated the first time it is requested, and
+		its eigenvalues and eigenvectors are added to the values
+		stored.
+
+		@param f the position of the analysable family
+		@return the eigendecomposition of the kinship
+	*/
+	public MyEigen spectrum(int f)
+	{
+		MyEigen spectrum;
+		synchronized (this)
+		{
+			if (spectra[f] != null)
+				return spectra[f];
+
+			spectrum = new MyEigen(kinships[f]);
+			spectra[f] = spectrum;
+		}
+
+		//outside the monitor, as the cache reads the size holding its own
+		long dim = kinships[f].length;
+		data.growTemplate(this, dim * dim + dim);
+		return spectrum;
+	}
+}
@@ -21,12 +21,17 @@
 package com.github.alesssia.poppante;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 
 /**
 	Reads the information from the input files.
 
+	The files are read by a LineTokenizer, that splits the lines
+	in fields and parses the values without creating a string
+	for each of them.
+
 	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
 	@version     1.0  
 */
@@ -36,12 +41,18 @@ class MyFileReader
 	/** This is where the data are stored */
 	private DataManager datamanager;
 	
-	/** Position of the methylation sites whose value should
-		be read. */
-	private Vector<Integer> position2Read;
-	/** Position of the phenotypes whose value should
-		be read. */
-	private Vector<Integer> position2ReadP;
+	/** Columns of the methylation sites whose value should
+		be read, sorted: the value in the k-th column is stored
+		as the one of the k-th methylation site. */
+	private int[] position2Read;
+	/** Columns of the phenotypes whose value should be read, 
+		sorted: the value in the k-th column is stored as the 
+		one of the k-th phenotype. */
+	private int[] position2ReadP;
+	
+	/** The number of chunks of the methylation value data
+		parsed by each thread */
+	private static final int CHUNKS = 4;
 	
 	/** Total number of methylation sites that should be
 		recorded in the METH file */
@@ -61,8 +72,8 @@ class MyFileReader
 	public MyFileReader(DataManager dm)
 	{
 		datamanager = dm;
-		position2Read = new Vector<>();
-		position2ReadP = new Vector<>();
+		position2Read = null;
+		position2ReadP = null;
 		totMethSite = Utilities.INVALID_I;
 		totPhenos = Utilities.INVALID_I;
 	}
@@ -97,14 +108,12 @@ class MyFileReader
 		if (Constants.kinship != null)
 			datamanager.families().put(Utilities.INVALID_S, new Family(Utilities.INVALID_S));
 
-		try 
+		try (LineTokenizer file = new LineTokenizer(Constants.ped, false))
 		{	
-			RandomAccessFile file = new RandomAccessFile(Constants.ped, "r");
-			String s;
-			while ((s = file.readLine()) != null) 
+			while (file.next()) 
 			{
 				people++;
-				Person person = readIndividual(s, people);
+				Person person = readIndividual(file, people);
 	
 				//assign the person to her own family
 				if (Constants.kinship == null)
@@ -154,14 +163,15 @@ class MyFileReader
 		@precondition the datamanager object should know the number of phenotypes
 		to be read when the mode is not PED CHECK
 	
-		@param s the string codifying a person
-		@param counter the position of the string in the file
+		@param info the line codifying a person, split in fields
+		@param counter the position of the line in the file
 		@return the new Person	
 		@throws NotWellFormedLineException if the file has a line that is not well-formed
 		@see com.github.alesssia.poppante.Person
+		@see com.github.alesssia.poppante.LineTokenizer
 		@see com.github.alesssia.poppante.Utilities.MISSING_VALUES
 	*/
-	private Person readIndividual(String s, int counter) throws NotWellFormedLineException
+	private Person readIndividual(LineTokenizer info, int counter) throws NotWellFormedLineException
 	{
 		int INFO_SIZE = 7;	
 		String famID, id, fatherId, motherId;
@@ -171,20 +181,18 @@ class MyFileReader
 		
 		try 
 		{
-			String[] info = s.split("\\s+");
-			
 			//the line is not valid: some information is missing
-			if (info.length < INFO_SIZE) //affections and twins aren't int!
+			if (info.fields() < INFO_SIZE) //affections and twins aren't int!
 				throw new NotWellFormedLineException("Not well-formed PED file at line " + counter);
 			
 			//when no value is specified a missing value is used
 			sex = 0;
 			//Lets check and transforms some values.
-			if (info[4].equals("1") || info[4].equals("M"))
+			if (info.equals(4, "1") || info.equals(4, "M"))
 				sex = 1;
-			else if (info[4].equals("2") || info[4].equals("F"))
+			else if (info.equals(4, "2") || info.equals(4, "F"))
 				sex = 2;
-			else if (info[4].equals("0") || Utilities.isMissing(info[4]))
+			else if (info.equals(4, "0") || info.isMissing(4))
 				sex = 0;
 			//This error is reported only if the PED CHECK mode is selected,
 			//because it is not used into the analysis
@@ -194,11 +202,11 @@ class MyFileReader
 			//Affection is used for case/control studies.
 			//It must be [0,1]. Missing values are not modified
 			affection = Utilities.MISSING;
-			if (info[5].equals("0"))
+			if (info.equals(5, "0"))
 				affection = 0;
-			else if (info[5].equals("1"))
+			else if (info.equals(5, "1"))
 				affection = 1;
-			else if (info[5].equals("-9"))
+			else if (info.equals(5, "-9"))
 				isMock = true;
 			
 			//This error is reported only if the PED CHECK mode is selected,
@@ -207,55 +215,41 @@ class MyFileReader
 				throw new NotWellFormedLineException("Affection information is not valid at line " + counter);
 			
 			
-			if (info[6].equals("1") || info[6].equals("MZ"))
+			if (info.equals(6, "1") || info.equals(6, "MZ"))
 				twin = 1;
-			else if (info[6].equals("2") || info[6].equals("DZ"))
+			else if (info.equals(6, "2") || info.equals(6, "DZ"))
 				twin = 2;
-			else if (info[6].equals("0"))
+			else if (info.equals(6, "0"))
 				twin = 0;
 			else
 				throw new NotWellFormedLineException("Twin information is not valid at line " + counter);
                         
 			//real IDs are read, they will be changed afterwards if necessary
-			famID 	 = info[0]; 
-			id 		 = info[1];
-			fatherId = info[2]; 
-			motherId = info[3]; 
+			famID 	 = info.field(0); 
+			id 		 = info.field(1);
+			fatherId = info.field(2); 
+			motherId = info.field(3); 
 			
 			
 			//phenotype values are loaded only if the analysis mode is Association
 			if (Constants.mode == Utilities.MODE_ASSOCIATION)
 			{
-				if (info.length != INFO_SIZE + totPhenos)
+				if (info.fields() != INFO_SIZE + totPhenos)
 					throw new NotWellFormedLineException("The number of response variables does not match the expected value at line " + counter);
 			
 				//Continue t parsing,otherwise
-				int skippedPheno = 0;
-				for(int i=INFO_SIZE; i<info.length; i++) 
+				//only the included columns are read, while the others 
+				//are skipped without parsing them
+				for(int phenoPosition=0; phenoPosition<position2ReadP.length; phenoPosition++) 
 				{
-					int phenoPosition = i-INFO_SIZE;
-					
-					//if this position is not in the list of included
-					//position is not read
-					if (!position2ReadP.contains(phenoPosition))
-					{
-						skippedPheno++;
-						continue;
-					}
-					
-					//since not all the position are read, I can't simply use:
-					//	int methPosition = i-INFO_SIZE;
-					//to identify the position of the methylation value in the methylation
-					//matrix, but I also need to remove those that have been skipped.
-					phenoPosition -= skippedPheno;
+					int i = INFO_SIZE + position2ReadP[phenoPosition];
 															
-					String phenotype = info[i];
 					try 
 					{
-						if (Utilities.isMissing(phenotype)) 
+						if (info.isMissing(i)) 
 							phenotypes[phenoPosition] = Utilities.INVALID_D;
 						else
-							phenotypes[phenoPosition] = Double.parseDouble(phenotype); 
+							phenotypes[phenoPosition] = info.number(i); 
 					} 
 					catch (Exception exc) 
 					{
@@ -301,44 +295,42 @@ class MyFileReader
 	{
 		//vector of the position to read, according to the list of sites to
 		//include in the analysis
-		try 
+		try (LineTokenizer info = new LineTokenizer(Constants.map, false))
 		{
-			RandomAccessFile file = new RandomAccessFile(Constants.map, "r");
-
 			totMethSite = 0;
 			
-			String s = file.readLine();
-			String[] info = s.split("\\s+");
+			if (!info.next())
+				throw new IOException("Empty MAP file");
 			
 			//The first line decided whether the information includes
 			//only the name or name and position
-			int INFO_SIZE = (info.length >= 3) ? 3 : 1;
+			int INFO_SIZE = (info.fields() >= 3) ? 3 : 1;
 			datamanager.setMethFields(INFO_SIZE);
 			
+			HashSet<String> included = new HashSet<>(datamanager.includedMeth());
+			Vector<Integer> columns = new Vector<>();
 			do
 			{	
 				totMethSite++;
-				info = s.split("\\s+");
 				
 				//If we are supposed to use only the name but some marker 
 				//has also position is fine, otherwise it will throw an excpetion             
-				if (info.length < INFO_SIZE)
+				if (info.fields() < INFO_SIZE)
 					throw new NotWellFormedLineException("ERROR: line " + totMethSite + " is not a valid predictor description: it should include " + INFO_SIZE + "columns. Please check your MAP file");		
 				//it is loaded only if the used asked for it to be analysed
-				else if (Constants.include == null || datamanager.includedMeth().contains(info[0]))
+				else if (Constants.include == null || included.contains(info.field(0)))
 				{
 					//totMethSite counts the lines, that starts from 1, but the 
 					//positions starts from 0 
-					position2Read.add((totMethSite-1));
+					columns.add((totMethSite-1));
 					if(INFO_SIZE == 3)
-						datamanager.listMeths().add(new Marker(info[0], info[1], Integer.parseInt(info[2])));
+						datamanager.listMeths().add(new Marker(info.field(0), info.field(1), Integer.parseInt(info.field(2))));
 					else 
-						datamanager.listMeths().add(new Marker(info[0]));
+						datamanager.listMeths().add(new Marker(info.field(0)));
 				}
-			} while ((s = file.readLine()) != null);
+			} while (info.next());
+			position2Read = project(columns);
 
-			file.close();
-			
 			return datamanager.listMeths().size();	
 		}
 		catch (NumberFormatException e)
@@ -372,32 +364,31 @@ class MyFileReader
 	*/
 	public int readPhenotypesInformation() throws IOException, NotWellFormedLineException
 	{
-		try 
+		try (LineTokenizer info = new LineTokenizer(Constants.response, false))
 		{
-			RandomAccessFile file = new RandomAccessFile(Constants.response, "r");
 			totPhenos = 0;
 			
-			String s = file.readLine();
-			String[] info = s.split("\\s+");
-						
+			if (!info.next())
+				throw new IOException("Empty RESPONSE file");
+			
+			HashSet<String> included = new HashSet<>(datamanager.includedPheno());
+			Vector<Integer> columns = new Vector<>();
 			do
 			{	
 				totPhenos++;
-				info = s.split("\\s+");
-				if (info.length < 1)
+				if (info.fields() < 1)
 					throw new NotWellFormedLineException("ERROR: line " + totPhenos + " does not describe a valid response variables. Please check your RESPONSE file");
 				
 				//it is loaded only if the used asked for it to be analysed
-				else if (Constants.filter == null || datamanager.includedPheno().contains(info[0]))
+				else if (Constants.filter == null || included.contains(info.field(0)))
 				{
 					//totPhenos counts the lines, that starts from 1, but the 
 					//positions starts from 0 
-					position2ReadP.add((totPhenos-1));
-					datamanager.phenotypeNames().add(new Phenotype(info[0]));
+					columns.add((totPhenos-1));
+					datamanager.phenotypeNames().add(new Phenotype(info.field(0)));
 				}
-			} while ((s = file.readLine()) != null);
-			
-			file.close();
+			} while (info.next());
+			position2ReadP = project(columns);
 			
 			return datamanager.phenotypeNames().size();	
 		} 
@@ -407,6 +398,22 @@ class MyFileReader
 		}		
 	}
 
+	/**
+		Compiles the columns to read in a projection, that lists
+		them in the order they are stored.
+		
+		@param columns the columns to read, sorted
+		@return the projection
+	*/
+	private static int[] project(Vector<Integer> columns)
+	{
+		int[] projection = new int[columns.size()];
+		for (int k=0; k<projection.length; k++)
+			projection[k] = columns.get(k);
+		
+		return projection;
+	}
+
 	/**
 		Reads the first line of the covariate file and sets the 
 		number of covariate in the datamanager object.
@@ -419,20 +426,16 @@ class MyFileReader
 	*/
 	public void setNumCovar() throws IOException, NotWellFormedLineException
 	{
-		try 
+		try (LineTokenizer info = new LineTokenizer(Constants.covariate, false))
 		{
-			RandomAccessFile file = new RandomAccessFile(Constants.covariate, "r");
 			int INFO_SIZE = 2;
-			String s = file.readLine();
-			file.close();
 			
-			if (s != null)
+			if (info.next())
 			{
-				String[] info = s.split("\\s+");
 				//family and individual IDs are mandatory, and at least a covariate should be available
-				if (info.length < INFO_SIZE) 
+				if (info.fields() < INFO_SIZE) 
 					throw new NotWellFormedLineException("ERROR: covariate file does not describe valid covariate values. Please check your COVARIATE file");
-				datamanager.setNumCovar(info.length - INFO_SIZE);
+				datamanager.setNumCovar(info.fields() - INFO_SIZE);
 			}
 			else
 				throw new NotWellFormedLineException("ERROR: covariate file does not describe a valid covariate values. Please check your COVARIATE file");
@@ -458,20 +461,16 @@ class MyFileReader
 	*/
 	public int getNumCorrectionCov() throws IOException, NotWellFormedLineException
 	{
-		try 
+		try (LineTokenizer info = new LineTokenizer(Constants.correct, false))
 		{
-			RandomAccessFile file = new RandomAccessFile(Constants.correct, "r");
 			int INFO_SIZE = 2;
-			String s = file.readLine();
-			file.close();
 			
-			if (s != null)
+			if (info.next())
 			{
-				String[] info = s.split("\\s+");
 				//family and individual IDs are mandatory, and at least a covariate should be available
-				if (info.length < INFO_SIZE) 
+				if (info.fields() < INFO_SIZE) 
 					throw new NotWellFormedLineException("ERROR: COVARIATE file does not describe valid covariate values for predictors correction. Please check your file");
-				return (info.length - INFO_SIZE);
+				return (info.fields() - INFO_SIZE);
 			}
 			else
 				throw new NotWellFormedLineException("ERROR: COVARIATE file does not describe valid covariate values for predictors correction. Please check your file");
@@ -505,34 +504,35 @@ class MyFileReader
 		assert datamanager.numFamilies() != 0 : "Internal error. No family loaded.";
 			
 		int counter = 0;
-		try 
+		try (LineTokenizer info = new LineTokenizer(Constants.covariate, false))
 		{
-			RandomAccessFile file = new RandomAccessFile(Constants.covariate, "r");
 			int INFO_SIZE = 2;
-			String s;
 	
-			while ((s = file.readLine()) != null) 
+			while (info.next()) 
 			{
 				counter++;
-				String[] info = s.split("\\s+");
 		
 				//family and individual IDs are mandatory, and at least a covariate should be available
-				if (info.length < INFO_SIZE) 
+				if (info.fields() < INFO_SIZE) 
 					throw new NotWellFormedLineException("ERROR: line " + counter + " does not describe a valid COVARIATE. Please check your COVARIATE file");
 			
 				//The check of the correct number of covariates is done only for
 				//individual for whom we have information in the PED file			
-				if (info.length - INFO_SIZE != datamanager.numCovar())
+				if (info.fields() - INFO_SIZE != datamanager.numCovar())
 					throw new NotWellFormedLineException("ERROR: line " + counter + " has an unexpected number of covariates.");
 					
 				//gets the correct IDs	
 				Family family;
+				String id;
 				if (Constants.kinship == null)
-					family = datamanager.families().get(info[0]);
+				{
+					family = datamanager.families().get(info.field(0));
+					id = info.field(1);
+				}
 				else
 				{
 					family = datamanager.families().get(Utilities.INVALID_S);
-					info[1] = new String(info[0] + "" + info[1]);
+					id = new String(info.field(0) + "" + info.field(1));
 				}
 			
 				//this family does not exist
@@ -540,33 +540,31 @@ class MyFileReader
 					continue;
 				
 				//this person does not exist
-				Person person = family.getMemberByID(info[1]);
+				Person person = family.getMemberByID(id);
 				if (person == null)
 					continue;
 								
 				//read the actual covariates and check whether there are missing 
 				//covariate values
 				double[] covariates = new double[datamanager.numCovar()];
-				for (int i=INFO_SIZE; i<info.length; i++)
+				for (int i=INFO_SIZE; i<info.fields(); i++)
 				{
 					int covPosition = i-INFO_SIZE;
 										
 					// if a covariate is missing the individual is set to have missing 
 					// covariates, the covariate read so far removed and the line parsing stopped
-					if (Utilities.isMissing(info[i]))
+					if (info.isMissing(i))
 					{
 						covariates = null;
 						break;
 					}
 					else 
-						covariates[covPosition] = Double.parseDouble(info[i]);
+						covariates[covPosition] = info.number(i);
 				}
 			
 				person.setCovariates(covariates);
 
 			}
-	
-			file.close();
 		}
 		catch (NumberFormatException e)
 		{
@@ -587,6 +585,17 @@ class MyFileReader
 		in the pedigree file the information is discarded.
 		A format problem is usually a not numeric values for one 
 		of the data.
+		
+		The file is split in chunks of lines, that are parsed at
+		the same time by the threads. Since each line stores the 
+		values of a different individual, the values are written
+		directly in the methylation table, while the individuals
+		having a missing value are added to the methylation sites
+		once all the chunks have been parsed, in the order of the
+		lines. If an individual is listed in more than one chunk, 
+		the file is parsed again as a single chunk, so that the 
+		values stored are those of its last line, as when reading 
+		the file one line at a time.
 	
 		@precodintion the positionTable should have been initialised
 		@precodintion methylation information should have been read
@@ -596,6 +605,7 @@ class MyFileReader
 		@throws NotWellFormedLineException if the file has a line that is not well-formed
 		
 		@see com.github.alesssia.poppante.Utilities.MISSING_VALUES
+		@see com.github.alesssia.poppante.LineTokenizer#chunks(String, int)
 	*/
 	public void readMethylationData() throws IOException, NotWellFormedLineException
 	{
@@ -603,87 +613,246 @@ class MyFileReader
 		assert datamanager.listMeths().size() != 0 : "Internal error: no predictor information."; 
 		assert datamanager.isMethylationsInitialised() : "Internal error: predictor table not initialised";
 		
-		int counter = 0;
 		try 
 		{
-			int methNumber = datamanager.listMeths().size();
-			RandomAccessFile file = new RandomAccessFile(Constants.predictor, "r");
+			//sets threads
+			int threads = new Thread().threads();
+			long[] bounds = LineTokenizer.chunks(Constants.predictor, (threads == 1) ? 1 : CHUNKS * threads);
+			
+			ExecutorService service = Executors.newFixedThreadPool(threads);
+			Vector<Future<PredictorChunk>> futures = new Vector<>();
+			for (int k=0; k<bounds.length-1; k++)
+				futures.add(service.submit(new PredictorChunk(bounds[k], bounds[k+1])));
+			service.shutdown();
+			
+			Vector<PredictorChunk> chunks = new Vector<>();
+			for (Future<PredictorChunk> future : futures)
+				chunks.add(future.get());
+			
+			//the first error of the file is reported
+			int lines = 0;
+			int[] owners = new int[datamanager.people()];
+			Arrays.fill(owners, -1);
+			boolean duplicated = false;
+			for (int k=0; k<chunks.size(); k++)
+			{
+				PredictorChunk chunk = chunks.get(k);
+				chunk.check(lines);
+				lines += chunk.lines();
+				
+				for (int person : chunk.persons())
+				{
+					if (owners[person] != -1 && owners[person] != k)
+						duplicated = true;
+					owners[person] = k;
+				}
+			}
+			
+			if (duplicated)
+			{
+				PredictorChunk chunk = new PredictorChunk(0, Long.MAX_VALUE).call();
+				chunk.check(0);
+				chunks = new Vector<>(Collections.singleton(chunk));
+			}
+			
+			for (PredictorChunk chunk : chunks)
+				chunk.addMissing();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException("ERROR: Check --predictor argument or PREDICTOR data file");
+		}
+		catch (InterruptedException | IOException exception) 
+		{
+			throw new IOException("ERROR: Check --predictor argument or PREDICTOR data file");
+		}
+	}
+	
+	/**
+		Parses a chunk of lines of the methylation value data.
 		
-			int INFO_SIZE = 2;
-			String s;
+		The values are written in the methylation table, while the
+		individuals having a missing value are kept, in the order of
+		the lines, to be added to the methylation sites afterwards. 
+		The parsing stops at the first line that is not well-formed, 
+		that is reported once the previous chunks have been checked.
+	*/
+	private class PredictorChunk implements Callable<PredictorChunk>
+	{
+		/** No error has been found */
+		private static final int NO_ERROR = 0;
+		/** A line has an unexpected number of values */
+		private static final int WRONG_COUNT = 1;
+		/** A line has a value that is not numeric */
+		private static final int NOT_NUMERIC = 2;
 		
-			while ((s = file.readLine()) != null) 
-			{
-				counter++;
-				String[] info = s.split("\\s+");
+		/** The offset of the first line of the chunk */
+		private final long from;
+		/** The offset where the chunk ends */
+		private final long to;
+		/** The lines parsed */
+		private int lines;
+		/** The error found in the last line parsed */
+		private int error;
+		/** The individuals whose values have been read */
+		private int[] persons;
+		/** The number of individuals whose values have been read */
+		private int numPersons;
+		/** The methylation sites of the missing values */
+		private int[] missingSites;
+		/** The individuals of the missing values */
+		private int[] missingPersons;
+		/** The number of missing values */
+		private int numMissing;
 		
-				//family and individual IDs are mandatory, and the number of read methylatin sites
-				//should match the expected one
-				if (info.length != INFO_SIZE + totMethSite)
-					throw new NotWellFormedLineException("The number of predictor values does not match the expected value at line " + counter);
+		/**
+			Constructor. 
 			
-				//Extract the position of that individual in the methylation matrix
-				String key = "";
-				if (Constants.kinship == null)
-					key = new String(info[0] + "" + info[1]);
-				else
-					key = new String(Utilities.INVALID_S + "" + info[0] + "" + info[1]);
-				
-				Integer personPosition = datamanager.getPosition(key);
-				
-				//If the individual is not present in the dataset (PED file) 
-				//the methylation data will be discharged 
-				if (personPosition == null)
-					continue;
-				
-				int skippedMeth = 0;
-				//read the actual values
-				for (int i=INFO_SIZE; i<info.length; i++)
+			@param from the offset of the first line of the chunk
+			@param to the offset where the chunk ends
+		*/
+		PredictorChunk(long from, long to)
+		{
+			this.from = from;
+			this.to = to;
+			lines = 0;
+			error = NO_ERROR;
+			persons = new int[16];
+			numPersons = 0;
+			missingSites = new int[16];
+			missingPersons = new int[16];
+			numMissing = 0;
+		}
+		
+		/**
+			Parses the lines of the chunk.
+			
+			@return the chunk
+			@throws IOException If the methylation data file can't be read
+		*/
+		@Override
+		public PredictorChunk call() throws IOException
+		{
+			try (LineTokenizer info = new LineTokenizer(Constants.predictor, false, from, to))
+			{
+				int INFO_SIZE = 2;
+			
+				while (info.next()) 
 				{
-					int methPosition = i-INFO_SIZE;
-					
-					//if this position is not in the list of included
-					//position is not read
-					if (!position2Read.contains(methPosition))
+					lines++;
+			
+					//family and individual IDs are mandatory, and the number of read methylatin sites
+					//should match the expected one
+					if (info.fields() != INFO_SIZE + totMethSite)
 					{
-						skippedMeth++;
-						continue;
+						error = WRONG_COUNT;
+						return this;
 					}
+				
+					//Extract the position of that individual in the methylation matrix
+					String key = "";
+					if (Constants.kinship == null)
+						key = new String(info.field(0) + "" + info.field(1));
+					else
+						key = new String(Utilities.INVALID_S + "" + info.field(0) + "" + info.field(1));
+					
+					Integer personPosition = datamanager.getPosition(key);
+					
+					//If the individual is not present in the dataset (PED file) 
+					//the methylation data will be discharged 
+					if (personPosition == null)
+						continue;
 					
-					//since not all the position are read, I can't simply use:
-					//	int methPosition = i-INFO_SIZE;
-					//to identify the position of the methylation value in the methylation
-					//matrix, but I also need to remove those that have been skipped.
-					methPosition -= skippedMeth;
-
-					// add to each marker information the position of the person
-					// for whom a value is missing. This list of person will be
-					// used in the main program to identify missingness pattern,
-					// that is group of people with the same missing values.
-					if (Utilities.isMissing(info[i]))
+					if (numPersons == persons.length)
+						persons = Arrays.copyOf(persons, 2 * numPersons);
+					persons[numPersons++] = personPosition;
+					
+					//read the actual values: only the included columns are 
+					//read, while the others are skipped without parsing them
+					for (int methPosition=0; methPosition<position2Read.length; methPosition++)
 					{
-						datamanager.setMeth(methPosition, personPosition, Utilities.INVALID_D);
-						datamanager.listMeths().get(methPosition).addMissing((long)personPosition);
+						int i = INFO_SIZE + position2Read[methPosition];
+	
+						// keeps the position of the person for whom a value 
+						// is missing. This list of person will be used in the 
+						// main program to identify missingness pattern,
+						// that is group of people with the same missing values.
+						if (info.isMissing(i))
+						{
+							datamanager.setMeth(methPosition, personPosition, Utilities.INVALID_D);
+							if (numMissing == missingSites.length)
+							{
+								missingSites = Arrays.copyOf(missingSites, 2 * numMissing);
+								missingPersons = Arrays.copyOf(missingPersons, 2 * numMissing);
+							}
+							missingSites[numMissing] = methPosition;
+							missingPersons[numMissing++] = personPosition;
+						}
+						else 
+						{
+							try
+							{
+								datamanager.setMeth(methPosition, personPosition, info.number(i));
+							}
+							catch (NumberFormatException e)
+							{
+								error = NOT_NUMERIC;
+								return this;
+							}
+						}
 					}
-					else 
-						datamanager.setMeth(methPosition, personPosition, Double.parseDouble(info[i]));
 				}
-				
 			}
-	
-			file.close();		
-		
+			
+			return this;
 		}
-		catch (NumberFormatException e)
+		
+		/**
+			Returns the number of lines parsed.
+			
+			@return the number of lines
+		*/
+		int lines()
 		{
-			throw new NotWellFormedLineException("ERROR: line " + counter + " does not describe a valid predictor (not numeric value). Please check your PREDICTOR data file");
+			return lines;
 		}
-		catch (IOException  exception) 
+		
+		/**
+			Returns the individuals whose values have been read.
+			
+			@return the positions of the individuals
+		*/
+		int[] persons()
 		{
-			throw new IOException("ERROR: Check --predictor argument or PREDICTOR data file");
+			return Arrays.copyOf(persons, numPersons);
 		}
 		
+		/**
+			Reports the error found in the chunk, if any.
+			
+			@param previous the lines of the previous chunks
+			@throws NotWellFormedLineException if a line of the chunk is not well-formed
+		*/
+		void check(int previous) throws NotWellFormedLineException
+		{
+			int counter = previous + lines;
+			if (error == WRONG_COUNT)
+				throw new NotWellFormedLineException("The number of predictor values does not match the expected value at line " + counter);
+			if (error == NOT_NUMERIC)
+				throw new NotWellFormedLineException("ERROR: line " + counter + " does not describe a valid predictor (not numeric value). Please check your PREDICTOR data file");
+		}
 		
+		/**
+			Adds the individuals having a missing value to the 
+			methylation sites.
+		*/
+		void addMissing()
+		{
+			for (int k=0; k<numMissing; k++)
+				datamanager.listMeths().get(missingSites[k]).addMissing((long)missingPersons[k]);
+		}
 	}
 	
 	/**
@@ -719,18 +888,15 @@ class MyFileReader
 			throw new Exception("Internal error: position table has not ben initialised."); 
 		
 		int counter = 0;   
-		try
+		try (LineTokenizer info = new LineTokenizer(Constants.kinship, true))
 		{
 			int INFO_SIZE = 5;
 
-			RandomAccessFile file = new RandomAccessFile(Constants.kinship, "r");
-			String s;	
-			while ((s = file.readLine()) != null)
+			while (info.next())
 			{
 				counter++;
-				String[] info = s.trim().split("\\s+");
 
-				if (info.length < INFO_SIZE)
+				if (info.fields() < INFO_SIZE)
 					throw new NotWellFormedLineException("ERROR: line " + counter + " does not describe a valid kinship entry. Please check your KINSHIP file");
 
 				//If one of the individuals is not present in the dataset (PED file)
@@ -738,21 +904,19 @@ class MyFileReader
 				//I am looking into the datamanager map system, that uses the 
 				//mock family ID to get the position into the array, so the real family ID
 				//(info [0] and [2], should be not considered.
-				Integer p1 = datamanager.getPosition(new String(Utilities.INVALID_S + "" + info[0] + "" + info[1]));
+				Integer p1 = datamanager.getPosition(new String(Utilities.INVALID_S + "" + info.field(0) + "" + info.field(1)));
 				if (p1 == null)
 					continue;
 				
-				Integer p2 = datamanager.getPosition(new String(Utilities.INVALID_S + "" + info[2] + "" + info[3]));
+				Integer p2 = datamanager.getPosition(new String(Utilities.INVALID_S + "" + info.field(2) + "" + info.field(3)));
 				if (p2 == null)
 					continue;
 				
-				double genomicKinship = Double.parseDouble(info[4]); 
+				double genomicKinship = info.number(4); 
 				if ( genomicKinship < Constants.mink) 
 					genomicKinship = 0.0;   
 				family.kinship().setValue(genomicKinship, p1, p2);	
 			}
-		
-			file.close();			
 		}
 		catch(NumberFormatException exception)
 		{
@@ -777,22 +941,18 @@ class MyFileReader
 	*/
 	public int readIncludedMeths() throws IOException
 	{
-		try
+		try (LineTokenizer info = new LineTokenizer(Constants.include, true))
 		{
-			RandomAccessFile file = new RandomAccessFile(Constants.include, "r");
-			
 			int counter = 0;
-			String s;
 	        
-			while ((s = file.readLine()) != null)
+			while (info.next())
 			{
 				counter++;
-				String[] info = s.trim().split("\\s+");
 	
-				if (info.length < 1)
+				if (info.fields() < 1)
 					throw new NotWellFormedLineException("ERROR: line " + counter + " does not describe a valid predictor name. Please check your INCLUDE file");
 			
-				datamanager.includedMeth().add( info[0] );
+				datamanager.includedMeth().add( info.field(0) );
 			}
 	            
 			return datamanager.includedMeth().size();			
@@ -816,22 +976,18 @@ class MyFileReader
 	*/
 	public int readIncludedPhenos() throws IOException
 	{
-		try
+		try (LineTokenizer info = new LineTokenizer(Constants.filter, true))
 		{
-			RandomAccessFile file = new RandomAccessFile(Constants.filter, "r");
-			
 			int counter = 0;
-			String s;
 	        
-			while ((s = file.readLine()) != null)
+			while (info.next())
 			{
 				counter++;
-				String[] info = s.trim().split("\\s+");
 	
-				if (info.length < 1)
+				if (info.fields() < 1)
 					throw new NotWellFormedLineException("ERROR: line " + counter + " does not describe a valid response name. Please check your FILTER file");
 			
-				datamanager.includedPheno().add( info[0] );
+				datamanager.includedPheno().add( info.field(0) );
 			}
 	            
 			return datamanager.includedPheno().size();			
@@ -869,28 +1025,25 @@ class MyFileReader
 		
 		//number of covariates read in the previous line
 		int nCor = -1;
-		try
+		try (LineTokenizer info = new LineTokenizer(Constants.correct, false))
 		{
-			RandomAccessFile file = new RandomAccessFile(Constants.correct, "r");
 			int INFO_SIZE = 2;
-			String s;
 
 			int counter = 0;
-			while ((s = file.readLine()) != null)
+			while (info.next())
 			{
 				counter++;
-				String[] info = s.split("\\s+");
 
 				//family and individual IDs are mandatory, and at least a covariate should be available
-				if (info.length < INFO_SIZE)
+				if (info.fields() < INFO_SIZE)
 					throw new NotWellFormedLineException("ERROR: line " + counter + " does not describe a valid covariate. Please check your CORRECTION file");
 
 				///Extract the position of that individual in the methylation matrix
 				String key = "";
 				if (Constants.kinship == null)
-					key = new String(info[0] + "" + info[1]);
+					key = new String(info.field(0) + "" + info.field(1));
 				else
-					key = new String(Utilities.INVALID_S + "" + info[0] + "" + info[1]);
+					key = new String(Utilities.INVALID_S + "" + info.field(0) + "" + info.field(1));
 				
 				Integer personPosition = datamanager.getPosition(key);
 				
@@ -901,19 +1054,19 @@ class MyFileReader
 				
 				//The check of the correct number of covariates is done only for
 				//individual for whom we have information in the PED file
-				if (nCor > 0 && nCor != info.length - INFO_SIZE)
+				if (nCor > 0 && nCor != info.fields() - INFO_SIZE)
 					throw new NotWellFormedLineException("ERROR: line " + counter + " has a number of covariates that does not match the previous lines.");
 
-				nCor = info.length - INFO_SIZE;
+				nCor = info.fields() - INFO_SIZE;
 				
 				//read the actual values
-				for (int i=INFO_SIZE; i<info.length; i++)
+				for (int i=INFO_SIZE; i<info.fields(); i++)
 				{
 					// if methvalue is missing set affection to missing
-					if (Utilities.isMissing(info[i]))
+					if (info.isMissing(i))
 						throw new Exception("ERROR: The -correct file includes a missing value at line " + counter + "\nPlease use a file with no missing value.");
 					else 
-						datamanager.setCor(i-INFO_SIZE, personPosition, Double.parseDouble(info[i]));
+						datamanager.setCor(i-INFO_SIZE, personPosition, info.number(i));
 				}
 			}
 		}
@@ -21,6 +21,7 @@
 
 package com.github.alesssia.poppante;
 
+import java.lang.management.*;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -35,10 +36,47 @@ import java.util.concurrent.*;
 
 public class MyTest
 {
-	/** This is where the data are stored */
-	private DataManager datamanager;
+	/** The number of tests that can be pending for each thread */
+	private static final int WINDOW = 4;
+	/** The (rough) number of likelihood evaluations of a test, 
+		used to estimate its cost */
+	private static final int EVALUATIONS = 500;
+	
+	/** This is where the data are stored, frozen before testing */
+	private final Snapshot data;
 	/**  Counts the number of tests performed. */
 	private int tests;   
+	/**  Counts the likelihood evaluations performed. */
+	private long evaluations;   
+	/**  Counts the iterations performed by the minimisers. */
+	private long iterations;   
+	/**  Counts the fallbacks to the Amoeba minimiser. */
+	private long fallbacks;   
+	/**  Counts the tests whose full model has not been fitted. */
+	private int screened;   
+	/**  Counts the tests stopped because they exceeded their budget. */
+	private int overruns;   
+	/**  Counts the tests whose results are read from the journal. */
+	private int resumed;   
+	/**  Counts the bytes allocated by the tests, or is negative 
+		when the JVM can't measure them. 
+		
+		The null models fitted in advance and the blocks screened 
+		in batch mode are not counted. */
+	private long allocated;   
+	/**  Counts the tests whose allocated bytes are counted. */
+	private int measured;   
+	/**  Counts the nanoseconds spent by the threads running the tests. */
+	private long busy;   
+	/**  The nanoseconds elapsed while running the tests. */
+	private long elapsed;   
+	/**  The positions of the tests performed, among all the tests, 
+		or null if all the tests are performed. */
+	private int[] positions;   
+	/**  The number of tests, including those of the other shards. */
+	private int total;   
+	/**  Limits the tests running at the same time to fit the heap */
+	private final Admission admission; 
 	/**  Regulates the (concurrent) printing on the standard output */
 	private final Semaphore semaphore; 
 	
@@ -46,14 +84,32 @@ public class MyTest
 		Constructor. 
 		
 		Initialises the data structure. 
-		It uses the data stored in the DataManager object.
+		It uses the data stored in the DataManager object, that
+		are frozen into an immutable snapshot read by the tests.
+		
+		@precondition the data should be loaded and pre-processed
 		
 		@param dm the DataManager object
+		@see com.github.alesssia.poppante.Snapshot
 	*/
 	public MyTest(DataManager dm)
 	{
-		datamanager = dm;
+		data = dm.snapshot();
 		tests = 0;
+		evaluations = 0;
+		iterations = 0;
+		fallbacks = 0;
+		screened = 0;
+		overruns = 0;
+		resumed = 0;
+		allocated = allocatedBytes() < 0 ? -1 : 0;
+		measured = 0;
+		busy = 0;
+		elapsed = 0;
+		positions = null;
+		total = 0;
+		admission = new Admission();
+		data.limitTemplates(admission.templates());
 		semaphore = new Semaphore(1);
 	}
         
@@ -66,37 +122,341 @@ public class MyTest
 	{
 		return tests;
 	}
+	
+	/**
+		Returns the number of tests whose results are read 
+		from the journal, without performing them.
+		
+		@return the number of tests
+	*/
+	public int resumed()
+	{
+		return resumed;
+	}
+	
+	/**
+		Returns the admission control of the tests, that
+		reports the effective parallelism.
+		
+		@return the admission control
+	*/
+	public Admission admission()
+	{
+		return admission;
+	}
+	
+	/**
+		Returns the number of likelihood evaluations performed.
+		
+		@return the number of likelihood evaluations
+	*/
+	public long evaluations()
+	{
+		return evaluations;
+	}
+	
+	/**
+		Returns the number of iterations performed by the minimisers.
+		
+		@return the number of iterations
+	*/
+	public long iterations()
+	{
+		return iterations;
+	}
+	
+	/**
+		Returns the number of times the Amoeba minimiser has been 
+		used as fallback by the selected minimiser.
+		
+		@return the number of fallbacks
+	*/
+	public long fallbacks()
+	{
+		return fallbacks;
+	}
+	
+	/**
+		Returns the number of tests whose full model has not 
+		been fitted, because the score test was not significant.
+		
+		@return the number of screened tests
+	*/
+	public int screened()
+	{
+		return screened;
+	}
+	
+	/**
+		Returns the number of tests stopped because they 
+		exceeded their time or evaluation budget.
+		
+		@return the number of tests exceeding their budget
+		@see com.github.alesssia.poppante.Budget
+	*/
+	public int overruns()
+	{
+		return overruns;
+	}
+	
+	/**
+		Returns the positions of the tests performed by this shard,
+		among the tests of all the shards.
+		
+		@return the positions, sorted, or null if the shard option is not set
+	*/
+	public int[] positions()
+	{
+		return positions;
+	}
+	
+	/**
+		Returns the number of tests of all the shards.
+		
+		@return the number of tests
+	*/
+	public int total()
+	{
+		return total;
+	}
+	
+	/**
+		Returns the number of bytes allocated by the tests.
+		
+		@return the number of bytes, or a negative value if 
+		the JVM can't measure them
+	*/
+	public long allocated()
+	{
+		return allocated;
+	}
+	
+	/**
+		Returns the number of tests whose allocated bytes are
+		counted, that is those fitting the full model of a single 
+		methylation site.
+		
+		@return the number of tests
+	*/
+	public int measured()
+	{
+		return measured;
+	}
+	
+	/**
+		Returns the fraction of the available thread time spent 
+		running the tests, that is the achieved core utilisation.
+		
+		@return the utilisation, in [0, 1]
+	*/
+	public double utilisation()
+	{
+		if (elapsed == 0)
+			return 0;
+		
+		return (double)busy / elapsed / new Thread().threads();
+	}
+	
+	/**
+		Returns the number of bytes allocated so far by the
+		current thread.
+		
+		It relies on the extension of the ThreadMXBean provided
+		by HotSpot-based JVMs.
+		
+		@return the number of bytes, or a negative value if 
+		the JVM can't measure them
+	*/
+	private static long allocatedBytes()
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+		if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled())
+			return -1;
+		
+		return allocations.getThreadAllocatedBytes(java.lang.Thread.currentThread().getId());
+	}
 
 	/**
 		Does the analysis. 
 	
 		In details, it:
-		- creates a vector of tests to be performed;
+		- generates the tests to be performed, one at a time;
 		- runs the tests;
-		- collects and returns the results;
+		- collects and returns the results, in the order of the tests;
 		
 		The phenotypes to be tested are filtered according tho the information
-		in the FILTER file, if present
+		in the FILTER file, if present. When the shard option is set, only
+		the tests of the shard are performed. When the spill option is set, 
+		the results are appended to a run file as soon as they are collected.
+		When the checkpoint option is set, the results are also written in 
+		a journal, and when the resume option is set, the tests listed in 
+		the journal are not performed again.
+		The schedules collect the results in any order, and the results
+		are put back in the order of the tests (see OrderedResults).
 	
 		@return the results of the analysis
 		@throws Exception if an error occurs during the analysis
-		@see com.github.alesssia.poppante.InputTest
+		@see com.github.alesssia.poppante.InputTests
+		@see com.github.alesssia.poppante.ResultSpill
+		@see com.github.alesssia.poppante.Journal
+		@see com.github.alesssia.poppante.OrderedResults
 	*/
-	public Vector<Result> analyse() throws Exception
+	public Collection<Result> analyse() throws Exception
 	{	
-		Vector<InputTest> inputs = new Vector<>();
-
-		for (int m = 0; m < datamanager.listMeths().size(); m++)
+		//mock phenotype, it is not used in the heritability test
+		int phenotypes = (Constants.mode == Utilities.MODE_HERITABILITY) ? 0 : data.numPhenotypes();
+		Vector<InputTest> sharded = null;
+		if (Constants.shard != null)
+			sharded = shard(collect(new InputTests(phenotypes, data.numSites())));
+		Iterator<InputTest> inputs = (sharded != null) ? sharded.iterator() : new InputTests(phenotypes, data.numSites());
+		
+		Collection<Result> outputs = Constants.spill ? new ResultSpill() : new Vector<Result>();
+		OrderedResults ordered = new OrderedResults(outputs);
+		Journal journal = null;
+		if (Constants.checkpoint)
+		{
+			journal = new Journal(Constants.output + ".journal", data, ordered);
+			if (Constants.resume)
+			{
+				inputs = journal.remaining(inputs);
+				resumed = journal.resumed();
+			}
+		}
+		inputs = index(inputs);
+		
+		Collection<Result> sink = (journal == null) ? ordered : journal;
+		long start = System.nanoTime();
+		try
+		{
+			if (Constants.batch != Utilities.INVALID_I)
+				processBatches(collect(inputs), sink);
+			else if (Constants.schedule != null && Constants.schedule.equals("pattern"))
+				processPatterns(collect(inputs), sink);
+			else if (Constants.schedule != null && Constants.schedule.equals("cost"))
+				processCosts(collect(inputs), sink);
+			else
+				processInputs(inputs, sink);
+		}
+		finally
 		{
-			//mock phenotype, it is not used in the heritability test
-			if (Constants.mode == Utilities.MODE_HERITABILITY)
-				inputs.add(new InputTest(Utilities.INVALID_I, m));
-			else 
-				for (int p = 0; p < datamanager.phenotypeNames().size(); p++) 
-						inputs.add(new InputTest(p, m));
+			if (journal != null)
+				journal.close();
 		}
+		ordered.close();
+		elapsed = System.nanoTime() - start;
+		
+		//the results read from the journal are put back in place, 
+		//generating the tests again
+		if (resumed > 0)
+			outputs = journal.merge((sharded != null) ? sharded.iterator() : new InputTests(phenotypes, data.numSites()), outputs);
+		
+		return outputs;
+	}
+	
+	/**
+		Generates all the given tests, that are needed beforehands
+		by the schedules grouping or sorting them.
+		
+		@param inputs the tests
+		@return the list of tests
+	*/
+	private static Vector<InputTest> collect(Iterator<InputTest> inputs)
+	{
+		Vector<InputTest> tests = new Vector<>();
+		while (inputs.hasNext())
+			tests.add(inputs.next());
+		
+		return tests;
+	}
+	
+	/**
+		Sets the position of the tests among the tests performed, 
+		as they are generated.
+		
+		@param inputs the tests to perform
+		@return the same tests
+	*/
+	private static Iterator<InputTest> index(final Iterator<InputTest> inputs)
+	{
+		return new Iterator<InputTest>()
+		{
+			/** The position of the next test */
+			private int index = 0;
+			
+			@Override
+			public boolean hasNext()
+			{
+				return inputs.hasNext();
+			}
+			
+			@Override
+			public InputTest next()
+			{
+				InputTest input = inputs.next();
+				input.index = index++;
+				return input;
+			}
+			
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
 	
-		return processInputs(inputs);		
+	/**
+		Selects the tests of the shard set by the shard option.
+		
+		The tests are partitioned by the longest-processing-time-first
+		rule: they are sorted by their estimated cost, and each of them 
+		is assigned to the shard having the smallest total cost so far 
+		(the first one, in case of ties). The partition depends only on 
+		the data, thus each shard finds it independently from the others. 
+		The positions of the selected tests are stored, since they are 
+		used to merge the partial results of the shards.
+		
+		@param inputs the list of all the tests
+		@return the list of the tests of the shard, in their original order
+		@throws Exception if the costs of the tests can't be estimated
+		@see com.github.alesssia.poppante.PartialResults
+	*/
+	private Vector<InputTest> shard(Vector<InputTest> inputs) throws Exception
+	{
+		double[] costs = estimateCosts(inputs);
+		double[] loads = new double[Constants.shardCount()];
+		boolean[] selected = new boolean[inputs.size()];
+		int count = 0;
+		for (int i : longestFirst(costs))
+		{
+			int s = 0;
+			for (int j = 1; j < loads.length; j++)
+				if (loads[j] < loads[s])
+					s = j;
+			loads[s] += costs[i];
+			
+			if (s == Constants.shardIndex() - 1)
+			{
+				selected[i] = true;
+				count++;
+			}
+		}
+		
+		Vector<InputTest> tests = new Vector<>(count);
+		positions = new int[count];
+		for (int i = 0; i < selected.length; i++)
+			if (selected[i])
+			{
+				positions[tests.size()] = i;
+				tests.add(inputs.get(i));
+			}
+		total = inputs.size();
+		
+		return tests;
 	}
 
 
@@ -135,21 +495,21 @@ public class MyTest
 		Analysable analysable = new Analysable();
 		
 		//used to store whether the individuals are analysable
-		boolean[] isAnalysable = new boolean[datamanager.people()];
+		boolean[] isAnalysable = new boolean[data.people()];
+		PredictorTable methylations = data.methylations();
+		double[] phenotypes = (Constants.mode == Utilities.MODE_ASSOCIATION) ? data.phenotypes()[p] : null;
 	
-		//first family starts from position 0
-		int start = 0;
-        String[] familyKeys = datamanager.familyKeys();
-		for (int f=0; f<familyKeys.length; f++)
+		for (int f=0; f<data.numFamilies(); f++)
 		{
 			int numAnalysable = 0;
-			int offset = datamanager.families().get(familyKeys[f]).numMembers();
+			int start = data.familyStart(f);
+			int offset = data.familySize(f);
 			
 			//counts analysable family members and sets the vector of 
 			//analysable people
 			for(int i=start; i<start+offset; i++)
-				if ((Constants.mode == Utilities.MODE_ASSOCIATION && datamanager.methylations()[m][i] != Utilities.INVALID_D && datamanager.phenotypes()[p][i] != Utilities.INVALID_D) 
-					||  (Constants.mode == Utilities.MODE_HERITABILITY && datamanager.methylations()[m][i] != Utilities.INVALID_D))
+				if ((Constants.mode == Utilities.MODE_ASSOCIATION && methylations.get(m, i) != Utilities.INVALID_D && phenotypes[i] != Utilities.INVALID_D) 
+					||  (Constants.mode == Utilities.MODE_HERITABILITY && methylations.get(m, i) != Utilities.INVALID_D))
 				{
 					isAnalysable[i] = true;
 					numAnalysable++;
@@ -157,10 +517,7 @@ public class MyTest
 				
 			//This family has at least one analysable member
 			if (numAnalysable > 0)
-				analysable.addFamily(new AnalysableFamily(familyKeys[f], numAnalysable, start));
-			
-			//where the next family starts	
-			start += offset;
+				analysable.addFamily(new AnalysableFamily(data.familyKey(f), f, offset, numAnalysable, start));
 		}
 		
 		analysable.setIsAnalysable(isAnalysable);
@@ -173,16 +530,19 @@ public class MyTest
 	
 		It evaluates the actual test in the VC environment. 
 		If a test raises an exception, for any reason, the exception 
-		is caught and added to the results.
+		is caught and added to the results, unless the test has been 
+		interrupted: then it has not been performed, and the exception 
+		is raised again.
 	
 		@param vc the variant component object
 		@param p the position of the phenotype in the person's phenotype list
 		@param mrk the methylation site
 		@return the analysis results
+		@throws InterruptedException if the test is interrupted
 		@see com.github.alesssia.poppante.VC
 		@see com.github.alesssia.poppante.Result
 	*/	
-	private Result evaluate(VC vc, int p, Marker mrk)
+	private Result evaluate(VC vc, int p, Marker mrk) throws InterruptedException
 	{
 		Result result = new Result();	
 	
@@ -193,101 +553,709 @@ public class MyTest
 			vc.fill();
 			result = vc.solve();
 		}
+		catch(InterruptedException e)
+		{
+			throw e;
+		}
 		catch(Exception e)
 		{
 			result = new Result(e.getMessage());
 		}
 
 		//Information about the test that has been performed
-		String phn = (p == Utilities.INVALID_I) ?  "" : datamanager.phenotypeNames().get(p).name();
+		String phn = (p == Utilities.INVALID_I) ?  "" : data.phenotypeName(p);
 		result.setInfo(phn, mrk.name(), mrk.chromosome(), mrk.position());
 
 		return result;
 	}
 
+	/**
+		Creates a single test, ready to be submitted.
+		
+		The test waits for its working set to fit in the heap,
+		counts itself among the done tests and, if the verbose 
+		mode is selected, prints a summary of the number of tests 
+		at run-time.
+		
+		@param input the test
+		@return the test to submit
+		@see com.github.alesssia.poppante.VC
+		@see com.github.alesssia.poppante.Admission
+	*/
+	private Callable<Result> test(final InputTest input)
+	{
+		return new Callable<Result>()
+		{
+			@Override
+			public Result call() throws Exception
+			{
+                                        Result result;
+                                        long bytes = allocatedBytes();
+                                        long start = System.nanoTime();
+                                        
+				//extract information				
+				int p = input.p();
+				int m = input.m();
+				
+				Analysable analysable = family2analise(p, m);
+									
+				Marker mrk = data.marker(m);
+				
+				//no family to analise: the test is not performed, 
+				//and it does not wait for the heap
+				if (analysable.numFamilies() == 0)
+				{
+					result = new Result("Warning : no observations");
+					String phn = (p == Utilities.INVALID_I) ?  "" : data.phenotypeName(p);
+					result.setInfo(phn, mrk.name(), mrk.chromosome(), mrk.position());
+				}
+				else
+				{
+					//waits for its working set to fit in the heap, 
+					//that is not counted as busy time
+					int units = admission.acquire(analysable);
+					start = System.nanoTime();
+					try
+					{
+						VC vc = new VC(p, m, analysable, data);
+						
+						//If the regin-based testing is selected I need to extract the sites
+						//within the region
+						if (Constants.region != Utilities.INVALID_I)		
+							vc.setSites(data.window(m));
+						
+						//does the test
+						result = evaluate(vc, p, mrk);
+					}
+					finally
+					{
+						admission.release(units);
+					}
+				}
+				result.setTest(input);
+				
+				//critical session to count the done tests
+				semaphore.acquire();
+				tests++;
+				evaluations += result.evaluations();
+				iterations += result.iterations();
+				fallbacks += result.fallbacks();
+				if (result.isScreened())
+					screened++;
+				if (result.isOverBudget())
+					overruns++;
+				if (allocated >= 0)
+				{
+					allocated += allocatedBytes() - bytes;
+					measured++;
+				}
+				busy += System.nanoTime() - start;
+				int n = tests;
+				semaphore.release();
+			
+				if (Constants.verbose)
+					printStatistics(n);
+			 			
+				return result;
+			}
+		};
+	}
+	
 	/**
 		Prepares and runs the tests. 
 	
 		PopPAnTe uses a multi-thread system -- it is possible because 
 		tests are independent from one another. 		
+		Tests are submitted as they are generated, but at most
+		WINDOW tests per thread can be pending at any time: when 
+		the limit is reached, the submission waits for the oldest 
+		test to end. Results are added to the given list in the 
+		order of the tests, as soon as all the previous tests have 
+		ended, so that the memory does not depend on the number of 
+		tests but on the number of threads. The running tests are
+		further limited by the heap they need (see Admission).
 		If the verbose mode is selected it prints a summary of
 		the number of tests at run-time.
 		If a list of methylation sites to analyse has been included,
 		only these methylation sites are tested.
 	
-		@param inputs the list of tests
-		@return the list of results
+		@param inputs the tests
+		@param outputs the list where the results are added
 	
 		@throws InterruptedException if an error occurs during the analysis.
 		@throws ExecutionException if an error occurs during the analysis.
 		@see com.github.alesssia.poppante.InputTests
 	*/
-	private Vector<Result> processInputs(Vector<InputTest> inputs) throws InterruptedException, ExecutionException 
+	private void processInputs(Iterator<InputTest> inputs, Collection<Result> outputs) throws InterruptedException, ExecutionException 
 	{		
 		//sets threads
 		Thread t = new Thread();
 		ExecutorService service = Executors.newFixedThreadPool(t.threads());
-		Vector<Future<Result>> futures = new Vector<>();
+		int window = WINDOW * t.threads();
+		ArrayDeque<Future<Result>> futures = new ArrayDeque<>(window);
 	
 		if (Constants.verbose)
 			System.out.print("\t");
 
-		for (final InputTest input : inputs)
+		//the pool is shut down even when a test fails, otherwise 
+		//its threads would keep the program alive
+		try
 		{
-			Callable<Result> callable = new Callable<Result>()
+			while (inputs.hasNext())
 			{
-				@Override
-				public Result call() throws Exception
+				Callable<Result> callable = test(inputs.next());
+				
+				//waits for the oldest test when too many tests are pending
+				if (futures.size() == window)
+					sink(futures.poll(), outputs);
+				futures.add(service.submit(callable));
+				
+				//collects the tests that have already ended
+				while (!futures.isEmpty() && futures.peek().isDone())
+					sink(futures.poll(), outputs);
+			}
+		}
+		finally
+		{
+			service.shutdown();
+		}
+		
+		while (!futures.isEmpty())
+			sink(futures.poll(), outputs);
+	}
+	
+	/**
+		Adds the result of a test to the list of results, waiting
+		for the test to end.
+		
+		@param future the test
+		@param outputs the list of results
+		@throws InterruptedException if an error occurs during the analysis.
+		@throws ExecutionException if an error occurs during the analysis.
+	*/
+	private void sink(Future<Result> future, Collection<Result> outputs) throws InterruptedException, ExecutionException
+	{
+		outputs.add(future.get());
+	}
+
+	
+	/**
+		Groups the tests by phenotype and missingness pattern of
+		the methylation sites, since they share the people analysed
+		and the null model. 
+		
+		Groups are sorted by their first test, and so are the tests
+		within each group.
+		
+		@param inputs the list of tests
+		@return the groups, as positions in the list of tests
+		@see com.github.alesssia.poppante.DataManager
+	*/
+	private Collection<Vector<Integer>> groupByPattern(Vector<InputTest> inputs)
+	{
+		LinkedHashMap<String, Vector<Integer>> groups = new LinkedHashMap<>();
+		for (int i = 0; i < inputs.size(); i++)
+		{
+			InputTest input = inputs.get(i);
+			String key = input.p() + "." + data.pattern(input.m());
+			Vector<Integer> group = groups.get(key);
+			if (group == null)
+			{
+				group = new Vector<>();
+				groups.put(key, group);
+			}
+			group.add(i);
+		}
+		
+		return groups.values();
+	}
+	
+	/**
+		Creates the evaluation of the null model shared by a group 
+		of tests, ready to be submitted.
+		
+		If the evaluation fails, each test of the group tries again
+		and reports the error. The optimisation of the null model is 
+		counted here, since the tests of the group do not fit it.
+		
+		@param input the first test of the group
+		@return the evaluation of the null model to submit
+		@see com.github.alesssia.poppante.VC
+	*/
+	private Callable<Void> fitNull(final InputTest input)
+	{
+		return new Callable<Void>()
+		{
+			@Override
+			public Void call() throws Exception
+			{
+				long start = System.nanoTime();
+				
+				int p = input.p();
+				int m = input.m();
+				Analysable analysable = family2analise(p, m);
+				if (analysable.numFamilies() == 0)
+					return null;
+				
+				//waits for its working set to fit in the heap, 
+				//that is not counted as busy time
+				int units = admission.acquire(analysable);
+				start = System.nanoTime();
+				VC vc;
+				boolean fitted;
+				try
 				{
-                                        Result result;
-                                        
-					//extract information				
-					int p = input.p();
-					int m = input.m();
+					vc = new VC(p, m, analysable, data);
+					if (Constants.region != Utilities.INVALID_I)		
+						vc.setSites(data.window(m));
 					
-					Analysable analysable = family2analise(p, m);
-										
-					//no family to analise
-					if (analysable.numFamilies() == 0)
-                                                result = new Result("Warning : no observations");
+					try
+					{
+						vc.fill();
+						fitted = vc.fitNull();
+					}
+					catch (Exception e)
+					{
+						fitted = false;
+					}
+				}
+				finally
+				{
+					admission.release(units);
+				}
+				
+				//critical session to count the optimisation
+				semaphore.acquire();
+				if (fitted)
+				{
+					evaluations += vc.nullSet().evaluations();
+					iterations += vc.nullSet().iterations();
+					fallbacks += vc.nullSet().fallbacks();
+				}
+				busy += System.nanoTime() - start;
+				semaphore.release();
+				
+				return null;
+			}
+		};
+	}
+	
+	/**
+		Prepares and runs the tests grouped by phenotype and 
+		missingness pattern (the "pattern" schedule).
+		
+		The null model of each group is fitted once, as a task of 
+		its own, and only then the tests of the group are submitted, 
+		so that they find it ready instead of racing to fit it or 
+		waiting for it. The groups of the same phenotype are run one 
+		after the other, so that its values stay in cache, and the 
+		null models of the next groups (one per thread) are fitted 
+		while the tests of the current group run. As in the standard 
+		analysis, at most WINDOW tests per thread can be pending at 
+		any time. Results are added to the given list as the tests 
+		end, in the order they have been submitted, which is not the 
+		order of the tests: the list puts them back in order (see 
+		OrderedResults).
+		
+		@param inputs the list of tests
+		@param outputs the list where the results are added
+	
+		@throws InterruptedException if an error occurs during the analysis.
+		@throws ExecutionException if an error occurs during the analysis.
+		@see com.github.alesssia.poppante.NullModel
+	*/
+	private void processPatterns(final Vector<InputTest> inputs, Collection<Result> outputs) throws InterruptedException, ExecutionException 
+	{
+		//the groups of the same phenotype are run one after the other
+		Vector<Vector<Integer>> groups = new Vector<>(groupByPattern(inputs));
+		Collections.sort(groups, new Comparator<Vector<Integer>>()
+		{
+			@Override
+			public int compare(Vector<Integer> a, Vector<Integer> b)
+			{
+				return Integer.compare(inputs.get(a.get(0)).p(), inputs.get(b.get(0)).p());
+			}
+		});
+		
+		Thread t = new Thread();
+		ExecutorService service = Executors.newFixedThreadPool(t.threads());
+		int window = WINDOW * t.threads();
+		int lookahead = t.threads();
+		ArrayDeque<Future<Void>> nulls = new ArrayDeque<>(lookahead);
+		ArrayDeque<Future<Result>> pending = new ArrayDeque<>(window);
+		
+		if (Constants.verbose)
+			System.out.print("\t");
+		
+		//the pool is shut down even when a test fails, otherwise 
+		//its threads would keep the program alive
+		try
+		{
+			for (int g = 0; g < Math.min(lookahead, groups.size()); g++)
+				nulls.add(service.submit(fitNull(inputs.get(groups.get(g).get(0)))));
+			
+			for (int g = 0; g < groups.size(); g++)
+			{
+				//fits in advance the null model of a next group, and 
+				//waits for the one of this group
+				if (g + lookahead < groups.size())
+					nulls.add(service.submit(fitNull(inputs.get(groups.get(g + lookahead).get(0)))));
+				nulls.poll().get();
+				
+				for (int i : groups.get(g))
+				{
+					//waits for the oldest test when too many tests are pending
+					if (pending.size() == window)
+						sink(pending.poll(), outputs);
+					pending.add(service.submit(test(inputs.get(i))));
 					
-					Marker mrk = datamanager.listMeths().get(m);
-					VC vc = new VC(p, m, analysable, datamanager);
+					//collects the tests that have already ended
+					while (!pending.isEmpty() && pending.peek().isDone())
+						sink(pending.poll(), outputs);
+				}
+			}
+		}
+		finally
+		{
+			service.shutdown();
+		}
+		
+		while (!pending.isEmpty())
+			sink(pending.poll(), outputs);
+	}
+	
+	/**
+		Estimates the relative cost of each test.
+		
+		The cost is dominated by the decomposition of the covariance 
+		matrix of each analysable family, that is repeated at each 
+		likelihood evaluation by the dense engine and done only once 
+		by the spectral engine, whose evaluations are linear in the 
+		family size. In region-based tests, the principal component 
+		analysis of the sites within the window is added. 
+		The tests sharing the people analysed (in association mode, 
+		those having the same phenotype and missingness pattern) 
+		share the cost of their families, which is evaluated once.
+		
+		@param inputs the list of tests
+		@return the estimated cost of each test
+		@throws Exception if the sites within a window can't be extracted
+		@see com.github.alesssia.poppante.Normal
+		@see com.github.alesssia.poppante.MarkerRegion
+	*/
+	private double[] estimateCosts(Vector<InputTest> inputs) throws Exception
+	{
+		Collection<Vector<Integer>> groups;
+		if (Constants.mode == Utilities.MODE_ASSOCIATION)
+			groups = groupByPattern(inputs);
+		else
+		{
+			//the missingness patterns are not set, and the 
+			//people analysed may differ for each test
+			groups = new Vector<>();
+			for (int i = 0; i < inputs.size(); i++)
+				groups.add(new Vector<>(Collections.singleton(i)));
+		}
+		
+		boolean spectral = Constants.engine != null && Constants.engine.equals("spectral");
+		double[] costs = new double[inputs.size()];
+		for (Vector<Integer> group : groups)
+		{
+			InputTest first = inputs.get(group.get(0));
+			Analysable analysable = family2analise(first.p(), first.m());
+			
+			double cost = 0;
+			int people = 0;
+			for (int f = 0; f < analysable.numFamilies(); f++)
+			{
+				double n = analysable.analysableFamiles(f).numAnalysable();
+				cost += spectral ? n * n * n + EVALUATIONS * n : EVALUATIONS * n * n * n;
+				people += n;
+			}
+			
+			for (int i : group)
+			{
+				costs[i] = cost;
+				if (Constants.region != Utilities.INVALID_I)
+				{
+					int width = data.window(inputs.get(i).m()).size();
+					costs[i] += (double)people * width * width;
+				}
+			}
+		}
+		
+		return costs;
+	}
+	
+	/**
+		Sorts the tests by their estimated cost, the most expensive 
+		first. Tests having the same cost keep their order.
+		
+		@param costs the estimated cost of each test
+		@return the positions of the tests, sorted
+	*/
+	private static Integer[] longestFirst(final double[] costs)
+	{
+		Integer[] order = new Integer[costs.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Double.compare(costs[b], costs[a]);
+			}
+		});
+		
+		return order;
+	}
+	
+	/**
+		Prepares and runs the tests sorted by their estimated cost 
+		(the "cost" schedule).
+		
+		The most expensive tests are submitted first, that is the 
+		longest-processing-time-first rule, so that the analysis does 
+		not end with a few threads running long tests while the others 
+		are idle. Tests are run by a work-stealing pool and, as in the 
+		standard analysis, at most WINDOW tests per thread can be 
+		pending at any time. Results are added to the given list as 
+		the tests end, in the order they have been submitted, which 
+		is not the order of the tests: the list puts them back in 
+		order (see OrderedResults).
+		
+		@param inputs the list of tests
+		@param outputs the list where the results are added
+	
+		@throws Exception if an error occurs during the analysis.
+	*/
+	private void processCosts(Vector<InputTest> inputs, Collection<Result> outputs) throws Exception
+	{
+		Integer[] order = longestFirst(estimateCosts(inputs));
+		
+		Thread t = new Thread();
+		ExecutorService service = new ForkJoinPool(t.threads());
+		int window = WINDOW * t.threads();
+		ArrayDeque<Future<Result>> pending = new ArrayDeque<>(window);
+		
+		if (Constants.verbose)
+			System.out.print("\t");
+		
+		//the pool is shut down even when a test fails, otherwise 
+		//it would keep running the pending tests
+		try
+		{
+			for (int i : order)
+			{
+				//waits for the oldest test when too many tests are pending
+				if (pending.size() == window)
+					sink(pending.poll(), outputs);
+				pending.add(service.submit(test(inputs.get(i))));
+				
+				//collects the tests that have already ended
+				while (!pending.isEmpty() && pending.peek().isDone())
+					sink(pending.poll(), outputs);
+			}
+		}
+		finally
+		{
+			service.shutdown();
+		}
+		
+		while (!pending.isEmpty())
+			sink(pending.poll(), outputs);
+	}
+	
+	/**
+		Prepares and runs the tests in batch mode. 
+		
+		The tests of each phenotype are grouped by the missingness
+		pattern of the methylation sites, since they share the people 
+		analysed and the null model, and each group is split in blocks 
+		of (at most) batch sites. The sites of each block are tested 
+		together by means of the score test, with the variances fixed 
+		to those of the null model, and only the sites passing the 
+		prescreening (the top hits) are tested again fitting their full 
+		model, as in the standard analysis, as soon as the results of 
+		their block are collected. As in the standard analysis, at most
+		WINDOW blocks per thread, and as many top hits, can be pending 
+		at any time. Results are added to the given list as the blocks
+		and the top hits end, which is not the order of the tests: the 
+		list puts them back in order (see OrderedResults).
+		
+		@param inputs the list of tests
+		@param outputs the list where the results are added
+	
+		@throws InterruptedException if an error occurs during the analysis.
+		@throws ExecutionException if an error occurs during the analysis.
+		@see com.github.alesssia.poppante.VC
+	*/
+	private void processBatches(Vector<InputTest> inputs, Collection<Result> outputs) throws InterruptedException, ExecutionException 
+	{
+		Collection<Vector<Integer>> groups = groupByPattern(inputs);
+		
+		Thread t = new Thread();
+		ExecutorService service = Executors.newFixedThreadPool(t.threads());
+		int window = WINDOW * t.threads();
+		ArrayDeque<Vector<Integer>> blocks = new ArrayDeque<>(window);
+		ArrayDeque<Future<Result[]>> futures = new ArrayDeque<>(window);
+		ArrayDeque<Future<Result>> pending = new ArrayDeque<>(window);
+		
+		if (Constants.verbose)
+			System.out.print("\t");
+		
+		//the pool is shut down even when a test fails, otherwise 
+		//its threads would keep the program alive
+		try
+		{
+			for (Vector<Integer> group : groups)
+			{
+				for (int start = 0; start < group.size(); start += Constants.batch)
+				{
+					final Vector<Integer> block = new Vector<>(group.subList(start, Math.min(start + Constants.batch, group.size())));
+					final int p = inputs.get(block.get(0)).p();
+					final Vector<Integer> sites = new Vector<>();
+					for (int i : block)
+						sites.add(inputs.get(i).m());
 					
-					//If the regin-based testing is selected I need to extract the sites
-					//within the region
-					if (Constants.region != Utilities.INVALID_I)		
-						vc.setSites(mrk.getMarkersInWindow(datamanager.listMeths()));
+					Callable<Result[]> callable = new Callable<Result[]>()
+					{
+						@Override
+						public Result[] call() throws Exception
+						{
+							long start = System.nanoTime();
+							
+							//all the sites share the people analysed
+							int m = sites.get(0);
+							Analysable analysable = family2analise(p, m);
+							
+							Result[] results = new Result[sites.size()];
+							if (analysable.numFamilies() > 0)
+							{
+								//waits for its working set to fit in the heap, 
+								//that is not counted as busy time
+								int units = admission.acquire(analysable, sites.size());
+								start = System.nanoTime();
+								try
+								{
+									VC vc = new VC(p, m, analysable, data);
+									vc.fill();
+									results = vc.screen(sites);
+								}
+								catch(RuntimeException e)
+								{
+									//all the sites are tested again
+								}
+								finally
+								{
+									admission.release(units);
+								}
+							}
+							
+							int done = 0;
+							int blockScreened = 0;
+							long blockEvaluations = 0;
+							long blockIterations = 0;
+							long blockFallbacks = 0;
+							String phn = data.phenotypeName(p);
+							for (int c = 0; c < results.length; c++)
+							{
+								if (results[c] == null)
+									continue;
+								
+								Marker mrk = data.marker(sites.get(c));
+								results[c].setInfo(phn, mrk.name(), mrk.chromosome(), mrk.position());
+								blockEvaluations += results[c].evaluations();
+								blockIterations += results[c].iterations();
+								blockFallbacks += results[c].fallbacks();
+								if (results[c].isScreened())
+									blockScreened++;
+								done++;
+							}
+							
+							//critical session to count the done tests
+							semaphore.acquire();
+							tests += done;
+							screened += blockScreened;
+							evaluations += blockEvaluations;
+							iterations += blockIterations;
+							fallbacks += blockFallbacks;
+							busy += System.nanoTime() - start;
+							int n = tests;
+							semaphore.release();
+							
+							if (Constants.verbose)
+								for (int i = n - done + 1; i <= n; i++)
+									printStatistics(i);
+							
+							return results;
+						}
+					};
 					
-					//does the test
-					result = evaluate(vc, p, mrk);
+					//waits for the oldest block when too many blocks are pending
+					if (futures.size() == window)
+						sinkBlock(futures.poll(), blocks.poll(), inputs, service, pending, outputs);
+					blocks.add(block);
+					futures.add(service.submit(callable));
 					
-					//critical session to count the done tests
-					semaphore.acquire();
-					tests++;
-					int n = tests;
-					semaphore.release();
-				
-					if (Constants.verbose)
-						printStatistics(n);
-				 			
-					return result;
+					//collects the blocks and the top hits that have already ended
+					while (!futures.isEmpty() && futures.peek().isDone())
+						sinkBlock(futures.poll(), blocks.poll(), inputs, service, pending, outputs);
+					while (!pending.isEmpty() && pending.peek().isDone())
+						sink(pending.poll(), outputs);
 				}
-			};
-
-			futures.add(service.submit(callable));
+			}
+			
+			while (!futures.isEmpty())
+				sinkBlock(futures.poll(), blocks.poll(), inputs, service, pending, outputs);
+		}
+		finally
+		{
+			service.shutdown();
 		}
-
-		service.shutdown();
 		
-		Vector<Result> outputs = new Vector<>();
-		for (Future<Result> future : futures)
+		while (!pending.isEmpty())
+			sink(pending.poll(), outputs);
+	}
+	
+	/**
+		Adds the results of the score tests of a block to the list 
+		of results, waiting for the block to end, and submits the 
+		top hits to fit their full models.
+		
+		At most WINDOW top hits per thread can be pending at any time:
+		when the limit is reached, the submission waits for the oldest
+		top hit to end.
+		
+		@param future the block
+		@param block the positions of the tests of the block
+		@param inputs the list of tests
+		@param service the executor running the tests
+		@param pending the top hits that are pending
+		@param outputs the list of results
+		@throws InterruptedException if an error occurs during the analysis.
+		@throws ExecutionException if an error occurs during the analysis.
+	*/
+	private void sinkBlock(Future<Result[]> future, Vector<Integer> block, Vector<InputTest> inputs, ExecutorService service, ArrayDeque<Future<Result>> pending, Collection<Result> outputs) throws InterruptedException, ExecutionException
+	{
+		int window = WINDOW * new Thread().threads();
+		Result[] results = future.get();
+		for (int c = 0; c < block.size(); c++)
 		{
-			Result result = future.get();
-			if (result != null)
-				outputs.add(result);
+			InputTest input = inputs.get(block.get(c));
+			if (results[c] != null)
+			{
+				results[c].setTest(input);
+				outputs.add(results[c]);
+				continue;
+			}
+			
+			//waits for the oldest top hit when too many are pending
+			if (pending.size() == window)
+				sink(pending.poll(), outputs);
+			pending.add(service.submit(test(input)));
 		}
-		return outputs;
 	}
 
 }
@@ -306,6 +1274,8 @@ class InputTest
 	int p; 
 	/**  The position of the methylation site in the person's methylation site list */
 	int m; 
+	/**  The position of the test among the tests performed */
+	int index; 
 
 	/** 
 		Constructor. 
@@ -319,6 +1289,7 @@ class InputTest
 	{
 		this.p = p;
 		this.m = m;
+		index = Utilities.INVALID_I;
 	}
 	
 	/**
@@ -340,6 +1311,94 @@ class InputTest
 	{
 		return m;
 	}
+	
+	/**
+		Returns the position of the test among the tests performed,
+		that is the order of its result.
+		
+		@return the position of the test
+		@see com.github.alesssia.poppante.OrderedResults
+	*/
+	public int index()
+	{
+		return index;
+	}
 
 }
 
+
+/**
+	Helper class for the multi-thread test session.
+
+	It generates the tests to perform, one at a time, that 
+	is all the pairs of phenotypes and methylation sites
+	(sorted by methylation site) when the analysis mode is 
+	"association", or all the methylation sites when the 
+	analysis mode is "heritability".
+*/
+class InputTests implements Iterator<InputTest>
+{
+	/**  The number of phenotypes, 0 if no phenotype is tested */
+	private final int phenotypes; 
+	/**  The number of methylation sites */
+	private final int sites; 
+	/**  The position of the next phenotype */
+	private int p; 
+	/**  The position of the next methylation site */
+	private int m; 
+
+	/** 
+		Constructor. 
+		
+		@param phenotypes the number of phenotypes, 0 if no phenotype is tested
+		@param sites the number of methylation sites
+	*/
+	public InputTests(int phenotypes, int sites)
+	{
+		this.phenotypes = phenotypes;
+		this.sites = sites;
+		p = 0;
+		m = (phenotypes == 0 && Constants.mode == Utilities.MODE_ASSOCIATION) ? sites : 0;
+	}
+	
+	/**
+		Returns whether there are other tests to perform.
+		
+		@return true if there are other tests, false otherwise
+	*/
+	@Override
+	public boolean hasNext()
+	{
+		return m < sites;
+	}
+	
+	/**
+		Returns the next test to perform.
+		
+		@return the next test
+	*/
+	@Override
+	public InputTest next()
+	{
+		if (!hasNext())
+			throw new NoSuchElementException();
+		
+		InputTest input = new InputTest((phenotypes == 0) ? Utilities.INVALID_I : p, m);
+		if (++p >= phenotypes)
+		{
+			p = 0;
+			m++;
+		}
+		
+		return input;
+	}
+	
+	/**
+		Not supported.
+	*/
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+}
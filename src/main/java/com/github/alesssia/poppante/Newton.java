@@ -0,0 +1,283 @@
+/*
+ * 	 Newton.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   mario.falchi@kcl.ac.uk
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import Jama.*;
+
+/**
+	Performs the Fisher scoring method (a Newton-type method where the
+	Hessian is replaced by the expected information) for minimising the
+	-likelihood of a linear mixed model with respect to its variances.
+
+	The beta coefficients are not part of the search: for any given
+	set of variances they are estimated in closed form by generalised
+	least squares, so that only the variances (on a logarithmic scale)
+	are optimised. Each step is halved until the likelihood improves.
+
+	References for the implementation can be found at:
+		Searle, Shayle R., George Casella, and Charles E. McCulloch.
+		Variance components. John Wiley and Sons, 1992.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@author      Mario Falchi     <mario.falchi@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.NormalSet
+*/
+
+class Newton
+{
+	/** Maximum number of iterations for the minimiser */
+	public static final int    ITERMAX    = 100;
+	/** Maximum number of step halvings in an iteration */
+	public static final int    HALVINGMAX = 20;
+	/** Bound for the logarithm of the variances.
+
+		It is the same used when setting the variances
+		in the linear mixed model.
+		@see com.github.alesssia.poppante.NormalSet */
+	public static final double BOUND     = 16.0;
+	/** Maximum change of the logarithm of a variance in a single step */
+	public static final double MAXSTEP   = 5.0;
+
+	/** The logarithm of the variances */
+	private double[] point;
+	/** The minimum -likelihood reached */
+	private double fmin;
+	/** Number of iterations performed */
+	private int iterations;
+
+	/**  Linear system to optimise */
+	private final NormalSet caller;
+
+	/**
+		Constructor.
+
+		It initialises the data structures.
+
+		@param caller the linear mixed model to optimise
+		@param n the number of variances
+	*/
+	public Newton(NormalSet caller, int n)
+	{
+		this.caller = caller;
+
+		point = new double[n];
+		fmin = Double.MAX_VALUE;
+		iterations = 0;
+	}
+
+	/**
+		Returns the points, that is the logarithm of the variances.
+
+		@return the optimised parameters
+	*/
+	public double[] point()
+	{
+		return point;
+	}
+
+	/**
+		Returns the minimum -likelihood reached.
+
+		@return the minimum -likelihood
+	*/
+	public double fmin()
+	{
+		return fmin;
+	}
+
+	/**
+		Returns the number of iterations performed.
+
+		@return the number of iterations
+	*/
+	public int iterations()
+	{
+		return iterations;
+	}
+
+	/**
+		Sets the points to values
+
+		@param values the values
+	*/
+	public void setPoint(double[] values)
+	{
+		point = values.clone();
+		for (int k = 0; k < point.length; k++)
+			point[k] = bound(point[k]);
+	}
+
+	/**
+		Minimises the -likelihood by Fisher scoring.
+
+		The minimiser stops when the expected improvement of a step
+		(the Newton decrement) becomes negligible with respect to the
+		-likelihood. Variances at their bounds are kept fixed when
+		the step would push them further.
+
+		@param ftol the fractional convergence tolerance to be achieved in the function value
+		@return the minimum value
+		@throws NotConvergencingException if it can't converge
+	*/
+	public double minimize(double ftol) throws NotConvergencingException
+	{
+		int n = point.length;
+		double[] score = new double[n];
+		double[][] information = new double[n][n];
+
+		fmin = caller.callProfile(point, score, information);
+
+		while (true)
+		{
+			iterations++;
+
+			double[] step = direction(score, information);
+
+			//Newton decrement, twice the expected improvement
+			double decrement = 0.0;
+			for (int k = 0; k < n; k++)
+				decrement += score[k] * step[k];
+
+			if (decrement < ftol * (Math.abs(fmin) + 1.0))
+				return fmin;
+
+			if (iterations > ITERMAX)
+				throw new NotConvergencingException("Warning : Newton couldn't converge in " + ITERMAX + " iterations");
+
+			//very large steps are scaled down
+			double largest = 0.0;
+			for (int k = 0; k < n; k++)
+				largest = Math.max(largest, Math.abs(step[k]));
+			if (largest > MAXSTEP)
+				for (int k = 0; k < n; k++)
+					step[k] *= MAXSTEP / largest;
+
+			double[] ptry = new double[n];
+			double[] stry = new double[n];
+			double[][] itry = new double[n][n];
+			boolean improved = false;
+			for (int h = 0; h < HALVINGMAX && !improved; h++)
+			{
+				for (int k = 0; k < n; k++)
+				{
+					ptry[k] = bound(point[k] + step[k]);
+					stry[k] = 0.0;
+					for (int l = 0; l < n; l++)
+						itry[k][l] = 0.0;
+				}
+
+				double ftry = caller.callProfile(ptry, stry, itry);
+				if (ftry <= fmin)
+				{
+					fmin = ftry;
+					improved = true;
+				}
+				else
+					for (int k = 0; k < n; k++)
+						step[k] *= 0.5;
+			}
+
+			if (!improved)
+				throw new NotConvergencingException("Warning : Newton couldn't improve the likelihood");
+
+			point = ptry;
+			score = stry;
+			information = itry;
+		}
+	}
+
+	/**
+		Evaluates the scoring direction, that is it solves I * step = score,
+		where I is the information.
+
+		Variances at their bounds whose step would push them further are
+		excluded from the system and their step is set to zero.
+
+		@param score the score of the log-likelihood
+		@param information the expected information
+		@return the step
+		@throws NotConvergencingException if the information is singular
+	*/
+	private double[] direction(double[] score, double[][] information) throws NotConvergencingException
+	{
+		int n = point.length;
+		boolean[] free = new boolean[n];
+		int numFree = 0;
+		for (int k = 0; k < n; k++)
+		{
+			free[k] = !((point[k] <= -BOUND && score[k] < 0) || (point[k] >= BOUND && score[k] > 0));
+			if (free[k])
+				numFree++;
+		}
+
+		double[] step = new double[n];
+		if (numFree == 0)
+			return step;
+
+		double[][] a = new double[numFree][numFree];
+		double[] b = new double[numFree];
+		int r = 0;
+		for (int k = 0; k < n; k++)
+		{
+			if (!free[k])
+				continue;
+			int c = 0;
+			for (int l = 0; l < n; l++)
+				if (free[l])
+					a[r][c++] = information[k][l];
+			b[r++] = score[k];
+		}
+
+		double[] x;
+		try
+		{
+			x = new Matrix(a).solve(new Matrix(b, numFree)).getColumnPackedCopy();
+		}
+		catch (RuntimeException e)
+		{
+			throw new NotConvergencingException("Warning : Newton couldn't converge (singular information)");
+		}
+
+		r = 0;
+		for (int k = 0; k < n; k++)
+			if (free[k])
+			{
+				if (Double.isNaN(x[r]) || Double.isInfinite(x[r]))
+					throw new NotConvergencingException("Warning : Newton couldn't converge (singular information)");
+				step[k] = x[r++];
+			}
+
+		return step;
+	}
+
+	/**
+		Constrains the logarithm of a variance within the bounds.
+
+		@param v the logarithm of a variance
+		@return the constrained value
+	*/
+	private static double bound(double v)
+	{
+		return Math.max(-BOUND, Math.min(BOUND, v));
+	}
+}
@@ -23,6 +23,7 @@
 package com.github.alesssia.poppante;
 
 import com.github.alesssia.algebrautils.*;
+import java.util.Arrays;
 
 /**
 	Represents a equation. 
@@ -61,6 +62,33 @@ class Normal
 	private double[] scores;	//Methylation sites for heritability, phenotypes for association
 	/** The object used to decompose and solve the system */
 	private final Decomposer decomposition;
+	/** Whether the likelihood is evaluated in the basis of the
+		eigenvectors of the kinship (spectral engine) */
+	private final boolean spectral;
+	/** The eigendecomposition of the kinship.
+		
+		It is evaluated only once, and shared between the 
+		full and the null models. */
+	private MyEigen spectrum;
+	/** Outcomes rotated in the basis of the eigenvectors */
+	private double[] rotatedScores;
+	/** Fixed effects rotated in the basis of the eigenvectors */
+	private double[][] rotatedLinearModel;
+	/** Inverse of the covariance matrix.
+		
+		It is evaluated by accumulateNormalEquations and used by 
+		accumulateScore, when the dense engine is used. It is a
+		buffer of the workspace of the thread, that is valid until
+		the normal equations are evaluated again. */
+	private double[][] inverse;
+	/** The logarithm of the square root of the determinant of the 
+		covariance matrix, evaluated along with its inverse */
+	private double inverseLnDet;
+	/** Products of the inverse of the covariance matrix and the 
+		random effects, used by accumulateScore when the dense 
+		engine is used. Except the first, that is the inverse itself, 
+		they are buffers of the workspace of the thread. */
+	private double[][][] products;
 	/** The likelihood of the system */
 	private double likelihood;
 	/** A constant to add to the log likelihood.
@@ -98,15 +126,23 @@ class Normal
 		//Cholesky decomposition -- that can be used also if the external
 		//kinship has been mofified with a bending' procedure to modify
 		//the eigenvalues of non-positive definite matrices (that is the
-		//default behaviour)
-		if (Constants.kinship == null || Constants.decomposition == null)
-			decomposition = new MyCholesky();
+		//default behaviour). The factor is stored in packed form.
+		//An external kinship that is not bent is solved by the LDL'
+		//decomposition, unless QR or LU are forced.
+		if (Constants.kinship == null || (Constants.decomposition == null && Constants.bending))
+			decomposition = new MyPackedCholesky();
+		else if (Constants.decomposition == null || Constants.decomposition.equals("LDL"))
+			decomposition = new MyLDL();
 		else if (Constants.decomposition.equals("QR"))
 			decomposition = new MyQR();
 		else
 			decomposition = new MyLU();
-				
 		
+		//The spectral engine is used only for the two-component model
+		//(identity + kinship), whose covariance matrices all share the
+		//eigenvectors of the kinship
+		spectral = Constants.engine != null && Constants.engine.equals("spectral") && vc <= 2;
+		spectrum = null;
 		
 		vcCount = vc;
 		linearMD = lmd;
@@ -183,6 +219,7 @@ class Normal
 	public void setScores(int i, double value)
 	{
 		scores[i] = value;
+		rotatedScores = null;
 	}
 	
 	/**
@@ -206,6 +243,21 @@ class Normal
 	public void setLinearModel(int i, int j, double value)
 	{	
 		linearModel[i][j] = value;
+		rotatedLinearModel = null;
+	}
+	
+	/**
+		Sets the values of a block of consecutive predictors,
+		starting from the j-th.
+		
+		@param block the values, a row for each observation
+		@param j the position of the first predictor
+	*/
+	public void setLinearModel(double[][] block, int j)
+	{
+		for (int i=0; i<dim; i++)
+			System.arraycopy(block[i], 0, linearModel[i], j, block[i].length);
+		rotatedLinearModel = null;
 	}
 	
 	/**
@@ -245,6 +297,53 @@ class Normal
 		//It makes a full matrix out of a triangular one
 		varComponents[i][j][k] = value;
 		varComponents[i][k][j] = value;
+		spectrum = null;
+	}
+	
+	/**
+		Returns the eigendecomposition of the kinship.
+		
+		It is evaluated the first time it is requested.
+		
+		@return the eigendecomposition of the kinship
+	*/
+	public MyEigen spectrum()
+	{
+		if (spectrum == null)
+		{
+			spectrum = new MyEigen(varComponents[1]);
+			rotatedScores = null;
+			rotatedLinearModel = null;
+		}
+		
+		return spectrum;
+	}
+	
+	/**
+		Sets the eigendecomposition of the kinship.
+		
+		It is used to share the decomposition between
+		models having the same kinship.
+		
+		@param spectrum the eigendecomposition of the kinship
+		@see com.github.alesssia.poppante.VC
+	*/
+	public void setSpectrum(MyEigen spectrum)
+	{
+		this.spectrum = spectrum;
+		rotatedScores = null;
+		rotatedLinearModel = null;
+	}
+	
+	/**
+		Returns whether the likelihood is evaluated in the basis of 
+		the eigenvectors of the kinship.
+		
+		@return whether the spectral engine is used
+	*/
+	public boolean isSpectral()
+	{
+		return spectral;
 	}
 	
 	/**
@@ -288,6 +387,8 @@ class Normal
 	{
 		for(int i=0; i<dim; i++)
 			linearModel[i][j] = predictor[i];
+		
+		rotatedLinearModel = null;
 	}
 	
 	
@@ -299,6 +400,29 @@ class Normal
 	*/
 	public void prepare(int dim) 
 	{		
+		double[][][] components = new double[vcCount][dim][dim];
+		for(int i=0; i<dim; i++)
+			components[0][i][i] = 1.0;
+		
+		prepare(dim, components);
+	}
+	
+	/**
+		Initialises the data structure, using the given random
+		effects.
+		
+		The random effects are not copied, since they are shared
+		by the tests having the same analysable individuals, and 
+		they must not be modified by setVarComponents.
+	
+		@param dim the number of observations
+		@param components the random effects
+		@see com.github.alesssia.poppante.ModelTemplate
+	*/
+	public void prepare(int dim, double[][][] components) 
+	{		
+		assert components.length == vcCount : "Internal error: the number of random effects does not agree.";
+		
 		includeLikelihoodConstant = false;
 		init = false; 
 		
@@ -312,10 +436,11 @@ class Normal
 		variances = new double[vcCount];	
 		linearModel = Utilities.set(dim, linearMD, 1.0);
 		
-		varComponents = new double[vcCount][dim][dim];
-		varComponents[0] = new double[dim][dim];	
-		for(int i=0; i<dim; i++)
-			varComponents[0][i][i] = 1.0;
+		varComponents = components;
+		
+		spectrum = null;
+		rotatedScores = null;
+		rotatedLinearModel = null;
 	}
 	
 	/**
@@ -359,17 +484,18 @@ class Normal
 	/**
 		Calculate the residuals of the linear model
 		
+		@param residuals the vector where the residuals are stored
 		@return the residuals
+		@see com.github.alesssia.poppante.Workspace
 	*/
-	private double[] calculateResiduals() 
+	private double[] calculateResiduals(double[] residuals) 
 	{
-		double[] residuals = new double[dim];
-			
 		for (int i = 0; i < dim; i++) 
 		{
+			double residual = 0.0;
 			for (int j = 0; j < linearMD; j++)
-				residuals[i] += linearModel[i][j] * means[j];
-			residuals[i] -= scores[i];
+				residual += linearModel[i][j] * means[j];
+			residuals[i] = residual - scores[i];
 		}
 		
 		return residuals;
@@ -378,19 +504,21 @@ class Normal
 	/**
 		Calculate the covariance matrix
 		
+		@param varMatrix the matrix where the covariance matrix is stored
 		@return the covariance matrix
+		@see com.github.alesssia.poppante.Workspace
 	*/
-	private double[][] calculateCovariances() 
+	private double[][] calculateCovariances(double[][] varMatrix) 
 	{
-		double[][] varMatrix = new double[dim][dim];
-		
-		for (int j = 0; j < vcCount; j++) 
-			for (int r = 0; r < dim; r++) 
-				for (int c = r; c < dim; c++)
-				{		
-					varMatrix[r][c] += variances[j] * varComponents[j][r][c];
-					varMatrix[c][r] = varMatrix[r][c]; //Decomposer wants a symmetric matrix
-				}
+		for (int r = 0; r < dim; r++) 
+			for (int c = r; c < dim; c++)
+			{		
+				double covariance = 0.0;
+				for (int j = 0; j < vcCount; j++) 
+					covariance += variances[j] * varComponents[j][r][c];
+				varMatrix[r][c] = covariance;
+				varMatrix[c][r] = covariance; //Decomposer wants a symmetric matrix
+			}
 		
 		return varMatrix;
 	}
@@ -398,6 +526,9 @@ class Normal
 	/**
 		Evaluates the equation.
 		
+		The scratch buffers of the current thread are used, 
+		thus no memory is allocated.
+		
 		@return the likelihood of the system
 		@throws InfiniteLikelihoodException if the likelihood (that actually is the determinant of the
 				decomposition) is Infinity
@@ -406,12 +537,18 @@ class Normal
 	{
 		likelihood = includeLikelihoodConstant ? constant : 0.0;
 		
-		//solves the equation x = varMatrix * residuals
-		double[]   residuals = calculateResiduals();
-		double[][] varMatrix = calculateCovariances();
-		
-		likelihood -= 0.5 * Utilities.innerProduct(residuals, decomposition.solve(varMatrix, residuals));
-		likelihood -= decomposition.lnDet();
+		if (spectral)
+			evaluateSpectral();
+		else
+		{
+			//solves the equation x = varMatrix * residuals
+			Workspace workspace = Workspace.current();
+			double[]   residuals = calculateResiduals(workspace.residuals(dim));
+			double[][] varMatrix = calculateCovariances(workspace.covariances(dim));
+
+			likelihood -= 0.5 * Utilities.innerProduct(residuals, decomposition.solve(varMatrix, residuals, workspace.solution(dim)));
+			likelihood -= decomposition.lnDet();
+		}
 		
 		//There may be problems when computing the determinant of a large matrix in floating point arithmetic,
 		//due to accuracy issues, and this generates -/+Infinity values
@@ -423,6 +560,393 @@ class Normal
 		return likelihood;
 	}
 
+	/**
+		Evaluates the equation in the basis of the eigenvectors of
+		the kinship.
+		
+		Given K = U * diag(lambda) * U', the covariance matrix is 
+		V = U * diag(ve + vg * lambda) * U'. Once scores and fixed 
+		effects are rotated (that is done once, after they are set),
+		both the quadratic form and the determinant are evaluated
+		in linear time.
+		
+		When the model has only one random effect, the covariance 
+		matrix is already diagonal and no rotation is needed.
+		
+		@throws InfiniteLikelihoodException if the covariance matrix is not positive definite
+	*/
+	private void evaluateSpectral() throws InfiniteLikelihoodException
+	{
+		double[] eigenvalues = rotate();
+		
+		double quadratic = 0.0;
+		double lnDet = 0.0;
+		for (int i = 0; i < dim; i++) 
+		{
+			double residual = -rotatedScores[i];
+			for (int j = 0; j < linearMD; j++)
+				residual += rotatedLinearModel[i][j] * means[j];
+			
+			double eigenvalue = eigenvalue(eigenvalues, i);
+			
+			quadratic += residual * residual / eigenvalue;
+			lnDet += Math.log(eigenvalue);
+		}
+		
+		likelihood -= 0.5 * quadratic;
+		likelihood -= 0.5 * lnDet;
+	}
+	
+	/**
+		Rotates scores and fixed effects in the basis of the 
+		eigenvectors of the kinship, if not done yet.
+		
+		When the model has only one random effect no rotation is
+		needed and the original values are used.
+		
+		@return the eigenvalues of the kinship, or null if the model has only one random effect
+	*/
+	private double[] rotate()
+	{
+		if (vcCount == 1)
+		{
+			rotatedScores = scores;
+			rotatedLinearModel = linearModel;
+			return null;
+		}
+		
+		double[] eigenvalues = spectrum().eigenvalues();
+		if (rotatedScores == null)
+			rotatedScores = spectrum.rotate(scores);
+		if (rotatedLinearModel == null)
+			rotatedLinearModel = spectrum.rotate(linearModel);
+		
+		return eigenvalues;
+	}
+	
+	/**
+		Returns the i-th eigenvalue of the covariance matrix, that is
+		ve + vg * lambda_i.
+		
+		@param eigenvalues the eigenvalues of the kinship (null if the model has only one random effect)
+		@param i the position
+		@return the eigenvalue of the covariance matrix
+		@throws InfiniteLikelihoodException if the covariance matrix is not positive definite
+	*/
+	private double eigenvalue(double[] eigenvalues, int i) throws InfiniteLikelihoodException
+	{
+		double eigenvalue = variances[0];
+		if (eigenvalues != null)
+			eigenvalue += variances[1] * eigenvalues[i];
+
+		if (eigenvalue <= 0.0)
+			throw new InfiniteLikelihoodException("Warning : matrix decomposition failed");
+		
+		return eigenvalue;
+	}
+	
+	/**
+		Adds the contribution of the equation to the generalised least 
+		squares normal equations, that is it evaluates X'V^-1X, X'V^-1y,
+		y'V^-1y and ln(det(V))/2 for the current variances and adds them 
+		to the given equations.
+		
+		@param equations the normal equations to update
+		@see com.github.alesssia.poppante.NormalSet
+		@see com.github.alesssia.poppante.NormalEquations
+	*/
+	public void accumulateNormalEquations(NormalEquations equations)
+	{
+		double[][] xtvx = equations.xtvx();
+		double[] xtvy = equations.xtvy();
+		
+		if (spectral)
+		{
+			double[] eigenvalues = rotate();
+			double ytvy = 0.0;
+			double lnDet = 0.0;
+			for (int i = 0; i < dim; i++) 
+			{
+				double eigenvalue = eigenvalue(eigenvalues, i);
+				double weight = 1.0 / eigenvalue;
+				double[] x = rotatedLinearModel[i];
+				for (int j = 0; j < linearMD; j++)
+				{
+					double wx = weight * x[j];
+					xtvy[j] += wx * rotatedScores[i];
+					for (int k = 0; k < linearMD; k++)
+						xtvx[j][k] += wx * x[k];
+				}
+				ytvy += weight * rotatedScores[i] * rotatedScores[i];
+				lnDet += Math.log(eigenvalue);
+			}
+			equations.add(ytvy, 0.5 * lnDet, dim);
+			return;
+		}
+		
+		Workspace workspace = Workspace.current();
+		inverse = workspace.inverse(dim);
+		decomposition.solve(calculateCovariances(workspace.covariances(dim)), workspace.identity(dim), inverse);
+		inverseLnDet = decomposition.lnDet();
+		
+		double ytvy = 0.0;
+		double[] wx = workspace.weights(linearMD);
+		for (int i = 0; i < dim; i++) 
+		{
+			//i-th row of V^-1X and V^-1y
+			Arrays.fill(wx, 0, linearMD, 0.0);
+			double wy = 0.0;
+			for (int l = 0; l < dim; l++)
+			{
+				double v = inverse[i][l];
+				for (int j = 0; j < linearMD; j++)
+					wx[j] += v * linearModel[l][j];
+				wy += v * scores[l];
+			}
+			
+			for (int j = 0; j < linearMD; j++)
+			{
+				xtvy[j] += wx[j] * scores[i];
+				for (int k = 0; k < linearMD; k++)
+					xtvx[j][k] += linearModel[i][j] * wx[k];
+			}
+			ytvy += wy * scores[i];
+		}
+		equations.add(ytvy, inverseLnDet, dim);
+	}
+	
+	/**
+		Adds the contribution of the equation to the generalised least 
+		squares normal equations of a block of predictors, that replace
+		the given fixed effect one at a time, for the current variances.
+		
+		The fixed effects (but the given one), the scores and the
+		predictors are either multiplied by V^-1, when the dense engine 
+		is used, or rotated in the basis of the eigenvectors of the 
+		kinship and divided by the eigenvalues of V, when the spectral 
+		engine is used. All the predictors of the block are processed
+		together.
+		
+		@param equations the normal equations to update
+		@param column the position of the fixed effect replaced by the predictors
+		@param predictors the values of the predictors, a row for each observation
+		@see com.github.alesssia.poppante.NormalSet
+		@see com.github.alesssia.poppante.BatchEquations
+	*/
+	public void accumulateBatch(BatchEquations equations, int column, double[][] predictors)
+	{
+		int lmd = equations.fixedEffects();
+		int count = equations.predictors();
+		
+		//the columns [Z y M]
+		double[][] b = new double[dim][lmd + 1 + count];
+		for (int i = 0; i < dim; i++) 
+		{
+			for (int j = 0, c = 0; j < linearMD; j++)
+				if (j != column)
+					b[i][c++] = linearModel[i][j];
+			b[i][lmd] = scores[i];
+			System.arraycopy(predictors[i], 0, b[i], lmd + 1, count);
+		}
+		
+		double[][] w;
+		if (spectral)
+		{
+			double[] eigenvalues = rotate();
+			if (eigenvalues != null)
+				b = spectrum.rotate(b);
+			
+			w = new double[dim][b[0].length];
+			for (int i = 0; i < dim; i++) 
+			{
+				double weight = 1.0 / eigenvalue(eigenvalues, i);
+				for (int c = 0; c < b[i].length; c++)
+					w[i][c] = weight * b[i][c];
+			}
+		}
+		else
+			w = decomposition.solve(calculateCovariances(Workspace.current().covariances(dim)), b);
+		
+		equations.add(b, w);
+	}
+	
+	/**
+		Whitens the fixed effects and the scores for the current
+		variances, that is it evaluates D^-1/2 U'[Z y x], where U and D
+		are the eigenvectors and eigenvalues of the covariance matrix,
+		Z are the fixed effects but the given one and x is the given one.
+		
+		When the spectral engine is used the eigenvectors of the kinship
+		are used, otherwise the covariance matrix is decomposed.
+		
+		@param column the position of the fixed effect x
+		@return the whitened values [Z y x], a row for each observation
+		@throws InfiniteLikelihoodException if the covariance matrix is not positive definite
+		@see com.github.alesssia.poppante.NormalSet
+	*/
+	public double[][] whiten(int column) throws InfiniteLikelihoodException
+	{
+		double[][] b = new double[dim][linearMD + 1];
+		for (int i = 0; i < dim; i++) 
+		{
+			for (int j = 0, c = 0; j < linearMD; j++)
+				if (j != column)
+					b[i][c++] = linearModel[i][j];
+			b[i][linearMD - 1] = scores[i];
+			b[i][linearMD] = linearModel[i][column];
+		}
+		
+		double[] values = new double[dim];
+		if (spectral)
+		{
+			double[] eigenvalues = (vcCount == 1) ? null : spectrum().eigenvalues();
+			if (eigenvalues != null)
+				b = spectrum.rotate(b);
+			for (int i = 0; i < dim; i++) 
+				values[i] = eigenvalue(eigenvalues, i);
+		}
+		else
+		{
+			MyEigen eigen = new MyEigen(calculateCovariances(new double[dim][dim]));
+			b = eigen.rotate(b);
+			values = eigen.eigenvalues();
+		}
+		
+		for (int i = 0; i < dim; i++) 
+		{
+			if (!(values[i] > 0.0))
+				throw new InfiniteLikelihoodException("Warning : matrix decomposition failed");
+			
+			double weight = 1.0 / Math.sqrt(values[i]);
+			for (int j = 0; j <= linearMD; j++)
+				b[i][j] *= weight;
+		}
+		
+		return b;
+	}
+	
+	/**
+		Evaluates the log-likelihood of the equation for the current beta 
+		coefficients and variances, and adds the contribution of the equation 
+		to the score and to the (expected) Fisher information of the variances.
+		
+		The score of the k-th variance is
+			-tr(V^-1 K_k)/2 + r'V^-1 K_k V^-1 r/2
+		and the information between the k-th and l-th variances is 
+			tr(V^-1 K_k V^-1 K_l)/2
+		where K_k is the k-th random effect and r the residuals.
+		
+		The constant is never included in the log-likelihood.
+		
+		@precondition when the dense engine is used accumulateNormalEquations
+		should have been called for the current variances
+		
+		@param score the score to update (ignored if null)
+		@param information the information to update (ignored if null)
+		@return the log-likelihood
+		@see com.github.alesssia.poppante.NormalSet
+	*/
+	public double accumulateScore(double[] score, double[][] information)
+	{
+		if (spectral)
+		{
+			double[] eigenvalues = rotate();
+			double[] component = new double[vcCount];
+			double quadratic = 0.0;
+			double lnDet = 0.0;
+			for (int i = 0; i < dim; i++) 
+			{
+				double residual = -rotatedScores[i];
+				for (int j = 0; j < linearMD; j++)
+					residual += rotatedLinearModel[i][j] * means[j];
+				
+				double eigenvalue = eigenvalue(eigenvalues, i);
+				double weight = 1.0 / eigenvalue;
+				
+				quadratic += residual * residual * weight;
+				lnDet += Math.log(eigenvalue);
+				
+				if (score == null)
+					continue;
+				
+				//the random effects are diagonal in this basis
+				component[0] = 1.0;
+				if (vcCount > 1)
+					component[1] = eigenvalues[i];
+				for (int k = 0; k < vcCount; k++)
+				{
+					score[k] += 0.5 * component[k] * weight * (residual * residual * weight - 1.0);
+					for (int l = 0; l < vcCount; l++)
+						information[k][l] += 0.5 * component[k] * component[l] * weight * weight;
+				}
+			}
+			
+			return -0.5 * quadratic - 0.5 * lnDet;
+		}
+		
+		assert inverse != null : "Internal error: the covariance matrix has not been inverted";
+		
+		Workspace workspace = Workspace.current();
+		double[] residuals = calculateResiduals(workspace.residuals(dim));
+		double[] weighted = workspace.solution(dim);
+		for (int i = 0; i < dim; i++) 
+		{
+			double w = 0.0;
+			for (int j = 0; j < dim; j++) 
+				w += inverse[i][j] * residuals[j];
+			weighted[i] = w;
+		}
+		
+		double loglikelihood = -0.5 * Utilities.innerProduct(residuals, weighted) - inverseLnDet;
+		
+		if (score == null)
+			return loglikelihood;
+		
+		//V^-1 K_k, the identity component is V^-1 itself
+		if (products == null)
+			products = new double[vcCount][][];
+		products[0] = inverse;
+		for (int k = 1; k < vcCount; k++)
+		{
+			products[k] = workspace.product(dim, k);
+			for (int i = 0; i < dim; i++)
+				Arrays.fill(products[k][i], 0.0);
+			for (int i = 0; i < dim; i++)
+				for (int l = 0; l < dim; l++)
+				{
+					double v = inverse[i][l];
+					if (v == 0.0)
+						continue;
+					for (int j = 0; j < dim; j++)
+						products[k][i][j] += v * varComponents[k][l][j];
+				}
+		}
+		
+		for (int k = 0; k < vcCount; k++)
+		{
+			double trace = 0.0;
+			double quadratic = 0.0;
+			for (int i = 0; i < dim; i++)
+			{
+				trace += products[k][i][i];
+				for (int j = 0; j < dim; j++)
+					quadratic += weighted[i] * varComponents[k][i][j] * weighted[j];
+			}
+			score[k] += 0.5 * (quadratic - trace);
+			
+			for (int l = 0; l < vcCount; l++)
+			{
+				double trace2 = 0.0;
+				for (int i = 0; i < dim; i++)
+					for (int j = 0; j < dim; j++)
+						trace2 += products[k][i][j] * products[l][j][i];
+				information[k][l] += 0.5 * trace2;
+			}
+		}
+		
+		return loglikelihood;
+	}
+
 	/**
 		Removes the c-th predictor from the system
 		
@@ -442,6 +966,7 @@ class Normal
 		}
 		
 		linearModel = tmpLinearModel;
+		rotatedLinearModel = null;
 		means = new double[nc];
 	}
 	
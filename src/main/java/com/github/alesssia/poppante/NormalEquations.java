@@ -0,0 +1,203 @@
+/*
+ * 	 NormalEquations.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import Jama.*;
+
+/**
+	Represents the generalised least squares (GLS) normal equations
+	of a set of linear mixed models for given variances, that is
+	X'V^-1X and X'V^-1y, along with y'V^-1y and the logarithm of
+	the determinant of V.
+
+	Each equation of the set adds its own contribution.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.Normal
+	@see com.github.alesssia.poppante.NormalSet
+*/
+
+class NormalEquations
+{
+	/** The matrix X'V^-1X */
+	private final double[][] xtvx;
+	/** The vector X'V^-1y */
+	private final double[] xtvy;
+	/** The value y'V^-1y */
+	private double ytvy;
+	/** The logarithm of the square root of the determinant of V,
+		that is ln(det(V))/2 */
+	private double lnDet;
+	/** The number of observations */
+	private int observations;
+
+	/**
+		Constructor.
+
+		Initialises empty equations.
+
+		@param lmd the number of fixed effects
+	*/
+	public NormalEquations(int lmd)
+	{
+		xtvx = new double[lmd][lmd];
+		xtvy = new double[lmd];
+		ytvy = 0.0;
+		lnDet = 0.0;
+		observations = 0;
+	}
+
+	/**
+		Returns the matrix X'V^-1X, to be updated.
+
+		@return the matrix X'V^-1X
+	*/
+	public double[][] xtvx()
+	{
+		return xtvx;
+	}
+
+	/**
+		Returns the vector X'V^-1y, to be updated.
+
+		@return the vector X'V^-1y
+	*/
+	public double[] xtvy()
+	{
+		return xtvy;
+	}
+
+	/**
+		Returns the logarithm of the square root of the
+		determinant of V.
+
+		@return ln(det(V))/2
+	*/
+	public double lnDet()
+	{
+		return lnDet;
+	}
+
+	/**
+		Returns the number of observations.
+
+		@return the number of observations
+	*/
+	public int observations()
+	{
+		return observations;
+	}
+
+	/**
+		Adds the contribution of an equation to y'V^-1y, to
+		ln(det(V))/2, and to the number of observations.
+
+		@param ytvy the value y'V^-1y of the equation
+		@param lnDet the value ln(det(V))/2 of the equation
+		@param n the number of observations of the equation
+	*/
+	public void add(double ytvy, double lnDet, int n)
+	{
+		this.ytvy += ytvy;
+		this.lnDet += lnDet;
+		observations += n;
+	}
+
+	/**
+		Solves the equations, that is it evaluates the GLS
+		estimates of the beta coefficients.
+
+		@return the beta coefficients
+		@throws RuntimeException if X'V^-1X is singular
+	*/
+	public double[] beta()
+	{
+		if (xtvy.length == 0)
+			return new double[0];
+
+		return new Matrix(xtvx).solve(new Matrix(xtvy, xtvy.length)).getColumnPackedCopy();
+	}
+
+	/**
+		Evaluates the efficient score of the beta coefficient of
+		the given column, and its information, when the coefficient 
+		is fixed to zero and the other coefficients are estimated.
+		
+		Given the columns Z of the remaining fixed effects and x of
+		the tested one, the score is x'Py and the information x'Px,
+		where P = V^-1 - V^-1Z(Z'V^-1Z)^-1Z'V^-1. They are evaluated 
+		from the normal equations by means of the Schur complement.
+		Their ratio is the GLS estimate of the coefficient and the 
+		square of the score over the information is the score 
+		statistic, that follows a chi-square distribution with 
+		1 degree of freedom.
+		
+		@param column the position of the tested fixed effect
+		@return the score and the information, in this order
+		@throws RuntimeException if Z'V^-1Z is singular
+	*/
+	public double[] score(int column)
+	{
+		int n = xtvy.length - 1;
+		
+		double[][] zz = new double[n][n];
+		double[][] zx = new double[n][2];
+		for (int i = 0, r = 0; i <= n; i++)
+		{
+			if (i == column)
+				continue;
+			for (int j = 0, c = 0; j <= n; j++)
+				if (j != column)
+					zz[r][c++] = xtvx[i][j];
+			zx[r][0] = xtvx[i][column];
+			zx[r][1] = xtvy[i];
+			r++;
+		}
+		
+		double score = xtvy[column];
+		double information = xtvx[column][column];
+		if (n > 0)
+		{
+			double[][] w = new Matrix(zz).solve(new Matrix(zx)).getArray();
+			for (int r = 0; r < n; r++)
+			{
+				information -= zx[r][0] * w[r][0];
+				score -= zx[r][0] * w[r][1];
+			}
+		}
+		
+		return new double[] {score, information};
+	}
+	
+	/**
+		Evaluates the generalised residual sum of squares, that
+		is r'V^-1r where r are the residuals, for the GLS estimates
+		of the beta coefficients.
+
+		@param beta the GLS estimates of the beta coefficients
+		@return the generalised residual sum of squares
+	*/
+	public double rss(double[] beta)
+	{
+		return ytvy - Utilities.innerProduct(beta, xtvy);
+	}
+}
@@ -45,6 +45,8 @@ class NormalSet
 	
 	 /** The fractional convergence tolerance to be achieved in the Amoeba minimiser. */	 
 	public static final double PRECISION = 1.0E-8; 	
+	 /** The absolute tolerance on the heritability ratio to be achieved in the Brent minimiser. */	 
+	public static final double H_PRECISION = 1.0E-6; 	
 
 	/** Number of linear equations in the set */
 	private final int size;			
@@ -70,6 +72,19 @@ class NormalSet
 	private double[] means;		
 	/** Likelihood of the model */
 	private double likelihood;	
+	/** Total variance profiled out by the last evaluation 
+		of the profile likelihood */
+	private double profiledVariance;
+	/** Number of likelihood evaluations performed */
+	private long evaluations;
+	/** Number of iterations performed by the minimisers */
+	private long iterations;
+	/** Number of times the Amoeba minimiser has been used as 
+		fallback because the selected minimiser did not converge */
+	private int fallbacks;
+	/** The budget of the test, spent at each likelihood evaluation,
+		or null if the evaluations are not limited */
+	private Budget budget;
 
 
 	/**
@@ -95,6 +110,10 @@ class NormalSet
 		variances = null;
 		
 		likelihood = 0.0;
+		evaluations = 0;
+		iterations = 0;
+		fallbacks = 0;
+		budget = null;
 	}
 	
 	/**
@@ -160,29 +179,197 @@ class NormalSet
 	     return means[i];
 	}
 		
+	/**
+		Returns the number of likelihood evaluations performed 
+		since the set was created.
+		
+		@return the number of likelihood evaluations
+	*/
+	public long evaluations()
+	{
+		return evaluations;
+	}
+	
+	/**
+		Returns the number of iterations performed by the minimisers 
+		since the set was created.
+		
+		@return the number of iterations
+	*/
+	public long iterations()
+	{
+		return iterations;
+	}
+	
+	/**
+		Returns the number of times the Amoeba minimiser has been used 
+		as fallback because the selected minimiser did not converge.
+		
+		@return the number of fallbacks
+	*/
+	public int fallbacks()
+	{
+		return fallbacks;
+	}
+	
+	/**
+		Sets the budget of the test, that is spent at each 
+		likelihood evaluation performed by the minimisers.
+		
+		@param budget the budget, or null if the evaluations are not limited
+		@see com.github.alesssia.poppante.Budget
+	*/
+	public void setBudget(Budget budget)
+	{
+		this.budget = budget;
+	}
+	
+	/**
+		Spends a likelihood evaluation of the budget, if any.
+		
+		@throws BudgetExceededException if the test has no budget left
+	*/
+	private void spend() throws BudgetExceededException
+	{
+		if (budget != null)
+			budget.spend();
+	}
+		
 	/**
 		Solves the set of equations.
 		
-		It uses the Nelder–Mead method (aka Amoeba method) to
-		minimise the equations in the multi-dimensional space. 
+		By default it uses the Nelder–Mead method (aka Amoeba method) 
+		to minimise the equations in the multi-dimensional space. 
 		Its convergence is not guarantee.
 		
+		If the Newton minimiser is selected, the variances are
+		estimated by Fisher scoring, while the beta coefficients 
+		are estimated in closed form. If the Brent minimiser is
+		selected, beta coefficients and total variance are
+		estimated in closed form and only the heritability ratio 
+		is searched. If they do not converge the Amoeba minimiser 
+		is used instead, from the same starting point.
+		
 		@throws NotConvergencingException if the Amoeba minimiser or the SVD decomposition can't converge
 		@see com.github.alesssia.poppante.Amoeba
+		@see com.github.alesssia.poppante.Newton
+		@see com.github.alesssia.poppante.Brent
 		@see com.github.alesssia.poppante.SVD
 		@see com.github.alesssia.poppante.Normal
 	*/
 	public void solve() throws NotConvergencingException
 	{
 		editLinearDegenerates();
-			
+		double[] startingPoint = getStartingPoint();
+		
+		if (Constants.optimiser != null && !Constants.optimiser.equals("amoeba"))
+		{
+			try
+			{
+				if (Constants.optimiser.equals("newton"))
+					solveNewton();
+				else
+					solveBrent();
+				return;
+			}
+			catch (BudgetExceededException e)
+			{
+				//there is no budget left for Amoeba
+				throw e;
+			}
+			catch (RuntimeException e)
+			{
+				//the system is solved using Amoeba
+				fallbacks++;
+			}
+		}
+		
+		solveAmoeba(startingPoint);
+	}
+	
+	/**
+		Solves the set of equations by Fisher scoring.
+		
+		@throws NotConvergencingException if the Newton minimiser can't converge
+		@see com.github.alesssia.poppante.Newton
+	*/
+	private void solveNewton() throws NotConvergencingException
+	{
+		Newton solver = new Newton(this, vcCount);
+		
+		double[] startPoint = new double[vcCount];
+		for (int i = 0; i < vcCount; i++)
+			startPoint[i] = Math.log(variances[i]);
+		solver.setPoint(startPoint);
+		
+		try
+		{
+			solver.minimize(PRECISION);
+		}
+		finally
+		{
+			iterations += solver.iterations();
+		}
+		
+		//sets the final beta coefficients and variances
+		callProfile(solver.point(), null, null);
+	}
+	
+	/**
+		Solves the set of equations by profiling out beta coefficients
+		and total variance, and by searching the heritability ratio 
+		h = vg / (ve + vg) in [0, 1] using the Brent's method.
+		
+		When the model has only the identity as random effect,
+		the solution is found in closed form.
+		
+		@throws NotConvergencingException if the Brent minimiser can't converge
+		@see com.github.alesssia.poppante.Brent
+	*/
+	private void solveBrent() throws NotConvergencingException
+	{
+		if (vcCount > 2)
+			throw new NotConvergencingException("Warning : Brent can't be used with more than two random effects");
+		
+		double h = 0.0;
+		if (vcCount == 2)
+		{
+			Brent solver = new Brent(this);
+			try
+			{
+				solver.minimize(0.0, 1.0, H_PRECISION);
+			}
+			finally
+			{
+				iterations += solver.iterations();
+			}
+			h = solver.point();
+		}
+		
+		//sets the final beta coefficients and variances
+		callHeritability(h);
+		for (int i = 0; i < vcCount; i++)
+			variances[i] *= profiledVariance;
+		for (int i = 0; i < size; i++)
+			sets[i].setParameters(means, variances);
+	}
+	
+	/**
+		Solves the set of equations using the Nelder–Mead method.
+		
+		@param startingPoint the starting beta coefficients and (logarithm of) the variances
+		@throws NotConvergencingException if the Amoeba minimiser can't converge
+		@see com.github.alesssia.poppante.Amoeba
+	*/
+	private void solveAmoeba(double[] startingPoint) throws NotConvergencingException
+	{
 		//Amoeba is initialised to have a size of 
 		//#variables in the liner system + #components in the VC
 		Amoeba solver = new Amoeba(this, countParameters());
 		
 		//directions are set to have diagonal 1
 		solver.reset(1);
-		solver.setPoint(getStartingPoint());  
+		solver.setPoint(startingPoint);  
 		
 		solver.minimize(PRECISION); 
 		
@@ -215,6 +402,7 @@ class NormalSet
 			
 		} while (currentmin > PRECISION && ((lastmin-currentmin)/currentmin) > PRECISION);
 
+		iterations += solver.cycles();
 		selectPoint(solver.point());
 	}
 
@@ -429,10 +617,204 @@ class NormalSet
 	*/
 	public double callEvaluate(double[] point)
 	{
+		spend();
 		selectPoint(point);
 		return evaluate();
 	}
 	
+	/**
+		Sets the variances to the given values and the beta coefficients 
+		to their generalised least squares estimates, and evaluates 
+		the -likelihood of the system.
+		
+		It also evaluates the score and the expected information 
+		of the log-likelihood with respect to the logarithm of the 
+		variances, when requested. The likelihood constant is never 
+		included.
+		
+		@param point the logarithm of the variances
+		@param score the score to set (ignored if null)
+		@param information the information to set (ignored if null)
+		@return the -likelihood of the system
+		@see com.github.alesssia.poppante.Newton
+	*/
+	public double callProfile(double[] point, double[] score, double[][] information)
+	{
+		spend();
+		evaluations++;
+		
+		for(int i=0; i<vcCount; i++)
+		{
+			if(point[i] > 16 || point[i] < -16)
+				variances[i] = point[i] > 0 ? 1.0E7 : 1.0E-7;
+			else
+				variances[i] = Math.exp(point[i]);
+		}
+		for(int i=0; i<size; i++)
+			sets[i].setParameters(means, variances);
+		
+		//generalised least squares
+		NormalEquations equations = normalEquations();
+		System.arraycopy(equations.beta(), 0, means, 0, linearMD);
+		
+		double loglikelihood = 0.0;
+		for (int i = 0; i < size; i++)
+			loglikelihood += sets[i].accumulateScore(score, information);
+		
+		//from the variances to their logarithm
+		if (score != null)
+			for (int k = 0; k < vcCount; k++)
+			{
+				score[k] *= variances[k];
+				for (int l = 0; l < vcCount; l++)
+					information[k][l] *= variances[k] * variances[l];
+			}
+		
+		return -loglikelihood;
+	}
+	
+	/**
+		Evaluates the profile -likelihood of the system for the given 
+		heritability ratio h.
+		
+		The variances are set to (1-h, h), the beta coefficients to 
+		their generalised least squares estimates, and the total variance, 
+		that scales both variances, is profiled out as 
+		r'V^-1r / n, where r are the residuals and n the number of 
+		observations. The likelihood constant is never included.
+		
+		@param h the heritability ratio
+		@return the profile -likelihood of the system
+		@see com.github.alesssia.poppante.Brent
+	*/
+	public double callHeritability(double h)
+	{
+		spend();
+		evaluations++;
+		
+		variances[0] = 1.0 - h;
+		if (vcCount > 1)
+			variances[1] = h;
+		for(int i=0; i<size; i++)
+			sets[i].setParameters(means, variances);
+		
+		NormalEquations equations = normalEquations();
+		System.arraycopy(equations.beta(), 0, means, 0, linearMD);
+		
+		int n = equations.observations();
+		double rss = Math.max(equations.rss(means), Utilities.FPMIN);
+		profiledVariance = rss / n;
+		
+		return 0.5 * n * Math.log(profiledVariance) + equations.lnDet() + 0.5 * n;
+	}
+	
+	/**
+		Evaluates the score test for the beta coefficient of 
+		the given column, when the variances are fixed to the 
+		given values (usually, those of the null model).
+		
+		The beta coefficients are set to their generalised least 
+		squares estimates for the given variances.
+		
+		@param sigma the variances
+		@param column the position of the tested fixed effect
+		@return the score and the information, in this order
+		@see com.github.alesssia.poppante.NormalEquations
+		@see com.github.alesssia.poppante.VC
+	*/
+	public double[] scoreTest(double[] sigma, int column)
+	{
+		if (variances == null)
+			variances = new double[vcCount];
+		System.arraycopy(sigma, 0, variances, 0, vcCount);
+		for(int i=0; i<size; i++)
+			sets[i].setParameters(means, variances);
+		
+		NormalEquations equations = normalEquations();
+		System.arraycopy(equations.beta(), 0, means, 0, linearMD);
+		
+		return equations.score(column);
+	}
+	
+	/**
+		Evaluates the score test for a block of predictors, each
+		replacing in turn the fixed effect of the given column, when 
+		the variances are fixed to the given values (usually, those 
+		of the null model).
+		
+		The predictors share the observations of the system, that
+		is the scores and the remaining fixed effects.
+		
+		@param sigma the variances
+		@param column the position of the fixed effect replaced by the predictors
+		@param predictors the values of the predictors for each equation, a row for each observation 
+		@return the score and the information of each predictor, in this order
+		@see com.github.alesssia.poppante.BatchEquations
+		@see com.github.alesssia.poppante.VC
+	*/
+	public double[][] batchTest(double[] sigma, int column, double[][][] predictors)
+	{
+		if (variances == null)
+			variances = new double[vcCount];
+		System.arraycopy(sigma, 0, variances, 0, vcCount);
+		for(int i=0; i<size; i++)
+			sets[i].setParameters(means, variances);
+		
+		int count = (size == 0) ? 0 : predictors[0][0].length;
+		BatchEquations equations = new BatchEquations(linearMD - 1, count);
+		for (int i = 0; i < size; i++)
+			sets[i].accumulateBatch(equations, column, predictors[i]);
+		
+		return equations.scores();
+	}
+	
+	/**
+		Whitens the fixed effects and the scores of the system, when 
+		the variances are fixed to the given values.
+		
+		@param sigma the variances
+		@param column the position of the fixed effect to whiten separately
+		@return the whitened values of the remaining fixed effects, of the scores, and of the given fixed effect, a row for each observation 
+		@see com.github.alesssia.poppante.Normal
+		@see com.github.alesssia.poppante.FixedPermutation
+	*/
+	public double[][] whiten(double[] sigma, int column)
+	{
+		if (variances == null)
+			variances = new double[vcCount];
+		System.arraycopy(sigma, 0, variances, 0, vcCount);
+		
+		int n = countObservations();
+		double[][] whitened = new double[n][];
+		for (int i = 0, r = 0; i < size; i++)
+		{
+			sets[i].setParameters(means, variances);
+			for (double[] row : sets[i].whiten(column))
+				whitened[r++] = row;
+		}
+		
+		return whitened;
+	}
+	
+	/**
+		Evaluates the generalised least squares normal equations 
+		of the system for the current variances.
+		
+		@return the normal equations
+		@see com.github.alesssia.poppante.NormalEquations
+	*/
+	private NormalEquations normalEquations()
+	{
+		NormalEquations equations = new NormalEquations(linearMD);
+		
+		//the inverses of the previous evaluation are not needed anymore
+		Workspace.current().rewind();
+		for (int i = 0; i < size; i++)
+			sets[i].accumulateNormalEquations(equations);
+		
+		return equations;
+	}
+	
 	/**
 		Adds a constants to the likelihood of the equations
 		belonging to the system.
@@ -467,6 +849,7 @@ class NormalSet
 	*/
 	public double evaluate()
 	{
+		evaluations++;
 		likelihood = 0.0;
 		for (int i = 0; i < size; i++)
 			likelihood += sets[i].evaluate();   //operator is NORMAL_MUL_LK (see QTDT implementation)
@@ -29,6 +29,11 @@ package com.github.alesssia.poppante;
 	methylation sites and phenotypes show the same patter of missing
 	values, that is: the same people have missing values for the 
 	same methylation sites and phenotype values.
+	
+	The same model is shared by concurrent tests: the first test 
+	claims it and evaluates it, while the others wait until it is 
+	published. If the evaluation fails, the model is released and 
+	it is evaluated by the next test claiming it.
 
 	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
 	@version     1.0               
@@ -51,6 +56,8 @@ public class NullModel
 	/** -likelihood of every equations
 		belonging to the system */
 	private double[] details;
+	/** Whether a test is evaluating the model */
+	private boolean pending;
 		
 	
 	/**
@@ -65,6 +72,7 @@ public class NullModel
 		df = Utilities.INVALID_I;
 		variances = null;
 		details = null;
+		pending = false;
 	}
 	
 	/**
@@ -82,6 +90,7 @@ public class NullModel
 		df = Utilities.INVALID_I;
 		variances = null;
 		details = null;
+		pending = false;
 	}
 	
 	/**
@@ -140,11 +149,11 @@ public class NullModel
 	}
 	
 	/**
-		Returns 
+		Returns whether the model has already been evaluated.
 		
 		@return true if the model has already been evaluated, false otherwise 
 	*/
-	public boolean isSet()
+	public synchronized boolean isSet()
 	{
 		return variances != null;
 	}
@@ -161,43 +170,58 @@ public class NullModel
 	}
 	
 	/**
-		Sets the log Likelihood of the model
+		Claims the evaluation of the model.
 		
-		@param value the log Likelihood
-	*/
-	public void setlogLikelihood(double value)
-	{
-		logLikelihood = value;
-	}
-	
-	/**
-		Sets the degrees of freedom of the model
+		If another test is evaluating the model, it waits until 
+		the evaluation ends. Only one test at time can claim 
+		the model, and it must either publish or release it.
 		
-		@param value the degrees of freedom
+		@return true if the model should be evaluated by the caller, false if it has already been evaluated
+		@throws InterruptedException if the thread is interrupted while waiting
 	*/
-	public void setDf(int value)
+	public synchronized boolean claim() throws InterruptedException
 	{
-		df = value;
+		while (pending)
+			wait();
+		
+		if (variances != null)
+			return false;
+		
+		pending = true;
+		return true;
 	}
 	
 	/**
-		Sets the variance of the model.
+		Sets the values of the evaluated model and wakes
+		up the tests waiting for it.
 		
+		@param value the log Likelihood
+		@param degrees the degrees of freedom
 		@param values the variance(s)
+		@param logLikelihoods the -logLikelihoods of every equations belonging to the system
 	*/
-	public void setVariances(double[] values)
+	public synchronized void publish(double value, int degrees, double[] values, double[] logLikelihoods)
 	{
-		variances = values;
+		logLikelihood = value;
+		df = degrees;
+		variances = values.clone();
+		details = logLikelihoods.clone();
+		
+		pending = false;
+		notifyAll();
 	}
 	
 	/**
-		Sets the -likelihood of every equations belonging to the system
+		Releases the claim on the model, so that another test 
+		can evaluate it.
 		
-		@param logLikelihoods the -logLikelihoods
+		It is used when the evaluation fails, and it does nothing
+		if the model has already been published.
 	*/
-	public void setDetails(double[] logLikelihoods)
+	public synchronized void release()
 	{
-		details = logLikelihoods.clone();
+		pending = false;
+		notifyAll();
 	}
 	
-}
\ No newline at end of file
+}
@@ -0,0 +1,243 @@
+/*
+ * 	 OrderedResults.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import java.io.*;
+import java.util.*;
+
+/**
+	Represents a list of results that are collected in any order
+	and forwarded to the list of results of the analysis in the
+	order of the tests.
+
+	Each result is forwarded as soon as the results of all the
+	previous tests have been forwarded; otherwise, it is parked
+	until its turn comes. When the spill option is set, the parked
+	results are written to a temporary file, and only their offsets
+	are kept in memory, so that the memory does not depend on how
+	far from the order of the tests the results are collected.
+
+	The tests are ordered by their index, that is their position
+	among the tests performed.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.MyTest
+	@see com.github.alesssia.poppante.InputTest
+	@see com.github.alesssia.poppante.ResultSpill
+*/
+
+class OrderedResults extends AbstractCollection<Result>
+{
+	/** The initial capacity of the offset arrays */
+	private static final int CAPACITY = 1024;
+
+	/** The list of results, where the results are forwarded */
+	private final Collection<Result> results;
+	/** The index of the next result to forward */
+	private int next;
+	/** The parked results, by index, when they are kept in memory */
+	private final HashMap<Integer, Result> parked;
+	/** The file of the parked results, or null when they are kept in memory */
+	private File file;
+	/** The stream reading and writing the file of the parked results */
+	private RandomAccessFile raf;
+	/** The offset of each parked result in the file, by index */
+	private long[] offsets;
+	/** The bytes of each parked result in the file, by index, 0 if it is not parked */
+	private int[] lengths;
+	/** The number of parked results */
+	private int count;
+
+	/**
+		Constructor.
+
+		When the spill option is set, creates the file of the
+		parked results in the same directory of the output file,
+		or in the default temporary directory if the results are
+		written on the standard output.
+
+		@param results the list where the results are forwarded
+		@throws IOException if the file of the parked results can't be created
+	*/
+	public OrderedResults(Collection<Result> results) throws IOException
+	{
+		this.results = results;
+		next = 0;
+		count = 0;
+		parked = new HashMap<>();
+
+		if (Constants.spill)
+		{
+			File dir = (Constants.output == null) ? null : new File(Constants.output).getAbsoluteFile().getParentFile();
+			file = File.createTempFile("PopPAnTe", ".park", dir);
+			file.deleteOnExit();
+			raf = new RandomAccessFile(file, "rw");
+			offsets = new long[CAPACITY];
+			lengths = new int[CAPACITY];
+		}
+	}
+
+	/**
+		Forwards a result if the results of all the previous
+		tests have been forwarded, with the parked results that
+		follow it; otherwise, parks it.
+
+		@param r the result
+		@return true
+		@throws SpillException if a parked result can't be written or read
+	*/
+	@Override
+	public boolean add(Result r)
+	{
+		int index = r.test().index();
+		assert index >= next : "Internal error: a result was collected twice.";
+
+		if (index != next)
+		{
+			park(index, r);
+			return true;
+		}
+
+		results.add(r);
+		next++;
+		while (count > 0 && isParked(next))
+		{
+			results.add(unpark(next));
+			next++;
+		}
+
+		return true;
+	}
+
+	/**
+		Returns whether a result is parked.
+
+		@param index the index of the test
+		@return true if its result is parked, false otherwise
+	*/
+	private boolean isParked(int index)
+	{
+		if (file == null)
+			return parked.containsKey(index);
+
+		return index < lengths.length && lengths[index] > 0;
+	}
+
+	/**
+		Parks a result.
+
+		@param index the index of the test
+		@param r the result
+		@throws SpillException if the result can't be written
+	*/
+	private void park(int index, Result r)
+	{
+		count++;
+		if (file == null)
+		{
+			parked.put(index, r);
+			return;
+		}
+
+		if (index >= lengths.length)
+		{
+			int size = Math.max(index + 1, 2 * lengths.length);
+			offsets = Arrays.copyOf(offsets, size);
+			lengths = Arrays.copyOf(lengths, size);
+		}
+
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			r.write(out);
+			out.flush();
+
+			offsets[index] = raf.length();
+			lengths[index] = bytes.size();
+			raf.seek(offsets[index]);
+			raf.write(bytes.toByteArray());
+		}
+		catch (IOException e)
+		{
+			throw new SpillException("ERROR: the results can't be written on " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+		Removes a parked result.
+
+		@param index the index of the test
+		@return the result
+		@throws SpillException if the result can't be read
+	*/
+	private Result unpark(int index)
+	{
+		count--;
+		if (file == null)
+			return parked.remove(index);
+
+		try
+		{
+			byte[] bytes = new byte[lengths[index]];
+			raf.seek(offsets[index]);
+			raf.readFully(bytes);
+			lengths[index] = 0;
+
+			return Result.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+		}
+		catch (IOException e)
+		{
+			throw new SpillException("ERROR: the results can't be read from " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+		Removes the file of the parked results, once all the
+		results have been collected.
+
+		@throws IOException if the file can't be closed
+	*/
+	public void close() throws IOException
+	{
+		assert count == 0 : "Internal error: a result was not collected.";
+
+		if (file != null)
+		{
+			raf.close();
+			file.delete();
+			file = null;
+		}
+	}
+
+	@Override
+	public Iterator<Result> iterator()
+	{
+		return results.iterator();
+	}
+
+	@Override
+	public int size()
+	{
+		return results.size();
+	}
+}
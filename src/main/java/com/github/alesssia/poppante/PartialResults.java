@@ -0,0 +1,274 @@
+/*
+ * 	 PartialResults.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import java.io.*;
+import java.util.*;
+
+/**
+	Writes and merges the partial result files of the shards
+	of an analysis.
+
+	Each partial result file starts with a header describing the
+	shard (k and N), the number of tests of all the shards, and
+	the parameters that determine the layout of the output file
+	(analysis mode, alpha, relc, and the number of fields of the
+	map file). Then, it lists the results of the shard, each one
+	preceded by its position among all the tests, without any
+	multiple comparisons correction.
+
+	When merging, the files of all the shards are read at the same
+	time, and their results are merged by position, so that they
+	are listed in the same order of a single run.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.MyTest
+	@see com.github.alesssia.poppante.Result
+*/
+
+class PartialResults
+{
+	/** The first line of the partial result files */
+	private static final String MAGIC = "PopPAnTe partial results";
+	/** The version of the file format */
+	private static final int VERSION = 1;
+	/** The position that ends the list of results */
+	private static final int END = -1;
+
+	/** The partial result files */
+	private final String[] files;
+	/** The number of tests of all the shards */
+	private final int total;
+	/** The number of fields of the map file */
+	private final int methFields;
+
+	/**
+		Constructor.
+
+		Reads the headers of the partial result files and sets the
+		analysis mode, alpha, and relc as they were set in the shards.
+
+		@param files the partial result files, one for each shard
+		@throws IOException if a file can't be read
+		@throws MergeException if the files are not the partial results of all the shards of the same analysis
+	*/
+	public PartialResults(String[] files) throws IOException
+	{
+		this.files = files.clone();
+
+		int n = Utilities.INVALID_I;
+		int tests = Utilities.INVALID_I;
+		int fields = Utilities.INVALID_I;
+		boolean[] found = null;
+		for (String file : files)
+		{
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+			{
+				int[] header = readHeader(in, file);
+				int k = header[0];
+				if (found == null)
+				{
+					n = header[1];
+					tests = header[2];
+					fields = header[3];
+					found = new boolean[n];
+				}
+				else if (header[1] != n || header[2] != tests || header[3] != fields)
+					throw new MergeException("ERROR: the partial result file " + file + " belongs to a different analysis.");
+
+				if (found[k-1])
+					throw new MergeException("ERROR: the shard " + k + "/" + n + " is listed twice.");
+				found[k-1] = true;
+			}
+		}
+
+		if (found == null || files.length != n)
+			throw new MergeException("ERROR: the partial results of " + n + " shards are needed, while " + files.length + " were listed.");
+
+		total = tests;
+		methFields = fields;
+	}
+
+	/**
+		Returns the number of fields of the map file, that
+		is used to write the header of the output file.
+
+		@return the number of fields
+	*/
+	public int methFields()
+	{
+		return methFields;
+	}
+
+	/**
+		Merges the results of all the shards, by position.
+
+		When the spill option is set, the results are appended
+		to a run file as they are merged.
+
+		@return the results, in the order of a single run
+		@throws IOException if a file can't be read
+		@throws MergeException if some results are missing or repeated
+		@see com.github.alesssia.poppante.ResultSpill
+	*/
+	public Collection<Result> merge() throws IOException
+	{
+		Collection<Result> results = Constants.spill ? new ResultSpill() : new Vector<Result>(total);
+
+		DataInputStream[] ins = new DataInputStream[files.length];
+		int[] heads = new int[files.length];
+		try
+		{
+			for (int f = 0; f < files.length; f++)
+			{
+				ins[f] = new DataInputStream(new BufferedInputStream(new FileInputStream(files[f])));
+				readHeader(ins[f], files[f]);
+				heads[f] = ins[f].readInt();
+			}
+
+			for (int position = 0; position < total; position++)
+			{
+				//the results of each file are sorted by position
+				int f = 0;
+				while (f < files.length && heads[f] != position)
+					f++;
+				if (f == files.length)
+					throw new MergeException("ERROR: the result of the test " + (position + 1) + " is missing.");
+
+				results.add(Result.read(ins[f]));
+				heads[f] = ins[f].readInt();
+			}
+
+			for (int f = 0; f < files.length; f++)
+				if (heads[f] != END)
+					throw new MergeException("ERROR: the partial result file " + files[f] + " is not valid.");
+		}
+		catch (EOFException e)
+		{
+			throw new MergeException("ERROR: a partial result file is truncated.");
+		}
+		finally
+		{
+			for (DataInputStream in : ins)
+				if (in != null)
+					in.close();
+		}
+
+		return results;
+	}
+
+	/**
+		Reads the header of a partial result file and sets the
+		analysis mode, alpha, and relc.
+
+		@param in the stream reading the file
+		@param file the file name
+		@return the shard, the number of shards, the number of tests, and the number of fields of the map file, in this order
+		@throws IOException if the file can't be read
+		@throws MergeException if the file is not a partial result file
+	*/
+	private static int[] readHeader(DataInputStream in, String file) throws IOException
+	{
+		try
+		{
+			if (!in.readUTF().equals(MAGIC) || in.readInt() != VERSION)
+				throw new MergeException("ERROR: " + file + " is not a partial result file.");
+
+			int k = in.readInt();
+			int n = in.readInt();
+			int tests = in.readInt();
+			if (k < 1 || k > n)
+				throw new MergeException("ERROR: " + file + " is not a partial result file.");
+			Constants.mode = in.readInt();
+			Constants.alpha = in.readDouble();
+			Constants.relc = in.readDouble();
+			int fields = in.readInt();
+
+			return new int[] {k, n, tests, fields};
+		}
+		catch (EOFException | UTFDataFormatException e)
+		{
+			throw new MergeException("ERROR: " + file + " is not a partial result file.");
+		}
+	}
+
+	/**
+		Writes the partial result file of a shard.
+
+		@param file the file name
+		@param results the results of the shard
+		@param positions the positions of the results among all the tests
+		@param total the number of tests of all the shards
+		@param methFields the number of fields of the map file
+		@throws IOException if the file can't be written
+	*/
+	public static void write(String file, Collection<Result> results, int[] positions, int total, int methFields) throws IOException
+	{
+		assert results.size() == positions.length : "Internal error: a position is needed for each result.";
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+		{
+			out.writeUTF(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(Constants.shardIndex());
+			out.writeInt(Constants.shardCount());
+			out.writeInt(total);
+			out.writeInt(Constants.mode);
+			out.writeDouble(Constants.alpha);
+			out.writeDouble(Constants.relc);
+			out.writeInt(methFields);
+
+			int i = 0;
+			for (Result r : results)
+			{
+				out.writeInt(positions[i++]);
+				r.write(out);
+			}
+			out.writeInt(END);
+		}
+	}
+}
+
+
+/**
+	Runtime exception.
+
+	Raised when the partial result files can't be merged.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+ */
+class MergeException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+	/**
+		Constructor.
+
+		Initialises the exception message.
+
+		@param msg the exception message
+	*/
+	public MergeException(String msg)
+	{
+		super(msg);
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * 	 PredictorTable.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+	Represents the table of methylation values, a row for each
+	methylation site and a column for each individual.
+
+	The values are stored either in double precision or, when
+	the storage option is "float", in single precision, which
+	halves the memory taken by the table. In the latter case the
+	missing values (Utilities.INVALID_D) are stored as NaN, and
+	the values are widened to double when they are read, so that
+	the callers always see doubles and Utilities.INVALID_D, and
+	the tests are performed in double precision. A value that is
+	not a number in the PREDICTOR file is thus read as missing.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.DataManager
+	@see com.github.alesssia.poppante.Snapshot
+*/
+
+final class PredictorTable
+{
+	/** The values, in double precision, or null */
+	private final double[][] doubles;
+	/** The values, in single precision, or null */
+	private final float[][] floats;
+	/** The number of columns */
+	private final int columns;
+
+	/**
+		Constructor.
+
+		Initialises all the values to not valid (missing).
+
+		@param rows the number of rows (methylation sites)
+		@param columns the number of columns (individuals)
+		@param single whether the values are stored in single precision
+	*/
+	public PredictorTable(int rows, int columns, boolean single)
+	{
+		this.columns = columns;
+		if (single)
+		{
+			doubles = null;
+			floats = new float[rows][columns];
+			for (float[] row : floats)
+				Arrays.fill(row, Float.NaN);
+		}
+		else
+		{
+			doubles = new double[rows][columns];
+			for (double[] row : doubles)
+				Arrays.fill(row, Utilities.INVALID_D);
+			floats = null;
+		}
+	}
+
+	/**
+		Returns whether the values are stored in single precision.
+
+		@return true in single precision, false in double precision
+	*/
+	public boolean isSingle()
+	{
+		return floats != null;
+	}
+
+	/**
+		Returns the number of bytes taken by each value.
+
+		@return the number of bytes
+	*/
+	public int width()
+	{
+		return (floats != null) ? 4 : 8;
+	}
+
+	/**
+		Returns the number of rows (methylation sites).
+
+		@return the number of rows
+	*/
+	public int rows()
+	{
+		return (floats != null) ? floats.length : doubles.length;
+	}
+
+	/**
+		Returns the number of columns (individuals).
+
+		@return the number of columns
+	*/
+	public int columns()
+	{
+		return columns;
+	}
+
+	/**
+		Returns a value.
+
+		@param row the row (methylation site)
+		@param col the column (individual)
+		@return the value, or Utilities.INVALID_D if it is missing
+	*/
+	public double get(int row, int col)
+	{
+		if (floats == null)
+			return doubles[row][col];
+
+		float value = floats[row][col];
+		return (value != value) ? Utilities.INVALID_D : value;
+	}
+
+	/**
+		Sets a value.
+
+		@param row the row (methylation site)
+		@param col the column (individual)
+		@param value the value, or Utilities.INVALID_D if it is missing
+	*/
+	public void set(int row, int col, double value)
+	{
+		if (floats == null)
+			doubles[row][col] = value;
+		else
+			floats[row][col] = (value == Utilities.INVALID_D) ? Float.NaN : (float) value;
+	}
+
+	/**
+		Returns the values of a row.
+
+		In double precision the row itself is returned, and it
+		must not be modified but through setRow(); in single
+		precision the values are widened in a new array.
+
+		@param row the row (methylation site)
+		@return the values, with Utilities.INVALID_D for the missing ones
+	*/
+	public double[] row(int row)
+	{
+		if (floats == null)
+			return doubles[row];
+
+		double[] values = new double[columns];
+		for (int i = 0; i < columns; i++)
+			values[i] = get(row, i);
+		return values;
+	}
+
+	/**
+		Sets the values of a row.
+
+		@param row the row (methylation site)
+		@param values the values, with Utilities.INVALID_D for the missing ones
+	*/
+	public void setRow(int row, double[] values)
+	{
+		assert values.length == columns : "Internal error: invalid predictor row";
+
+		if (floats == null)
+			doubles[row] = values;
+		else
+			for (int i = 0; i < columns; i++)
+				set(row, i, values[i]);
+	}
+
+	/**
+		Returns all the values transposed, in double precision.
+
+		The values are copied (and widened, in single precision)
+		straight into the transposed table, so that no other copy
+		of the whole table is needed.
+
+		@return the values, a row for each individual and a column for each methylation site
+		@see com.github.alesssia.algebrautils.MyPCA#transposed(double[][], double)
+	*/
+	public double[][] transpose()
+	{
+		int rows = rows();
+		double[][] values = new double[columns][rows];
+		for (int m = 0; m < rows; m++)
+			for (int i = 0; i < columns; i++)
+				values[i][m] = get(m, i);
+		return values;
+	}
+
+	/**
+		Writes the stored values of a row in a buffer, as
+		they are stored.
+
+		@param row the row (methylation site)
+		@param buffer the buffer, with room for the row
+		@see com.github.alesssia.poppante.DataCache
+	*/
+	public void write(int row, ByteBuffer buffer)
+	{
+		if (floats == null)
+			buffer.asDoubleBuffer().put(doubles[row]);
+		else
+			buffer.asFloatBuffer().put(floats[row]);
+	}
+
+	/**
+		Reads the stored values of a row from a buffer, as
+		written by write().
+
+		@param row the row (methylation site)
+		@param buffer the buffer, positioned at the row
+		@see com.github.alesssia.poppante.DataCache
+	*/
+	public void read(int row, ByteBuffer buffer)
+	{
+		if (floats == null)
+			buffer.asDoubleBuffer().get(doubles[row]);
+		else
+			buffer.asFloatBuffer().get(floats[row]);
+		buffer.position(buffer.position() + columns * width());
+	}
+
+	/**
+		Computes the fingerprint of the values, going on
+		from the given one.
+
+		@param h the fingerprint to go on from
+		@return the fingerprint
+		@see com.github.alesssia.poppante.Snapshot#fingerprint()
+	*/
+	public long fingerprint(long h)
+	{
+		for (int m = 0; m < rows(); m++)
+			h = 31 * h + ((floats == null) ? Arrays.hashCode(doubles[m]) : Arrays.hashCode(floats[m]));
+		return h;
+	}
+}
@@ -20,6 +20,7 @@
 
 package com.github.alesssia.poppante;
 
+import java.io.*;
 import java.text.*;
 
 /**
@@ -143,6 +144,25 @@ class Result
 		Set if an exception has been raised during the 
 		evaluation of the test. */
 	private String emessage;
+	/** Number of likelihood evaluations performed by the test */
+	private long evaluations;
+	/** Number of iterations performed by the minimisers */
+	private long iterations;
+	/** Number of times the Amoeba minimiser has been used 
+		as fallback by the selected minimiser */
+	private int fallbacks;
+	/** Whether the full model has not been fitted, because
+		the score test was not significant.
+		
+		In this case, the log likelihood and the variances of
+		the full model are not available.
+		@see com.github.alesssia.poppante.Constants */
+	private boolean screened;
+	/** The test the result belongs to, used to journal it.
+		
+		Not written with the result.
+		@see com.github.alesssia.poppante.Journal */
+	private InputTest test;
 	
 	
 	/**
@@ -234,6 +254,102 @@ class Result
 		position = pos;
 	}
 	
+	/**
+		Sets the test the result belongs to.
+		
+		@param input the test
+	*/
+	public void setTest(InputTest input)
+	{
+		test = input;
+	}
+	
+	/**
+		Returns the test the result belongs to.
+		
+		@return the test, or null if it has not been set
+	*/
+	public InputTest test()
+	{
+		return test;
+	}
+	
+	/**
+		Sets the information about the optimisation.
+		
+		@param e the number of likelihood evaluations
+		@param i the number of iterations of the minimisers
+		@param f the number of fallbacks to the Amoeba minimiser
+	*/
+	public void setOptimisation(long e, long i, int f)
+	{
+		evaluations = e;
+		iterations = i;
+		fallbacks = f;
+	}
+	
+	/**
+		Returns the number of likelihood evaluations
+		
+		@return the number of likelihood evaluations
+	*/
+	public long evaluations()
+	{
+		return evaluations;
+	}
+	
+	/**
+		Returns the number of iterations of the minimisers
+		
+		@return the number of iterations
+	*/
+	public long iterations()
+	{
+		return iterations;
+	}
+	
+	/**
+		Returns the number of fallbacks to the Amoeba minimiser
+		
+		@return the number of fallbacks
+	*/
+	public int fallbacks()
+	{
+		return fallbacks;
+	}
+	
+	/**
+		Marks the result as obtained by the score test, that
+		is the full model has not been fitted.
+	*/
+	public void setScreened()
+	{
+		screened = true;
+	}
+	
+	/**
+		Returns whether the result has been obtained by the
+		score test, that is the full model has not been fitted.
+		
+		@return true if the full model has not been fitted, false otherwise
+	*/
+	public boolean isScreened()
+	{
+		return screened;
+	}
+	
+	/**
+		Returns whether the test has been stopped because it 
+		exceeded its time or evaluation budget.
+		
+		@return true if the test exceeded its budget, false otherwise
+		@see com.github.alesssia.poppante.Budget
+	*/
+	public boolean isOverBudget()
+	{
+		return emessage != null && emessage.startsWith(Budget.WARNING);
+	}
+	
 	/**
 		Returns the pvalue
 		
@@ -305,6 +421,153 @@ class Result
 		adjepvalue = adjpv;
 	}
 	
+	/**
+		Writes the result as a compact binary record.
+		
+		The adjusted p-values and the information about the 
+		optimisation are not written, since they are not known 
+		yet or they have already been collected.
+		
+		@param out the output stream
+		@throws IOException if an error occurs while writing
+		@see com.github.alesssia.poppante.ResultSpill
+	*/
+	public void write(DataOutput out) throws IOException
+	{
+		writeString(out, phenotype);
+		writeString(out, marker);
+		writeString(out, chr);
+		out.writeLong(position);
+		writeString(out, emessage);
+		if (emessage != null)
+			return;
+		
+		out.writeInt(nobs);
+		out.writeDouble(lnlkNull);
+		out.writeDouble(lnlkFull);
+		out.writeInt(dfNull);
+		out.writeInt(dfFull);
+		out.writeDouble(chiq);
+		out.writeDouble(pvalue);
+		out.writeDouble(epvalue);
+		out.writeDouble(posF);
+		out.writeDouble(giniC);
+		writeArray(out, varNull);
+		writeArray(out, varFull);
+		out.writeDouble(heritability);
+		out.writeDouble(beta);
+		out.writeDouble(se);
+		out.writeDouble(ve);
+		out.writeBoolean(screened);
+	}
+	
+	/**
+		Reads a result written as a compact binary record.
+		
+		@param in the input stream
+		@return the result
+		@throws IOException if an error occurs while reading
+		@see com.github.alesssia.poppante.Result#write(DataOutput)
+	*/
+	public static Result read(DataInput in) throws IOException
+	{
+		String p = readString(in);
+		String m = readString(in);
+		String c = readString(in);
+		long pos = in.readLong();
+		String emsg = readString(in);
+		
+		Result r;
+		if (emsg != null)
+			r = new Result(emsg);
+		else
+		{
+			int n = in.readInt();
+			double lnlkN = in.readDouble();
+			double lnlkF = in.readDouble();
+			int dfN = in.readInt();
+			int dfF = in.readInt();
+			double chi2 = in.readDouble();
+			double pval = in.readDouble();
+			double epv = in.readDouble();
+			double pF = in.readDouble();
+			double gini = in.readDouble();
+			double[] vNull = readArray(in);
+			double[] vFull = readArray(in);
+			double h = in.readDouble();
+			double b = in.readDouble();
+			double se = in.readDouble();
+			double v = in.readDouble();
+			
+			r = new Result(n, lnlkN, lnlkF, dfN, dfF, chi2, pval, epv, pF, gini, vNull, vFull, h, b, se, v);
+			if (in.readBoolean())
+				r.setScreened();
+		}
+		
+		r.setInfo(p, m, c, pos);
+		return r;
+	}
+	
+	/**
+		Writes a string that may be null.
+		
+		@param out the output stream
+		@param s the string
+		@throws IOException if an error occurs while writing
+	*/
+	private static void writeString(DataOutput out, String s) throws IOException
+	{
+		out.writeBoolean(s != null);
+		if (s != null)
+			out.writeUTF(s);
+	}
+	
+	/**
+		Reads a string that may be null.
+		
+		@param in the input stream
+		@return the string
+		@throws IOException if an error occurs while reading
+	*/
+	private static String readString(DataInput in) throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+	
+	/**
+		Writes an array that may be null.
+		
+		@param out the output stream
+		@param a the array
+		@throws IOException if an error occurs while writing
+	*/
+	private static void writeArray(DataOutput out, double[] a) throws IOException
+	{
+		out.writeInt(a == null ? -1 : a.length);
+		if (a != null)
+			for (double d : a)
+				out.writeDouble(d);
+	}
+	
+	/**
+		Reads an array that may be null.
+		
+		@param in the input stream
+		@return the array
+		@throws IOException if an error occurs while reading
+	*/
+	private static double[] readArray(DataInput in) throws IOException
+	{
+		int n = in.readInt();
+		if (n < 0)
+			return null;
+		
+		double[] a = new double[n];
+		for (int i = 0; i < n; i++)
+			a[i] = in.readDouble();
+		return a;
+	}
+	
 	/**
 		Updates the header.
 		
@@ -373,7 +636,7 @@ class Result
 			return result; 
 		}
 			
-		result += nobs + "\t" + df2.format(lnlkNull) + "\t" + df2.format(lnlkFull) + "\t" + dfNull + "\t" + dfFull + "\t";
+		result += nobs + "\t" + df2.format(lnlkNull) + "\t" + (screened ? "NA" : df2.format(lnlkFull)) + "\t" + dfNull + "\t" + dfFull + "\t";
 		result += df2.format(chiq) + "\t" + (pvalue < SCIENTIFIC_THRESHOLD ? dfe.format(pvalue) : df4.format(pvalue)); 
 		result += "\t" + (adjpvalue < SCIENTIFIC_THRESHOLD ? dfe.format(adjpvalue) : df4.format(adjpvalue)); 
 		
@@ -399,7 +662,7 @@ class Result
 		if (Constants.variance)
 		{
 			String vNull = Utilities.array2string(varNull, df4, dfe, SCIENTIFIC_THRESHOLD);
-			String vFull = Utilities.array2string(varFull, df4, dfe, SCIENTIFIC_THRESHOLD);
+			String vFull = screened ? "NA" : Utilities.array2string(varFull, df4, dfe, SCIENTIFIC_THRESHOLD);
 		
 			result += "\t" + vNull +  "\t" + vFull;
 		}
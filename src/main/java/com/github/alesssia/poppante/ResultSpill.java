@@ -0,0 +1,230 @@
+/*
+ * 	 ResultSpill.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import java.io.*;
+import java.util.*;
+
+/**
+	Represents a list of results spilled on disk.
+
+	The results are appended to a temporary run file as soon as
+	they are added, and only their p-values (theoretical and
+	empirical) are kept in memory, so that the multiple comparisons
+	correction can be performed without loading the results.
+	Iterating over the list reads the run file again, sequentially,
+	and returns the results in the order they were added.
+
+	The run file is removed when the JVM exits.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.Result
+	@see com.github.alesssia.poppante.MyTest
+*/
+
+class ResultSpill extends AbstractCollection<Result>
+{
+	/** The initial capacity of the p-value arrays */
+	private static final int CAPACITY = 1024;
+
+	/** The run file */
+	private final File file;
+	/** The stream used to write the run file, null once closed */
+	private DataOutputStream out;
+	/** The p-values of the results */
+	private double[] pvalues;
+	/** The empirical p-values of the results */
+	private double[] epvalues;
+	/** The number of results */
+	private int size;
+
+	/**
+		Constructor.
+
+		Creates the run file in the same directory of the output
+		file, or in the default temporary directory if the results
+		are written on the standard output.
+
+		@throws IOException if the run file can't be created
+	*/
+	public ResultSpill() throws IOException
+	{
+		File dir = (Constants.output == null) ? null : new File(Constants.output).getAbsoluteFile().getParentFile();
+		file = File.createTempFile("PopPAnTe", ".spill", dir);
+		file.deleteOnExit();
+
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		pvalues = new double[CAPACITY];
+		epvalues = new double[CAPACITY];
+		size = 0;
+	}
+
+	/**
+		Appends a result to the run file.
+
+		@param r the result
+		@return true
+		@throws SpillException if the result can't be written
+	*/
+	@Override
+	public boolean add(Result r)
+	{
+		assert out != null : "Internal error: the run file has already been closed.";
+
+		try
+		{
+			r.write(out);
+		}
+		catch (IOException e)
+		{
+			throw new SpillException("ERROR: the results can't be written on " + file + ": " + e.getMessage());
+		}
+
+		if (size == pvalues.length)
+		{
+			pvalues = Arrays.copyOf(pvalues, 2 * size);
+			epvalues = Arrays.copyOf(epvalues, 2 * size);
+		}
+		pvalues[size] = r.pvalue();
+		epvalues[size] = r.epvalue();
+		size++;
+
+		return true;
+	}
+
+	/**
+		Returns the number of results.
+
+		@return the number of results
+	*/
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+		Returns the p-values of the results, in the order they
+		were added.
+
+		@param empirical whether the empirical p-values should be returned instead of the theoretical
+		@return the p-values
+	*/
+	public double[] pvalues(boolean empirical)
+	{
+		return Arrays.copyOf(empirical ? epvalues : pvalues, size);
+	}
+
+	/**
+		Returns an iterator that reads the results from the
+		run file, in the order they were added.
+
+		No more results can be added once the run file has
+		been read.
+
+		@return the iterator
+		@throws SpillException if the run file can't be read
+	*/
+	@Override
+	public Iterator<Result> iterator()
+	{
+		try
+		{
+			if (out != null)
+			{
+				out.close();
+				out = null;
+			}
+
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (size == 0)
+				in.close();
+			return new Iterator<Result>()
+			{
+				/** The number of results read */
+				private int read = 0;
+
+				@Override
+				public boolean hasNext()
+				{
+					return read < size;
+				}
+
+				@Override
+				public Result next()
+				{
+					if (read == size)
+						throw new NoSuchElementException();
+
+					try
+					{
+						Result r = Result.read(in);
+						read++;
+						if (read == size)
+							in.close();
+						return r;
+					}
+					catch (IOException e)
+					{
+						throw new SpillException("ERROR: the results can't be read from " + file + ": " + e.getMessage());
+					}
+				}
+
+				@Override
+				public void remove()
+				{
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+		catch (IOException e)
+		{
+			throw new SpillException("ERROR: the results can't be read from " + file + ": " + e.getMessage());
+		}
+	}
+}
+
+
+/**
+	Runtime exception.
+
+	Raised when the run file of the results can't be
+	written or read.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+ */
+class SpillException extends RuntimeException
+{
+    private static final long serialVersionUID = 2L;
+	/**
+		Constructor.
+
+		Initialises the exception message.
+
+		@param msg the exception message
+	*/
+	public SpillException(String msg)
+	{
+		super(msg);
+	}
+}
@@ -41,44 +41,53 @@ import manhattanplotter.*;
 */
 class ResultTable extends Experiment
 {
-	/** Results */
-    private final Vector<Result>  results;		
 	/** FDR engine */
     private FDR fdr;		
 	/** List of p-values for FDR */
-	private Double[] pvalues;
+	private double[] pvalues;
     	
 	/**
 		Constructor. 
 		
 		Initialises the data structures.
-		It fills the information needed by the ManhattanPlotter, and 
-		extracts the pvalues for correction (performed by means of the 
-		Benjamini–Hochberg procedure).
+		It fills the information needed by the ManhattanPlotter, if the
+		plots are requested, and extracts the pvalues for correction 
+		(performed by means of the Benjamini–Hochberg procedure).
+		
+		When the results are spilled on disk and no plot is requested,
+		the p-values kept in memory are used and the run file is not read.
 	
 		It works both with theoretical and empirical p-valus 
 
 		@param res the list of independent results
 		@param empirical whether the empirical p-values should be considered instead of the theoretical
+		@see com.github.alesssia.poppante.ResultSpill
 	*/
-    public ResultTable(Vector<Result> res, boolean empirical) 
+    public ResultTable(Collection<Result> res, boolean empirical) 
     {
         super(MANHATTAN_EXPERIMENT);
-		this.results = res;
 		
-		pvalues = new Double[results.size()];
-		for (int i = 0; i < results.size(); i++)
+		if (res instanceof ResultSpill && !Constants.plot)
+			pvalues = ((ResultSpill)res).pvalues(empirical);
+		else
 		{
-			Result r = results.get(i);
-			
-			manhattanplotter.Test mytest = convertExperiment(r, empirical);
-			if (mytest != null)
-				testsArray.add(mytest);
-			
-			if (empirical)
-				pvalues[i] = r.epvalue();
-			else
-				pvalues[i] = r.pvalue();
+			pvalues = new double[res.size()];
+			int i = 0;
+			for (Result r : res)
+			{
+				if (Constants.plot)
+				{
+					manhattanplotter.Test mytest = convertExperiment(r, empirical);
+					if (mytest != null)
+						testsArray.add(mytest);
+				}
+
+				if (empirical)
+					pvalues[i] = r.epvalue();
+				else
+					pvalues[i] = r.pvalue();
+				i++;
+			}
 		}
 		
 		terminateExperiment();
@@ -153,29 +162,33 @@ class ResultTable extends Experiment
 	}
 	
 	/**
-		Performs the FDR correction and set the adjusted p-values
-		(theoretical or empirical)
+		Performs the FDR correction (theoretical or empirical p-values,
+		according to those extracted).
 		
-		@param empirical whether the empirical p-values should be considered instead of the theoretical
+		The adjusted p-values are not set in the results, since these
+		may be spilled on disk, and should be retrieved by adjPvalue().
+		
+		@see com.github.alesssia.poppante.ResultTable#adjPvalue(int)
 	*/
-    public void adjustPvalues(boolean empirical)
+    public void adjustPvalues()
     {
-		//theoretical p-values
 		fdr = new BH(pvalues);
         fdr.adjust();
-		
-		if (empirical)
-		{
-			for (int i = 0; i < results.size(); i++)
-				results.get(i).setAdjePvalue(fdr.adjPvalue(i));
-		}
-		else
-		{
-			for (int i = 0; i < results.size(); i++)
-            	results.get(i).setAdjPvalue(fdr.adjPvalue(i));
-		}
     }
 	
+	/**
+		Returns the adjusted p-value of the i-th result
+		
+		@precondition the FDR correction should have been performed
+		
+		@param i the position of the result
+		@return the adjusted p-value
+	*/
+	public double adjPvalue(int i)
+	{
+		return fdr.adjPvalue(i);
+	}
+	
 	/**
 		Creates and saves the Q-Q plot. If no valid data are available 
 		an error message is returned instead.
@@ -272,16 +285,5 @@ class ResultTable extends Experiment
 		
 		return error;
 	}
-	
-	/**
-		Returns the vector of Results where the adjusted p-values 
-		have been set.
-		
-		@return the  the list of independent results
- 	 */
-	public Vector<Result> results()
-	{
-		return results;
-	}
 
 }
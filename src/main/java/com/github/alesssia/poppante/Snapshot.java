@@ -0,0 +1,573 @@
+/*
+ * 	 Snapshot.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import java.util.*;
+
+/**
+	Represents the data stored in the DataManager, frozen once
+	loaded and pre-processed, as they are read by the tests.
+
+	Families, methylation sites and phenotypes are indexed by
+	their position, and all the information is stored in plain
+	arrays that are never modified, so that the threads read them
+	without acquiring any monitor (while the DataManager uses
+	synchronised collections and returns copies of its tables).
+	The only shared state that can change is the list of null
+	models, which is still managed by the DataManager, and the
+	cache of the model templates, that are built once for each
+	set of analysable individuals and never modified. The cache
+	takes the part of the heap budget reserved by the admission
+	control, and evicts the least recently used templates when
+	they do not fit.
+
+	The tables are not copied: they must not be modified once
+	the snapshot has been taken.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.DataManager
+	@see com.github.alesssia.poppante.VC
+*/
+
+final class Snapshot
+{
+	/** The data manager, that stores the null models */
+	private final DataManager datamanager;
+	/** The table of methylation values, a row for each site */
+	private final PredictorTable methylations;
+	/** The table of phenotype values, a row for each phenotype */
+	private final double[][] phenotypes;
+	/** The table of covariate values, a row for each covariate */
+	private final double[][] covariates;
+	/** The number of covariates */
+	private final int numCovar;
+	/** The number of people */
+	private final int people;
+
+	/** The family keys, sorted */
+	private final String[] familyKeys;
+	/** The kinship of each family */
+	private final Kinship[] kinships;
+	/** The number of members of each family */
+	private final int[] familySizes;
+	/** The position where each family starts in the tables */
+	private final int[] familyStarts;
+
+	/** The methylation sites */
+	private final Marker[] markers;
+	/** The chromosome of each methylation site, as the position
+		of its name in the list of chromosomes, or -1 if unknown */
+	private final int[] chromosomes;
+	/** The position of each methylation site */
+	private final long[] positions;
+	/** The methylation sites of each chromosome, sorted by position */
+	private final int[][] sorted;
+	/** The missingness pattern of each methylation site, or
+		null if the patterns are not set */
+	private final String[] patterns;
+
+	/** The names of the phenotypes */
+	private final String[] phenotypeNames;
+
+	/** The maximum number of values stored in the cached templates */
+	private long templateLimit;
+	/** The model templates, by set of analysable individuals, 
+		from the least recently used */
+	private final LinkedHashMap<BitSet, ModelTemplate> templates;
+	/** The number of values stored in the cached templates */
+	private long templateMemory;
+
+	/**
+		Constructor.
+
+		Takes the snapshot of the data stored in the given
+		DataManager.
+
+		@param dm the data manager
+	*/
+	Snapshot(DataManager dm)
+	{
+		datamanager = dm;
+		methylations = dm.methylations();
+		phenotypes = dm.phenotypes();
+		covariates = dm.covariates();
+		numCovar = dm.numCovar();
+		people = dm.people();
+
+		//families are stored in the order of their keys,
+		//one after the other
+		familyKeys = dm.familyKeys().clone();
+		kinships = new Kinship[familyKeys.length];
+		familySizes = new int[familyKeys.length];
+		familyStarts = new int[familyKeys.length];
+		int start = 0;
+		for (int f=0; f<familyKeys.length; f++)
+		{
+			Family family = dm.families().get(familyKeys[f]);
+			kinships[f] = family.kinship();
+			familySizes[f] = family.numMembers();
+			familyStarts[f] = start;
+			start += familySizes[f];
+		}
+
+		Vector<Marker> list = dm.listMeths();
+		markers = list.toArray(new Marker[list.size()]);
+		chromosomes = new int[markers.length];
+		positions = new long[markers.length];
+		HashMap<String, Integer> codes = new HashMap<>();
+		for (int i=0; i<markers.length; i++)
+		{
+			positions[i] = markers[i].position();
+			String chr = markers[i].chromosome();
+			if (chr == null)
+			{
+				chromosomes[i] = -1;
+				continue;
+			}
+
+			Integer code = codes.get(chr);
+			if (code == null)
+			{
+				code = codes.size();
+				codes.put(chr, code);
+			}
+			chromosomes[i] = code;
+		}
+		sorted = sortByPosition(codes.size());
+
+		if (Constants.mode == Utilities.MODE_ASSOCIATION)
+		{
+			patterns = new String[markers.length];
+			for (int i=0; i<markers.length; i++)
+				patterns[i] = dm.missingnessMethPattern(i);
+		}
+		else
+			patterns = null;
+
+		phenotypeNames = new String[dm.phenotypeNames().size()];
+		for (int p=0; p<phenotypeNames.length; p++)
+			phenotypeNames[p] = dm.phenotypeNames().get(p).name();
+
+		templates = new LinkedHashMap<>(16, 0.75f, true);
+		templateMemory = 0;
+		templateLimit = 0;
+	}
+
+	/**
+		Sorts the methylation sites of each chromosome by position.
+
+		@param n the number of chromosomes
+		@return the positions of the methylation sites of each chromosome, sorted by position
+	*/
+	private int[][] sortByPosition(int n)
+	{
+		int[] counts = new int[n];
+		for (int chr : chromosomes)
+			if (chr >= 0)
+				counts[chr]++;
+
+		Integer[][] sites = new Integer[n][];
+		for (int c=0; c<n; c++)
+			sites[c] = new Integer[counts[c]];
+		Arrays.fill(counts, 0);
+		for (int i=0; i<chromosomes.length; i++)
+			if (chromosomes[i] >= 0)
+				sites[chromosomes[i]][counts[chromosomes[i]]++] = i;
+
+		int[][] result = new int[n][];
+		for (int c=0; c<n; c++)
+		{
+			Arrays.sort(sites[c], new Comparator<Integer>()
+			{
+				@Override
+				public int compare(Integer a, Integer b)
+				{
+					return Long.compare(positions[a], positions[b]);
+				}
+			});
+
+			result[c] = new int[sites[c].length];
+			for (int i=0; i<sites[c].length; i++)
+				result[c][i] = sites[c][i];
+		}
+
+		return result;
+	}
+
+	/**
+		Returns the table of methylation values.
+
+		@return the table of methylation values
+	*/
+	public PredictorTable methylations()
+	{
+		return methylations;
+	}
+
+	/**
+		Returns the table of phenotype values.
+
+		@return the table of phenotype values
+	*/
+	public double[][] phenotypes()
+	{
+		return phenotypes;
+	}
+
+	/**
+		Returns the table of covariates values.
+
+		@return the table of covariates values
+	*/
+	public double[][] covariates()
+	{
+		return covariates;
+	}
+
+	/**
+		Returns the number of covariates.
+
+		@return the number of covariates
+	*/
+	public int numCovar()
+	{
+		return numCovar;
+	}
+
+	/**
+		Returns the number of people.
+
+		@return the number of people
+	*/
+	public int people()
+	{
+		return people;
+	}
+
+	/**
+		Returns the number of families.
+
+		@return the number of families
+	*/
+	public int numFamilies()
+	{
+		return familyKeys.length;
+	}
+
+	/**
+		Returns the key of the f-th family.
+
+		@param f the position of the family
+		@return the family key
+	*/
+	public String familyKey(int f)
+	{
+		return familyKeys[f];
+	}
+
+	/**
+		Returns the kinship of the f-th family.
+
+		@param f the position of the family
+		@return the kinship
+	*/
+	public Kinship kinship(int f)
+	{
+		return kinships[f];
+	}
+
+	/**
+		Returns the number of members of the f-th family.
+
+		@param f the position of the family
+		@return the number of members
+	*/
+	public int familySize(int f)
+	{
+		return familySizes[f];
+	}
+
+	/**
+		Returns the position where the f-th family starts in
+		the tables.
+
+		@param f the position of the family
+		@return the position of its first member
+	*/
+	public int familyStart(int f)
+	{
+		return familyStarts[f];
+	}
+
+	/**
+		Returns the number of methylation sites.
+
+		@return the number of methylation sites
+	*/
+	public int numSites()
+	{
+		return markers.length;
+	}
+
+	/**
+		Returns the m-th methylation site.
+
+		@param m the position of the methylation site
+		@return the methylation site
+	*/
+	public Marker marker(int m)
+	{
+		return markers[m];
+	}
+
+	/**
+		Returns the missingness pattern of the m-th methylation site.
+
+		@param m the position of the methylation site
+		@return the missingness pattern (code)
+	*/
+	public String pattern(int m)
+	{
+		assert patterns != null : "Internal error: missingness pattern should not be required when predictor heritability is assessed.";
+
+		return patterns[m];
+	}
+
+	/**
+		Returns the number of phenotypes.
+
+		@return the number of phenotypes
+	*/
+	public int numPhenotypes()
+	{
+		return phenotypeNames.length;
+	}
+
+	/**
+		Returns the name of the p-th phenotype.
+
+		@param p the position of the phenotype
+		@return the phenotype name
+	*/
+	public String phenotypeName(int p)
+	{
+		return phenotypeNames[p];
+	}
+
+	/**
+		Extracts the methylation sites that are within the window
+		of the region-based tests from the m-th methylation site,
+		that is on the same chromosome and with a position in
+		[position, position + region].
+
+		The sites of the chromosome are searched by binary search,
+		and they are returned sorted by their position in the list
+		of methylation sites, as in Marker.getMarkersInWindow().
+
+		@param m the position of the methylation site
+		@return the positions of the methylation sites within the window
+		@throws Exception if the chromosome of the methylation site is unknown
+		@see com.github.alesssia.poppante.Marker#getMarkersInWindow(Vector)
+	*/
+	public Vector<Integer> window(int m) throws Exception
+	{
+		assert Constants.region != Utilities.INVALID_I : "Internal error: region-base testing called when single predictor is required.";
+
+		if (chromosomes[m] < 0)
+			throw new Exception("ERROR: the region-based tests require the chromosome of the predictors.");
+
+		int[] sites = sorted[chromosomes[m]];
+		long from = positions[m];
+		long to = from + Constants.region;
+
+		//first site whose position is not smaller than from
+		int first = 0;
+		int last = sites.length;
+		while (first < last)
+		{
+			int mid = (first + last) >>> 1;
+			if (positions[sites[mid]] < from)
+				first = mid + 1;
+			else
+				last = mid;
+		}
+
+		int end = first;
+		while (end < sites.length && positions[sites[end]] <= to)
+			end++;
+
+		int[] indices = Arrays.copyOfRange(sites, first, end);
+		Arrays.sort(indices);
+
+		Vector<Integer> window = new Vector<>(indices.length);
+		for (int i : indices)
+			window.add(i);
+		return window;
+	}
+
+	/**
+		Sets the maximum number of values stored in the cached 
+		templates, evicting the least recently used ones that
+		do not fit.
+		
+		Until it is set, no template is cached.
+
+		@param values the number of values
+		@see com.github.alesssia.poppante.Admission
+	*/
+	public void limitTemplates(long values)
+	{
+		synchronized (templates)
+		{
+			templateLimit = values;
+			evictTemplates();
+		}
+	}
+
+	/**
+		Returns the model template for the given analysable
+		individuals.
+
+		Templates are cached until they take more than the
+		maximum number of values; after that, the least recently
+		used ones are evicted. A template larger than the whole
+		cache is built for the test only.
+
+		@param analysable the list of families to analyse
+		@return the model template
+		@see com.github.alesssia.poppante.ModelTemplate
+	*/
+	public ModelTemplate template(Analysable analysable)
+	{
+		BitSet key = analysable.individuals();
+		synchronized (templates)
+		{
+			ModelTemplate cached = templates.get(key);
+			if (cached != null)
+				return cached;
+		}
+
+		//it is built outside the monitor, so that the other tests do not wait
+		ModelTemplate template = new ModelTemplate(this, analysable);
+		synchronized (templates)
+		{
+			ModelTemplate cached = templates.get(key);
+			if (cached != null)
+				return cached;
+
+			if (template.size() <= templateLimit)
+			{
+				templates.put(key, template);
+				templateMemory += template.size();
+				evictTemplates();
+			}
+		}
+		return template;
+	}
+
+	/**
+		Accounts for the values added to a template after it
+		has been built (that is, the eigendecomposition of the 
+		kinship of a family), evicting the least recently used 
+		templates that do not fit any more.
+
+		@param template the template
+		@param values the number of values added
+	*/
+	public void growTemplate(ModelTemplate template, long values)
+	{
+		synchronized (templates)
+		{
+			template.grow(values);
+			if (templates.get(template.key()) != template)
+				return;
+
+			templateMemory += values;
+			evictTemplates();
+		}
+	}
+
+	/**
+		Evicts the least recently used templates, until the 
+		cached ones take at most the maximum number of values.
+
+		@precondition the monitor of the templates is held
+	*/
+	private void evictTemplates()
+	{
+		Iterator<ModelTemplate> eldest = templates.values().iterator();
+		while (templateMemory > templateLimit && eldest.hasNext())
+		{
+			templateMemory -= eldest.next().size();
+			eldest.remove();
+		}
+	}
+
+	/**
+		Computes the fingerprint of the data, from the names of
+		the phenotypes and the methylation sites, the tables,
+		and the kinships of the families.
+
+		@return the fingerprint
+		@see com.github.alesssia.poppante.Journal
+	*/
+	public long fingerprint()
+	{
+		long h = people;
+		h = 31 * h + numCovar;
+		for (String name : phenotypeNames)
+			h = 31 * h + name.hashCode();
+		for (Marker marker : markers)
+			h = 31 * h + marker.name().hashCode();
+		h = methylations.fingerprint(h);
+		for (double[][] table : new double[][][] {phenotypes, covariates})
+			if (table != null)
+				for (double[] row : table)
+					h = 31 * h + Arrays.hashCode(row);
+		for (int f=0; f<familyKeys.length; f++)
+		{
+			h = 31 * h + familyKeys[f].hashCode();
+			for (int i=0; i<familySizes[f]; i++)
+				for (int j=0; j<=i; j++)
+				{
+					long bits = Double.doubleToLongBits(kinships[f].getValue(i, j));
+					h = 31 * h + (bits ^ (bits >>> 32));
+				}
+		}
+
+		return h;
+	}
+
+	/**
+		Returns the null model for the given phenotype and the
+		missingness pattern of the given methylation site.
+
+		@param phenotypePosition the phenotype for which we want to extract the null model
+		@param methylationPosition the methylation site for which we want to extract the null model
+		@return the null model
+		@see com.github.alesssia.poppante.DataManager#getNull(int, int)
+	*/
+	public NullModel getNull(int phenotypePosition, int methylationPosition)
+	{
+		return datamanager.getNull(phenotypePosition, methylationPosition);
+	}
+}
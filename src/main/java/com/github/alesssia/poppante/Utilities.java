@@ -76,6 +76,8 @@ class Utilities
 	public static final int MODE_HERITABILITY 	= 1;
 	/** Code for analysis mode "association" */	
 	public static final int MODE_ASSOCIATION 	= 2;	
+	/** Code for analysis mode "merge" */	
+	public static final int MODE_MERGE 		= 3;	
 	
 	//////////////////////////
 	//List of non-valid values
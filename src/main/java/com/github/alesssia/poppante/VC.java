@@ -49,7 +49,7 @@ import com.github.alesssia.probutils.*;
 class VC extends Permutable
 {
 	/** This is where the data are stored */
-	private DataManager datamanager;
+	private final Snapshot data;
 	/** List of analysable families along with the
 		number of members that can be analysed */
 	private Analysable analysable;
@@ -57,6 +57,8 @@ class VC extends Permutable
 	public static final int VC_FULL = 2; 	
 	/** VC dimension of the Null model */
 	public static final int VC_NULL = 2; 	/** VC dimension parameter */
+	/** Number of permutations drawn at time when the variances are fixed */
+	private static final int PERMUTATION_BATCH = 100;
 	
 	/** Number of Subjects used in the model */
 	private int numSubjects;		 // used for the degree of freedom 
@@ -113,6 +115,10 @@ class VC extends Permutable
 	private NullModel nullModel;
 	/** Whether then null model should be set */
 	private boolean setNull;
+	/** Permutation tests with fixed variances. 
+		
+		If null, the full model is fitted for each permutation */
+	private FixedPermutation fixed;
 
 	/**
 		Constructor. 
@@ -120,33 +126,30 @@ class VC extends Permutable
 		@param p position of the phenotype in the person's phenotypes list
 		@param s position of the methylation site in the person's methylation sites list
 		@param families the list of families to analyse
-		@param dm the data manager object
+		@param dm the snapshot of the data
 	*/
-    public VC(int p, int s, Analysable families, DataManager dm) 
+    public VC(int p, int s, Analysable families, Snapshot dm) 
 	{
 		phn = p;
 		site = s;
 		sites = null;
 		
-		datamanager = dm;
+		data = dm;
 		analysable = families;
 			
 		//Initialises linear models' size and model themselves
-		linearNull = datamanager.numCovar() + 1; 
+		linearNull = data.numCovar() + 1; 
 		if (Constants.mode == Utilities.MODE_ASSOCIATION)
 		{
-			//Gets the null model
-			nullModel = datamanager.getNull(phn);
-			
-			//tries to undestand whether the null model can be used or not
-			//If the missingness pattern are the same for the variables 
-			//then I can use it and there is not need to set the null model
-			//However, this can be the first time I analyse this phenotype, 
-			//that is still not set, so I need to evaluate it (and set it)
-			//anyway
-			setNull = !nullModel.isSet() || !datamanager.missingnessMethPattern(site).equals(nullModel.missingnessPattern());
+			//Gets the null model shared by the methylation sites having 
+			//the same missingness pattern for this phenotype.
+			//If it has already been evaluated there is no need to set 
+			//the null model. Otherwise, the null model is set and it 
+			//is evaluated by this test, unless another test does it first
+			nullModel = data.getNull(phn, site);
+			setNull = !nullModel.isSet();
 			
-			linearFull = datamanager.numCovar() + 2;  
+			linearFull = data.numCovar() + 2;  
 			if (setNull)
 				nullSet = new NormalSet(analysable.numFamilies(), linearNull, VC_NULL);
 			else
@@ -155,11 +158,20 @@ class VC extends Permutable
 		else
 		{
 			setNull = true;
-			linearFull = datamanager.numCovar() + 1; //the linear model has not fixed effect
+			linearFull = data.numCovar() + 1; //the linear model has not fixed effect
 			nullSet = new NormalSet(analysable.numFamilies(), linearNull, VC_NULL-1 ); //vg is not loaded
 		}
 		fullSet = new NormalSet(analysable.numFamilies(), linearFull, VC_FULL);
 		
+		//the budget is shared by all the models fitted by the test
+		if (Budget.isSet())
+		{
+			Budget budget = new Budget();
+			fullSet.setBudget(budget);
+			if (nullSet != null)
+				nullSet.setBudget(budget);
+		}
+		
 		//initialises an handful of data structures
 		counter = -1;
 		numSubjects = 0;	
@@ -169,6 +181,7 @@ class VC extends Permutable
 		
 		meths = new Vector<>();
 		ys = new Vector<>();
+		fixed = null;
 	}
 	
 	
@@ -213,18 +226,24 @@ class VC extends Permutable
 		
 		Each model represents a family. When unrelated individuals
 		are used there is only a family.
+		
+		The random effects and the covariates are read from the 
+		template shared by the tests having the same analysable
+		individuals, thus only outcomes and predictors are filled.
+		
+		@see com.github.alesssia.poppante.ModelTemplate
 	*/
 	public void fill()
 	{
+		ModelTemplate template = data.template(analysable);
+		
 		for (int i=0; i<analysable.numFamilies(); i++)
 		{
-			prepare(analysable.analysableFamiles(i).numAnalysable());
+			prepare(analysable.analysableFamiles(i).numAnalysable(), template);
 			AnalysableFamily family = analysable.analysableFamiles(i);
 			
-			fillKinship(family); 			//setVarComponents
-			
-			if (datamanager.numCovar() != 0)
-				fillCovariates(family); 		//setLinearModel
+			if (data.numCovar() != 0)
+				fillCovariates(template); 		//setLinearModel
 		
 			if (Constants.mode == Utilities.MODE_ASSOCIATION)
 			{	
@@ -234,6 +253,14 @@ class VC extends Permutable
 			else
 	 			fillMethScore(family); 	//setScores	
 			
+			//the null and the full models share the same kinship, 
+			//thus it is decomposed only once
+			if ((fullSet.sets(counter)).isSpectral())
+			{
+				(fullSet.sets(counter)).setSpectrum(template.spectrum(counter));
+				if (Constants.mode == Utilities.MODE_ASSOCIATION && setNull)
+					(nullSet.sets(counter)).setSpectrum(template.spectrum(counter));
+			}
 		}	
 	}
 
@@ -249,16 +276,19 @@ class VC extends Permutable
 		site m (when the analysis mode is "association").
 		
 		@param size the number of analysable family members
+		@param template the template of the equations
 		@see com.github.alesssia.poppante.Normal
 	*/
-	private void prepare(int size) 
+	private void prepare(int size, ModelTemplate template) 
 	{
 		counter++;		//it's the position of the family in the sets of model
 
-		(fullSet.sets(counter)).prepare(size);
+		//vg component should be always filled when association is calculated
+		//and only for the full model when heritability is calculated
+		(fullSet.sets(counter)).prepare(size, template.varComponents(counter, VC_FULL));
 		
 		if (setNull)
-			(nullSet.sets(counter)).prepare(size);
+			(nullSet.sets(counter)).prepare(size, template.varComponents(counter, (Constants.mode == Utilities.MODE_ASSOCIATION) ? VC_NULL : VC_NULL-1));
 		
 		numSubjects += size;
 	}
@@ -266,67 +296,15 @@ class VC extends Permutable
 	/**
 		Fills the linear models (predictors) with the covariate values.
 		
-		@param f the family to be modelled
+		@param template the template of the equations
 		@see com.github.alesssia.poppante.Normal
 	*/	
-	private void fillCovariates(AnalysableFamily f)
-	{
-	    int l = 0;
-		Family family = datamanager.families().get(f.famID());
-		for (int i=0; i<family.numMembers(); i++)
-		{
-			int position = f.startPos()+i;
-			if (analysable.isAnalysable(position))
-			{
-				double[] covariates = new double[datamanager.numCovar()];
-				for (int c = 0; c < covariates.length; c++) 
-				{
-					(fullSet.sets(counter)).setLinearModel(l, (linearFull-datamanager.numCovar()+c), datamanager.covariates()[c][position]);
-					
-					if (setNull)
-						(nullSet.sets(counter)).setLinearModel(l, (linearNull-datamanager.numCovar()+c), datamanager.covariates()[c][position]);
-				}
-				l++;
-			}
-		}
-	}
-
-	/**
-		Fills the variant component with the kinship values.
-		
-		@param f the family to be modelled
-		@see com.github.alesssia.poppante.Normal
-	*/
-	private void fillKinship(AnalysableFamily f) 
+	private void fillCovariates(ModelTemplate template)
 	{
-		Family family = datamanager.families().get(f.famID());
-		Kinship kinship = family.kinship();
+		(fullSet.sets(counter)).setLinearModel(template.covariates(counter), linearFull-data.numCovar());
 		
-		int ik = 0;		
-		for (int i=0; i<family.numMembers(); i++)
-		{
-			if (analysable.isAnalysable(f.startPos()+i))
-			{
-				int jk = ik;
-				for (int j=i; j<family.numMembers(); j++)
-				{
-					if (analysable.isAnalysable(f.startPos()+j))
-					{
-						double value = kinship.getValue(i, j);
-
-						//vg component should be always filled when association is calculated
-						//and only for the full model when heritability is calculated
-						if (Constants.mode == Utilities.MODE_ASSOCIATION && setNull)
-							(nullSet.sets(counter)).setVarComponents(1, ik, jk, value);
-						
-						(fullSet.sets(counter)).setVarComponents(1, ik, jk, value);
-						
-						jk++;
-					}	
-				}
-				ik++;				
-			}
-		}
+		if (setNull)
+			(nullSet.sets(counter)).setLinearModel(template.covariates(counter), linearNull-data.numCovar());
 	}
 
 
@@ -344,13 +322,12 @@ class VC extends Permutable
 		assert Constants.mode == Utilities.MODE_ASSOCIATION : "Internal error: VC should not use the response values as dependent variable when heritability testing is performed.";
      
 		int l = 0;
-		Family family = datamanager.families().get(f.famID());
-		for (int i=0; i<family.numMembers(); i++)
+		for (int i=0; i<f.numMembers(); i++)
 		{
 			int position = f.startPos()+i;
 			if (analysable.isAnalysable(position))
 			{
-				double phenotype = datamanager.phenotypes()[phn][position];
+				double phenotype = data.phenotypes()[phn][position];
 				ys.add(phenotype); //FIXME: why vector?
 				
 				if (setNull)
@@ -395,13 +372,12 @@ class VC extends Permutable
 	private void fillMethScoreStandard(AnalysableFamily f) 
 	{     		
 		int l = 0;
-		Family family = datamanager.families().get(f.famID());
-		for (int i=0; i<family.numMembers(); i++)
+		for (int i=0; i<f.numMembers(); i++)
 		{
 			int position = f.startPos()+i;
 			if (analysable.isAnalysable(position))
 			{
-				double methylation = datamanager.methylations()[site][position];
+				double methylation = data.methylations().get(site, position);
 				(nullSet.sets(counter)).setScores(l, methylation); 
 				(fullSet.sets(counter)).setScores(l, methylation); 
 				l++;
@@ -427,12 +403,11 @@ class VC extends Permutable
 		//I can use directly the PC values because I have a value per person,
 		//and the invalid people have already been marked as such (in fact the
 		//PC has valid values for them)
-		MarkerRegion markerRegion = new MarkerRegion(sites, datamanager.methylations());
+		MarkerRegion markerRegion = new MarkerRegion(sites, data.methylations());
 		double[] pc = markerRegion.summarise();
 		
 		int l = 0;
-		Family family = datamanager.families().get(f.famID());
-		for (int i=0; i<family.numMembers(); i++)
+		for (int i=0; i<f.numMembers(); i++)
 		{
 			int position = f.startPos()+i;
 			if (analysable.isAnalysable(position))
@@ -477,15 +452,14 @@ class VC extends Permutable
 	private void fillMethSitesStandard(AnalysableFamily f) 
 	{
 		int l = 0;
-		Family family = datamanager.families().get(f.famID());
-		for (int i=0; i<family.numMembers(); i++)
+		for (int i=0; i<f.numMembers(); i++)
 		{
 			int position = f.startPos()+i;
 			if (analysable.isAnalysable(position))
 			{
-				double methylation = datamanager.methylations()[site][position];
+				double methylation = data.methylations().get(site, position);
                 meths.add(methylation); 
-				(fullSet.sets(counter)).setLinearModel(l, (linearFull-datamanager.numCovar()-1), methylation); 
+				(fullSet.sets(counter)).setLinearModel(l, (linearFull-data.numCovar()-1), methylation); 
 				l++;
 			}	
 		}
@@ -506,7 +480,7 @@ class VC extends Permutable
 	*/	
 	private void fillMethSitesPC(AnalysableFamily f) //FIXME
 	{
-		MarkerRegion markerRegion = new MarkerRegion(sites, datamanager.methylations());
+		MarkerRegion markerRegion = new MarkerRegion(sites, data.methylations());
 		
 		//I can use directly the PC values because I have a value per person,
 		//and the invalid people have already been marked as such (in fact the
@@ -514,13 +488,12 @@ class VC extends Permutable
 		double[] pc = markerRegion.summarise();
 		
 		int l = 0;
-		Family family = datamanager.families().get(f.famID());
-		for (int i=0; i<family.numMembers(); i++)
+		for (int i=0; i<f.numMembers(); i++)
 		{
 			int position = f.startPos()+i;
 			if (analysable.isAnalysable(position))
 			{
-				(fullSet.sets(counter)).setLinearModel(l, (linearFull-datamanager.numCovar()-1), pc[position]);		
+				(fullSet.sets(counter)).setLinearModel(l, (linearFull-data.numCovar()-1), pc[position]);		
 				l++;
 			}
 		}
@@ -547,12 +520,16 @@ class VC extends Permutable
 		"association" it evaluates an empirical p-value by means of
 		a set of permutation tests.    
 		
+		If the prescreen option is set, the full model is fitted 
+		only when the score test is significant.
+		
 		@return the result of the test
+		@throws InterruptedException if the thread is interrupted while waiting for the null model
 		@see com.github.alesssia.poppante.Constants  
 		@see com.github.alesssia.poppante.Normal
 		@see com.github.alesssia.poppante.Result
 	*/                                 	
-	public Result solve() 
+	public Result solve() throws InterruptedException
 	{
 		statisticNull = Utilities.INVALID_D;
 		int dfNull = Utilities.INVALID_I;
@@ -561,49 +538,30 @@ class VC extends Permutable
 		
 		try 
 		{
-			//If not done beforehands the Null Model should be
-			//evaluated
-			if (setNull)
-			{
-				nullSet.disableConstant();
-				nullSet.solve();
-				nullSet.enableConstant();	
-				
-				//Permute must not take any parameter as required by the
-				//adapte function. To speed up the computation I can,
-				//however, avoid the evaluation of the "statisticNull"
-				//and I am thus storing it in an istance variable (while the
-				//"statisticFull" is stored in a local variable)
-				//This value is also set globally, if this test has a 
-				//common missingness pattern
-				statisticNull = nullSet.evaluate();
-				dfNull = numSubjects - nullSet.countParameters();
-				variancesNull = nullSet.variances();
-				detailsNull = nullSet.evaluateDetails();
-				
-				//now that I have calculate it, I store it (but only
-				//if this is my missingness pattern), otherwise who cares?
-				//Also, I need to store it only for association testing
-				if (Constants.mode == Utilities.MODE_ASSOCIATION && datamanager.missingnessMethPattern(site).equals(nullModel.missingnessPattern()))
-				{
-					nullModel.setlogLikelihood(statisticNull);
-					nullModel.setDf(dfNull);
-					nullModel.setVariances(variancesNull.clone());
-					nullModel.setDetails(detailsNull.clone());
-				}
-			}
-			else
+			NullModel model = solveNull();
+			statisticNull = model.logLikelihood();
+			dfNull = model.df();
+			variancesNull = model.variances();
+			detailsNull = model.details();
+			
+			//only the associations passing the score test are fitted
+			if (Constants.prescreen != Utilities.INVALID_D)
 			{
-				statisticNull = nullModel.logLikelihood();
-				dfNull = nullModel.df();
-				variancesNull = nullModel.variances();
-				detailsNull = nullModel.details();
+				Result screened = prescreen(dfNull, variancesNull);
+				if (screened != null)
+					return screened;
 			}
 			
 			fullSet.solve();
 			fullSet.disableConstant();
 			fullSet.enableConstant();
 		} 
+		catch (InterruptedException e) 
+		{
+			//the test has not been performed, and it is not a result
+			java.lang.Thread.currentThread().interrupt();
+			throw e;
+		}
 		catch (Exception e) 
 		{
 			return new Result(e.getMessage());
@@ -637,17 +595,342 @@ class VC extends Permutable
 			ve = beta * beta *  var / Utilities.variance(ys, true);
 			se = Math.abs(beta/Math.sqrt(chi2)); 
 		}
+		//the permutations change the full model
+		double[] variancesFull = fullSet.variances().clone();
+		
 		//performs the permutation tests
 		double epvalue = Utilities.INVALID_D;
 		if (Constants.alpha != Utilities.INVALID_D)
+			epvalue = permutationTest(pvalue, variancesNull);
+		
+		Result result = new Result(numSubjects, statisticNull, statisticFull, dfNull, dfFull, chi2, pvalue, epvalue, posF, giniC, variancesNull, variancesFull, heritability, beta, se, ve);
+		setOptimisation(result);
+		
+		return result;
+	}
+	
+	/**
+		Evaluates the null model shared by the tests having the 
+		same phenotype and missingness pattern, without testing 
+		the methylation site.
+		
+		It is used to fit the null model beforehands, so that the 
+		tests sharing it find it ready. If the evaluation fails, the 
+		exception is raised again by the tests themselves.
+		
+		@precondition the VC has been filled
+		
+		@return whether the null model has been evaluated by this object
+		@throws InterruptedException if the thread is interrupted while waiting for the null model
+		@see com.github.alesssia.poppante.NullModel
+	*/
+	public boolean fitNull() throws InterruptedException
+	{
+		assert Constants.mode == Utilities.MODE_ASSOCIATION : "Internal error: the null model is shared only when association testing is performed.";
+		
+		try
+		{
+			solveNull();
+		}
+		catch (RuntimeException e)
 		{
-			Adaptive<VC> adaptive = new Adaptive<>(Constants.alpha, Constants.c, this);
-			epvalue = adaptive.adapt(pvalue);
+			return false;
 		}
 		
-		return new Result(numSubjects, statisticNull, statisticFull, dfNull, dfFull, chi2, pvalue, epvalue, posF, giniC, variancesNull, fullSet.variances(), heritability, beta, se, ve);
+		return setNull;
 	}
+	
+	/**
+		Evaluates the null model, if not done beforehands.
+		
+		When association is tested, the null model is shared by
+		the tests having the same missingness pattern: only one 
+		test evaluates it, while the others wait and use it.
+		
+		@return the null model
+		@throws InterruptedException if the thread is interrupted while waiting for the null model
+		@see com.github.alesssia.poppante.NullModel
+	*/
+	private NullModel solveNull() throws InterruptedException
+	{
+		//When heritability is tested the null model is never shared
+		NullModel model = (nullModel == null) ? new NullModel() : nullModel;
+		if (setNull)
+			setNull = model.claim();
+		
+		if (setNull)
+		{
+			try
+			{
+				nullSet.disableConstant();
+				nullSet.solve();
+				nullSet.enableConstant();	
 
+				//Permute must not take any parameter as required by the
+				//adapte function. To speed up the computation I can,
+				//however, avoid the evaluation of the "statisticNull"
+				//and I am thus storing it in an istance variable (while the
+				//"statisticFull" is stored in a local variable)
+				//This value is also shared with the tests having the
+				//same missingness pattern
+				model.publish(nullSet.evaluate(), numSubjects - nullSet.countParameters(), nullSet.variances(), nullSet.evaluateDetails());
+			}
+			finally
+			{
+				//if the evaluation failed, another test can try
+				model.release();
+			}
+		}
+		
+		return model;
+	}
+	
+	/**
+		Performs the score test for the tested methylation site, using 
+		the variances of the null model.
+		
+		The full model differs from the null model only by the column 
+		of the methylation site, thus the score test requires only 
+		the generalised least squares normal equations of the full 
+		model evaluated with the variances of the null model.
+		
+		If the p-value of the score test is larger than the prescreen 
+		threshold, the result of the score test is returned, where beta 
+		is estimated with the variances of the null model, and both the 
+		log likelihood and the variances of the full model are not 
+		available. The p-value is also used as empirical p-value, 
+		since no permutation is performed.
+		
+		@param dfNull the degree of freedom of the null model
+		@param variancesNull the variances of the null model
+		@return the result of the score test, or null if the full model should be fitted
+		@see com.github.alesssia.poppante.Constants  
+		@see com.github.alesssia.poppante.NormalSet
+	*/
+	private Result prescreen(int dfNull, double[] variancesNull)
+	{
+		assert Constants.mode == Utilities.MODE_ASSOCIATION : "Internal error: the score test should be performed only when association testing is performed.";
+		
+		double[] score = fullSet.scoreTest(variancesNull, 1);
+		Result result = screened(score, Utilities.variance(meths, true), dfNull, variancesNull);
+		if (result != null)
+			setOptimisation(result);
+		
+		return result;
+	}
+	
+	/**
+		Performs the score test for a block of methylation sites 
+		sharing the missingness pattern of the tested one, using 
+		the variances of the null model.
+		
+		Since the null model and the people analysed are the same,
+		the generalised least squares normal equations of all the
+		sites are evaluated together, replacing the tested site in 
+		the full model. For each site, the result of the score test
+		is returned as in the prescreening, or null if the site 
+		should be tested by fitting its full model, that is when its 
+		p-value is smaller than or equal to the prescreen threshold.
+		
+		@precondition the VC has been filled
+		
+		@param block the positions of the methylation sites
+		@return the results of the score tests, null when the full model should be fitted
+		@throws InterruptedException if the thread is interrupted while waiting for the null model
+		@see com.github.alesssia.poppante.Constants  
+		@see com.github.alesssia.poppante.NormalSet
+	*/
+	public Result[] screen(Vector<Integer> block) throws InterruptedException
+	{
+		assert Constants.mode == Utilities.MODE_ASSOCIATION : "Internal error: the score test should be performed only when association testing is performed.";
+		
+		Result[] results = new Result[block.size()];
+		
+		//the methylation values of the analysable people, and their moments
+		double[][][] predictors = new double[analysable.numFamilies()][][];
+		double[] sum = new double[block.size()];
+		double[] sumSquares = new double[block.size()];
+		for (int f=0; f<analysable.numFamilies(); f++)
+		{
+			AnalysableFamily family = analysable.analysableFamiles(f);
+			predictors[f] = new double[family.numAnalysable()][block.size()];
+			
+			int l = 0;
+			for (int i=0; i<family.numMembers(); i++)
+			{
+				int position = family.startPos()+i;
+				if (analysable.isAnalysable(position))
+				{
+					for (int c=0; c<block.size(); c++)
+					{
+						double methylation = data.methylations().get(block.get(c), position);
+						predictors[f][l][c] = methylation;
+						sum[c] += methylation;
+						sumSquares[c] += methylation * methylation;
+					}
+					l++;
+				}
+			}
+		}
+		
+		//if the null model exceeds its budget, so would the full 
+		//models, and the warning is returned for all the sites;
+		//if anything else goes wrong, all the sites are fitted
+		double[][] scores;
+		int dfNull;
+		double[] variancesNull;
+		try
+		{
+			NullModel model = solveNull();
+			statisticNull = model.logLikelihood();
+			dfNull = model.df();
+			variancesNull = model.variances();
+			scores = fullSet.batchTest(variancesNull, 1, predictors);
+		}
+		catch (BudgetExceededException e)
+		{
+			for (int c=0; c<block.size(); c++)
+				results[c] = new Result(e.getMessage());
+			return results;
+		}
+		catch (RuntimeException e)
+		{
+			return results;
+		}
+		
+		boolean first = true;
+		for (int c=0; c<block.size(); c++)
+		{
+			double var = (sumSquares[c] - sum[c] * sum[c] / numSubjects) / (numSubjects - 1);
+			results[c] = screened(scores[c], var, dfNull, variancesNull);
+			
+			//the optimisation of the null model is reported only once
+			if (results[c] != null && first)
+			{
+				setOptimisation(results[c]);
+				first = false;
+			}
+		}
+		
+		return results;
+	}
+	
+	/**
+		Returns the result of a score test, unless the full model 
+		should be fitted.
+		
+		The full model is fitted when the methylation site carries no
+		information or when the p-value of the score test is smaller
+		than or equal to the prescreen threshold.
+		
+		@param score the score and the information of the methylation site
+		@param var the variance of the methylation site
+		@param dfNull the degree of freedom of the null model
+		@param variancesNull the variances of the null model
+		@return the result of the score test, or null if the full model should be fitted
+	*/
+	private Result screened(double[] score, double var, int dfNull, double[] variancesNull)
+	{
+		if (!(score[1] > 0))
+			return null;
+		
+		double chi2 = score[0] * score[0] / score[1];
+		double pvalue = ProbDist.gammq(0.5 * 1, 0.5 * chi2);
+		if (pvalue <= Constants.prescreen)
+			return null;
+		
+		int dfFull = numSubjects - fullSet.countParameters();
+		if (dfFull < 1 || dfNull < 1)
+			return new Result("Warning : not enough observations to estimate the model parameters");
+		
+		double heritability = variancesNull[1]/(variancesNull[0] + variancesNull[1]);
+		double beta = score[0] / score[1];
+		double ve = beta * beta * var / Utilities.variance(ys, true);
+		double se = Math.abs(beta/Math.sqrt(chi2)); 
+		
+		Result result = new Result(numSubjects, statisticNull, Utilities.INVALID_D, dfNull, dfFull, chi2, pvalue, pvalue, posF, giniC, variancesNull, null, heritability, beta, se, ve);
+		result.setScreened();
+		
+		return result;
+	}
+	
+	/**
+		Sets the information about the optimisation of the null
+		and full models to the given result.
+		
+		@param result the result of the test
+	*/
+	private void setOptimisation(Result result)
+	{
+		long evaluations = fullSet.evaluations();
+		long iterations = fullSet.iterations();
+		int fallbacks = fullSet.fallbacks();
+		if (setNull)
+		{
+			evaluations += nullSet.evaluations();
+			iterations += nullSet.iterations();
+			fallbacks += nullSet.fallbacks();
+		}
+		
+		result.setOptimisation(evaluations, iterations, fallbacks);
+	}
+
+	/**
+		Evaluates the empirical p-value by means of the adaptive
+		permutation procedure.
+		
+		When the permutation option is set to "fixed" the variances
+		are fixed to those of the null model, and both the observed
+		and the permuted statistics are the score statistics of the
+		whitened model, whose permutations are drawn in batches.
+		If the model can't be whitened, or the methylation site 
+		carries no information, the full model is fitted again for
+		each permutation, as by default.
+		
+		@param pvalue the p-value of the test
+		@param variancesNull the variances of the null model
+		@return the empirical p-value
+		@see com.github.alesssia.poppante.FixedPermutation
+	*/
+	private double permutationTest(double pvalue, double[] variancesNull)
+	{
+		fixed = null;
+		if (Constants.permutation != null && Constants.permutation.equals("fixed"))
+		{
+			try
+			{
+				fixed = new FixedPermutation(fullSet.whiten(variancesNull, 1));
+				if (!fixed.isInformative())
+					fixed = null;
+			}
+			catch (Exception e)
+			{
+				fixed = null;
+			}
+		}
+		
+		if (fixed != null)
+			return new Adaptive<>(Constants.alpha, Constants.c, this, PERMUTATION_BATCH).adapt(fixed.pvalue());
+		
+		return new Adaptive<>(Constants.alpha, Constants.c, this).adapt(pvalue);
+	}
+	
+	/**
+		Performs a batch of permutation tests and returns the 
+		p-values obtained by the permuted models.
+		
+		@param count the number of permutations
+		@return the p-values of the permuted models
+	*/
+	@Override
+	public double[] permute(int count)
+	{
+		if (fixed != null)
+			return fixed.permute(count);
+		
+		return super.permute(count);
+	}
+	
 	/**
 		Performs a permutation test and returns the p-value
 		obtained by the permuted model.
@@ -669,7 +952,7 @@ class VC extends Permutable
 		{
 			//permutes the data of each family
 			//after this step the full models are changed forever
-			for (int i=0; i<counter; i++)
+			for (int i=0; i<=counter; i++)
 			{
 				double[] meth = (fullSet.sets(i)).predictor(1); //Meths			
 				meth = Utilities.shuffle(meth);
@@ -687,6 +970,11 @@ class VC extends Permutable
 
 			return ProbDist.gammq(0.5 * 1, 0.5 * testValue);
 		}
+		catch (BudgetExceededException e)
+		{
+			//the whole test is stopped
+			throw e;
+		}
 		catch (Exception e)
 		{
 			//doing nothing, is the system can't be solved I assume
@@ -0,0 +1,359 @@
+/*
+ * 	 Workspace.java
+ *
+ *   PopPAnTe is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   PopPAnTe is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with PopPAnTe.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *   For any bugs or problems found, please contact us at
+ *   alessia.visconti@kcl.ac.uk
+ */
+
+package com.github.alesssia.poppante;
+
+import java.util.Arrays;
+
+/**
+	Stores the scratch buffers used when evaluating the likelihood
+	of the equations.
+
+	Each thread owns its workspace, that is created the first time
+	it is requested, and buffers are allocated once for each number
+	of observations. They are then reused across evaluations,
+	permutations and tests performed by the same thread, so that
+	the evaluation of the likelihood does not allocate memory.
+
+	When a test is admitted, the buffers of the sizes it does not
+	analyse are dropped, and the workspace is made large enough
+	to keep the buffers of all the sizes it analyses, so that a 
+	thread only keeps the buffers counted in the working set of 
+	the test it is running (see Admission), and none of them is 
+	allocated again while the test runs. Outside a test, when 
+	another size is requested and the workspace is full, the 
+	buffers of the least recently used one are dropped.
+
+	Buffers are overwritten by each evaluation: their content
+	is meaningless outside the method that requested them. The
+	only exception are the inverses of the covariance matrices,
+	that are kept by the equations between the evaluation of the
+	normal equations and the one of the score: a workspace holds
+	as many inverses of each size as the equations of that size, 
+	and they are handed out again only after a rewind, that is 
+	when the normal equations are evaluated again.
+
+	@author      Alessia Visconti <alessia.visconti@kcl.ac.uk>
+	@version     1.0
+	@see com.github.alesssia.poppante.Normal
+	@see com.github.alesssia.poppante.Admission
+*/
+
+class Workspace
+{
+	/** The number of sizes whose buffers are kept, before a test is admitted */
+	public static final int CAPACITY = 16;
+
+	/** The workspace of each thread */
+	private static final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>()
+	{
+		@Override
+		protected Workspace initialValue()
+		{
+			return new Workspace();
+		}
+	};
+
+	/** The buffers of each size, or null */
+	private Buffers[] buffers;
+	/** The vector used to store a row of V^-1X, sized by the number of fixed effects */
+	private double[] weights;
+	/** The number of requests, used to find the least recently used buffers */
+	private long clock;
+
+	/**
+		Constructor.
+
+		Initialises an empty workspace.
+	*/
+	private Workspace()
+	{
+		buffers = new Buffers[CAPACITY];
+		weights = new double[0];
+		clock = 0;
+	}
+
+	/**
+		Returns the workspace of the current thread.
+
+		@return the workspace
+	*/
+	public static Workspace current()
+	{
+		return workspaces.get();
+	}
+
+	/**
+		Returns the number of values stored by the buffers of a
+		thread when analysing the given sizes, that is the inverses
+		of all the equations and the other buffers of each size.
+
+		@param dims the numbers of observations, sorted and distinct
+		@param counts the number of equations of each size
+		@return the number of values
+	*/
+	public static long footprint(int[] dims, int[] counts)
+	{
+		long values = 0;
+		for (int i = 0; i < dims.length; i++)
+		{
+			long dim = dims[i];
+			values += (counts[i] + 2 + VC.VC_FULL - 1) * dim * dim + 2 * dim;
+		}
+		return values;
+	}
+
+	/**
+		Drops the buffers of the sizes that are not given, and
+		the inverses exceeding the number of equations of the
+		sizes that are given, and makes room for the buffers of
+		all the given sizes.
+		
+		Since the equations are evaluated always in the same 
+		order, the least recently used buffers would be those 
+		requested next: if the workspace could not keep all the
+		sizes, every request would allocate them again.
+
+		@param dims the numbers of observations to keep, sorted
+		@param counts the number of equations of each size
+	*/
+	public void retain(int[] dims, int[] counts)
+	{
+		if (buffers.length < dims.length)
+			buffers = Arrays.copyOf(buffers, dims.length);
+		
+		for (int i = 0; i < buffers.length; i++)
+		{
+			if (buffers[i] == null)
+				continue;
+			
+			int k = Arrays.binarySearch(dims, buffers[i].dim);
+			if (k < 0)
+				buffers[i] = null;
+			else
+			{
+				if (buffers[i].inverses.length > counts[k])
+					buffers[i].inverses = Arrays.copyOf(buffers[i].inverses, counts[k]);
+				buffers[i].taken = 0;
+			}
+		}
+	}
+
+	/**
+		Makes all the inverses available again: those handed out
+		before are overwritten by the next requests.
+	*/
+	public void rewind()
+	{
+		for (int i = 0; i < buffers.length; i++)
+			if (buffers[i] != null)
+				buffers[i].taken = 0;
+	}
+
+	/**
+		Returns the buffers of a size, allocating them (and
+		dropping the least recently used ones) if needed.
+
+		@param dim the number of observations
+		@return the buffers
+	*/
+	private Buffers buffers(int dim)
+	{
+		clock++;
+		int victim = 0;
+		for (int i = 0; i < buffers.length; i++)
+		{
+			Buffers b = buffers[i];
+			if (b != null && b.dim == dim)
+			{
+				b.used = clock;
+				return b;
+			}
+
+			//an empty slot is replaced first, then the least recently used buffers
+			if (buffers[victim] != null && (b == null || b.used < buffers[victim].used))
+				victim = i;
+		}
+
+		buffers[victim] = new Buffers(dim);
+		buffers[victim].used = clock;
+		return buffers[victim];
+	}
+
+	/**
+		Returns a dim x dim matrix used to store the covariance
+		matrix, that can be overwritten by its decomposition.
+
+		@param dim the number of observations
+		@return the matrix
+	*/
+	public double[][] covariances(int dim)
+	{
+		return buffers(dim).covariances;
+	}
+
+	/**
+		Returns a dim x dim identity matrix.
+
+		It must not be modified.
+
+		@param dim the number of observations
+		@return the identity matrix
+	*/
+	public double[][] identity(int dim)
+	{
+		Buffers b = buffers(dim);
+		if (b.identity == null)
+		{
+			b.identity = new double[dim][dim];
+			for (int i = 0; i < dim; i++)
+				b.identity[i][i] = 1.0;
+		}
+
+		return b.identity;
+	}
+
+	/**
+		Returns a vector used to store the residuals.
+
+		@param dim the number of observations
+		@return the vector
+	*/
+	public double[] residuals(int dim)
+	{
+		return buffers(dim).residuals;
+	}
+
+	/**
+		Returns a vector used to store the solution of a system.
+
+		@param dim the number of observations
+		@return the vector
+	*/
+	public double[] solution(int dim)
+	{
+		return buffers(dim).solution;
+	}
+
+	/**
+		Returns a dim x dim matrix used to store the inverse of
+		the covariance matrix of an equation.
+		
+		Each request, up to the next rewind, returns a different 
+		matrix, so that the equations of the same size do not
+		overwrite the inverses of one another.
+
+		@param dim the number of observations
+		@return the matrix
+	*/
+	public double[][] inverse(int dim)
+	{
+		Buffers b = buffers(dim);
+		if (b.taken == b.inverses.length)
+		{
+			b.inverses = Arrays.copyOf(b.inverses, b.taken + 1);
+			b.inverses[b.taken] = new double[dim][dim];
+		}
+
+		return b.inverses[b.taken++];
+	}
+
+	/**
+		Returns a dim x dim matrix used to store the product of 
+		the inverse of the covariance matrix and the k-th random 
+		effect.
+
+		@param dim the number of observations
+		@param k the random effect, starting from 1 (the first is the identity)
+		@return the matrix
+	*/
+	public double[][] product(int dim, int k)
+	{
+		Buffers b = buffers(dim);
+		if (b.products.length < k)
+			b.products = Arrays.copyOf(b.products, k);
+		if (b.products[k - 1] == null)
+			b.products[k - 1] = new double[dim][dim];
+
+		return b.products[k - 1];
+	}
+
+	/**
+		Returns a vector used to store a row of V^-1X, where X
+		are the fixed effects.
+		
+		Only its first length values are meaningful: it may be
+		longer, since the null and the full models do not have
+		the same number of fixed effects.
+
+		@param length the number of fixed effects
+		@return the vector
+	*/
+	public double[] weights(int length)
+	{
+		if (weights.length < length)
+			weights = new double[length];
+
+		return weights;
+	}
+
+	/**
+		The buffers of a size.
+	*/
+	private static class Buffers
+	{
+		/** The number of observations */
+		final int dim;
+		/** The matrix used to store the covariance matrix, and its decomposition */
+		final double[][] covariances;
+		/** The identity matrix, built when it is first requested */
+		double[][] identity;
+		/** The vector used to store the residuals */
+		final double[] residuals;
+		/** The vector used to store the solution of the systems */
+		final double[] solution;
+		/** The matrices used to store the inverses of the covariance matrices */
+		double[][][] inverses;
+		/** The number of inverses handed out since the last rewind */
+		int taken;
+		/** The matrices used to store the products of the inverse and the random effects */
+		double[][][] products;
+		/** When the buffers have been last requested */
+		long used;
+
+		/**
+			Constructor.
+
+			@param dim the number of observations
+		*/
+		Buffers(int dim)
+		{
+			this.dim = dim;
+			covariances = new double[dim][dim];
+			identity = null;
+			residuals = new double[dim];
+			solution = new double[dim];
+			inverses = new double[0][][];
+			taken = 0;
+			products = new double[0][][];
+			used = 0;
+		}
+	}
+}
@@ -51,6 +51,8 @@ public class Adaptive<T extends Permutable>
 		performs the permutation and returns the test statistic.
 	*/
 	private final T obj;	
+	/** Number of permutations drawn at time. */
+	private final int batch;
 
 	/**
 		Constructor.
@@ -60,10 +62,28 @@ public class Adaptive<T extends Permutable>
 		@param obj the object to assess
 	 */
 	public Adaptive(double alpha, double c, T obj)
+	{
+		this(alpha, c, obj, 1);
+	}
+	
+	/**
+		Constructor.
+		
+		Permutations are drawn in batches: when the procedure
+		stops in the middle of a batch, the remaining permutations
+		are ignored.
+		
+		@param alpha p-value one would like to estimate
+		@param c desired precision level of p-value estimation
+		@param obj the object to assess
+		@param batch the number of permutations drawn at time
+	 */
+	public Adaptive(double alpha, double c, T obj, int batch)
 	{
 		this.alpha = alpha;
 		this.c = c;
 		this.obj = obj;
+		this.batch = batch;
 	}
 	
 	/**
@@ -81,13 +101,19 @@ public class Adaptive<T extends Permutable>
 		
 		
 		int R = 0; //counts the number of successes
-		for(int B=1; B<=b; B++)
+		int B = 1;
+		while (B <= b)
 		{
-			if (obj.permute() <= pstar)
-				R++;
-		
-			if (R == r)
-				return ((double)R)/B;
+			double[] pvalues = (batch == 1) ? new double[] {obj.permute()} : obj.permute(Math.min(batch, b-B+1));
+			for (double pvalue : pvalues)
+			{
+				if (pvalue <= pstar)
+					R++;
+			
+				if (R == r)
+					return ((double)R)/B;
+				B++;
+			}
 		}
 		
 		return ((double)(R+1))/(b+1);
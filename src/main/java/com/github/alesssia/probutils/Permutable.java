@@ -48,4 +48,24 @@ public class Permutable
 		//1.1 is just a random value greater than every p-value
         return 1.1;
      }
+	
+	/**
+		Performs a batch of permutation tests and returns the 
+		p-values obtained by the permuted models.
+		
+		By default the permutations are performed one at a time,
+		but the actual class can override it when a batch of 
+		permutations can be evaluated more efficiently.
+		
+		@param count the number of permutations
+		@return p-values of the permuted models
+	*/
+	public double[] permute(int count)
+	{
+		double[] pvalues = new double[count];
+		for (int i = 0; i < count; i++)
+			pvalues[i] = permute();
+		
+		return pvalues;
+	}
 }
\ No newline at end of file
@@ -20,7 +20,6 @@
 
 package com.github.alesssia.statutils;
 
-import com.github.alesssia.arrayutils.*;
 import java.util.Arrays;
 
 /** 
@@ -38,10 +37,6 @@ import java.util.Arrays;
 
 public class BH extends FDR
 {
-	/**  The sorted p-values */
-    private RankVector pvaluesRank;
-	
-	
 	/**
 		Constructor.
 		
@@ -50,7 +45,6 @@ public class BH extends FDR
 	public BH()
 	{
 		super();
-		pvaluesRank = null;
 	}
 	
 	/**
@@ -63,7 +57,18 @@ public class BH extends FDR
 	public BH(Double[] pv)
 	{
 		super(pv);
-        pvaluesRank = null;
+	}
+	
+	/**
+		Constructor.
+		
+		It initialises the data structures, without boxing the p-values.
+		
+		@param pv the pvalues vector
+	*/	
+	public BH(double[] pv)
+	{
+		super(pv);
 	}
 	
 	/**
@@ -71,27 +76,34 @@ public class BH extends FDR
 		
 		p-values are ranked and then multiplied by the number of tests and divided by its assigned
 		rank to give the adjusted p-values.
+		
+		The p-values are sorted as primitives and each of them finds its rank by binary search.
+		Tied p-values share the same adjusted p-value, thus any of their ranks can be used.
 	*/	
     @Override
     public void adjust()
     {
-		pvaluesRank = new RankVector(pvalues);
-		pvaluesRank.rank();
-		
 		final int n = pvalues.length;
+		double[] sorted = Arrays.copyOf(pvalues, n);
+		Arrays.sort(sorted);
+		
+		double[] adjSorted = new double[n];
 		double min = Double.MAX_VALUE; 
         for(int i=n-1; i>=0; i--)
 		{
-			//rank vector counts from zero
-			double adj = (double)n/(i+1)*pvaluesRank.getAtRank(i);
+			//ranks count from zero
+			double adj = (double)n/(i+1)*sorted[i];
 			//I use the min to implemen the cumulative minimum
 			if (adj < min)
 				min = adj;
 			else
 				adj = min;
 			
-			adjPvalues[pvaluesRank.whereIsRank(i)] = adj;
+			adjSorted[i] = adj;
 		}	
+		
+		for (int i=0; i<n; i++)
+			adjPvalues[i] = adjSorted[Arrays.binarySearch(sorted, pvalues[i])];
     }
 }	
 	
@@ -29,7 +29,7 @@ package com.github.alesssia.statutils;
 public abstract class FDR
 {
 	/**  The unsorted p-values */
-    protected Double[] pvalues;
+    protected double[] pvalues;
 	/** The adjusted p-values */
 	protected double[] adjPvalues;
 	
@@ -52,6 +52,21 @@ public abstract class FDR
 		@param pv the p-values vector
 	*/	
     public FDR(Double[] pv)  
+	{  
+		pvalues = new double[pv.length];
+		for (int i = 0; i < pv.length; i++)
+			pvalues[i] = pv[i];
+		adjPvalues = new double[pvalues.length];
+	}
+	
+	/**
+		Constructor.
+		
+		Initialises the FDR engine, without boxing the p-values.
+		
+		@param pv the p-values vector
+	*/	
+    public FDR(double[] pv)  
 	{  
 		pvalues = pv;
 		adjPvalues = new double[pvalues.length];